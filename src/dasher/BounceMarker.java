@@ -2,66 +2,95 @@ package dasher;
 
 public class BounceMarker {
 	
+	/**
+	 * Distribution of the times (in bins of 1/BINS_PER_SEC s, relative to when
+	 * the sentence passed the marker) at which the user pushes the button,
+	 * as a sum of gaussians, one per push learnt, with older pushes' weights
+	 * decaying geometrically. Bins are held in a fixed array covering
+	 * {@link #MIN_BIN} to {@link #MAX_BIN} (weight outside that range being put
+	 * into the end bins), with a Fenwick tree of their prefix sums, so that the
+	 * median and percentiles take logarithmic time. Rather than multiplying every
+	 * bin by lambda on each push, we divide the weight of each new push by it
+	 * (i.e. all bins are scaled by a common, growing factor, which the queries
+	 * need not know about), and rescale only when that factor gets large.
+	 */
 	protected static class ParzenEstimator {
+		/** Range of bins held: +/-10s either side of the marker */
+		private static final int NUM_BINS = 2048, MIN_BIN = -NUM_BINS/2, MAX_BIN = NUM_BINS/2 - 1;
+		/** Rescale all bins when the weight given to a new push exceeds this */
+		private static final double MAX_SCALE = 1e100;
+		
 		private final double m_Lambda;
 		private final int m_nL;
 			
 		private final int[] hist;
 		private int hist_push=-1;
 		
+		/** Weight of each bin (index = bin - MIN_BIN), multiplied by m_dScale */
+		private final double[] weights = new double[NUM_BINS];
+		/** Fenwick tree over weights: element i (1-based) holds the sum of weights[i-(i&-i)] to weights[i-1] */
+		private final double[] tree = new double[NUM_BINS+1];
+		/** Factor by which the weight of a new push is multiplied: 1/lambda^(pushes since last rescale) */
+		private double m_dScale = 1.0;
+		/** Lowest and highest bins ever given weight (or MAX_BIN+1 and MIN_BIN-1, if none) */
+		private int m_iLo = MAX_BIN+1, m_iHi = MIN_BIN-1;
+		
+		/** Cached gaussian kernel: m_Kernel[0..2*m_iKernelNum-1], normalized to sum to 1, for variance m_dKernelVar */
+		private double[] m_Kernel = new double[0];
+		private int m_iKernelNum;
+		private double m_dKernelVar = Double.NaN;
+		
 		public ParzenEstimator(int histLen, int initMean, double initVar2) {
 			this.m_Lambda=1.0-(1.0/histLen);
 			this.m_nL=histLen;
 			this.hist=new int[histLen];
-			int numBuckets = (int)(3*initVar2);
-			weightsNeg=new double[numBuckets];
-			weightsPos=new double[numBuckets];
 			AddDist(initMean, initVar2, m_nL);
 		}
 		
-		private double[] weightsNeg,weightsPos;
+		/** Weight of a bin, multiplied by the common scale factor */
 		private double getWeight(int idx) {
-			if (idx<0) {
-				idx=-(idx+1);
-				return (idx<weightsNeg.length) ? weightsNeg[idx] : 0.0;
-			}
-			return (idx<weightsPos.length) ? weightsPos[idx] : 0.0;
+			return (idx<MIN_BIN || idx>MAX_BIN) ? 0.0 : weights[idx-MIN_BIN];
 		}
 		
+		/** Adds to the weight of a bin (clamped into range), at the current scale */
 		private void addWeight(int idx, double d) {
-			if (idx<0) {
-				idx=-(idx+1);
-				if (idx>=weightsNeg.length) {
-					double[] n=new double[Math.max(weightsNeg.length+5,idx+1)];
-					System.arraycopy(weightsNeg, 0, n, 0, weightsNeg.length);
-					weightsNeg=n;
-					weightsNeg[idx]=d;
-				} else {
-					weightsNeg[idx]+=d;
+			idx = Math.max(MIN_BIN, Math.min(MAX_BIN, idx));
+			if (idx<m_iLo) m_iLo=idx;
+			if (idx>m_iHi) m_iHi=idx;
+			d*=m_dScale;
+			weights[idx-MIN_BIN]+=d;
+			for (int i=idx-MIN_BIN+1; i<=NUM_BINS; i+=i&-i) tree[i]+=d;
+		}
+		
+		/** Sum of the weights of all bins, at the current scale */
+		private double total() {
+			return tree[NUM_BINS]; //the root covers the whole array, as NUM_BINS is a power of 2
+		}
+		
+		/**
+		 * Finds the first bin at which the cumulative weight reaches a target.
+		 * @param target cumulative weight, at the current scale
+		 * @return lowest bin such that the sum of weights up to and including it is >= target
+		 * (or MAX_BIN, if none is, due to rounding)
+		 */
+		private int search(double target) {
+			int pos=0;
+			for (int step=NUM_BINS; step>0; step>>=1) {
+				if (pos+step<=NUM_BINS && tree[pos+step]<target) {
+					pos+=step;
+					target-=tree[pos];
 				}
-			} else if (idx>=weightsPos.length) {
-				double[] n=new double[Math.max(weightsPos.length+5,idx+1)];
-				System.arraycopy(weightsPos, 0, n, 0, weightsPos.length);
-				weightsPos=n;
-				weightsPos[idx]=d;
-			} else {
-				weightsPos[idx]+=d;
 			}
+			return Math.min(pos, NUM_BINS-1)+MIN_BIN;
 		}
 		
 		private int mean() {
-		    double tot = 0.0;
-		    for (int i=0; i<weightsNeg.length; i++) tot+=weightsNeg[i];
-		    for (int i=0; i<weightsPos.length; i++) tot+=weightsPos[i];
-		    tot/=2.0;
-			for (int i = -weightsNeg.length; ; i++) {
-			    tot -= getWeight(i);
-			    if (tot <= 0.0) return i;
-			}
+			return search(total()/2.0);
 		}
 		
 		/** Get the mean of the result of multiplying this distribution
-		 * with (another distribution shifted by an offset)
+		 * with (another distribution shifted by an offset).
+		 * Takes time linear in the extent of the overlap of the two distributions.
 		 * @param other the other distribution
 		 * @param offset Amount to shift the other distribution _back_ by
 		 * (i.e. positive offset = pull it backwards in time,
@@ -73,7 +102,9 @@ public class BounceMarker {
 			double tot = 0.0;
 			//Element i of (other shifted back by offset) is element (i+offset) of (other).
 			//No need to examine elements where one dist is definitely zero. 
-			for (int i=-weightsNeg.length; i<weightsPos.length; i++) tot+=getWeight(i)*other.getWeight(i+offset);
+			//(Both are at their own scales, but that only multiplies the product by a constant)
+			final int lo = Math.max(m_iLo, other.m_iLo-offset), hi = Math.min(m_iHi, other.m_iHi-offset);
+			for (int i=lo; i<=hi; i++) tot+=getWeight(i)*other.getWeight(i+offset);
 			if (tot==0.0) {
 				//interpolate the midpoints, evenly weighted. (Better would be to weight
 				// according to variance, i.e. estimator X more concentrated => result
@@ -81,9 +112,9 @@ public class BounceMarker {
 				return (mean() + other.mean()-offset)/2;
 			}
 			tot/=2.0;
-			for (int i = -weightsNeg.length; ; i++) {
+			for (int i = lo; ; i++) {
 			    tot -= getWeight(i)*other.getWeight(i+offset);
-			    if (tot <= 0.0) {
+			    if (tot <= 0.0 || i==hi) {
 			    	return i;
 			    }
 			}
@@ -95,40 +126,38 @@ public class BounceMarker {
 		 * @param into 2-element array into which indices will be written
 		 */
 		public void getPercentile(double frac, int[] into) {
-			double tot = 0.0;
-		    for (int i=0; i<weightsNeg.length; i++) tot+=weightsNeg[i];
-		    for (int i=0; i<weightsPos.length; i++) tot+=weightsPos[i];
-		    double acc = 0.0; boolean fst=true;
-		    for (int i= -weightsNeg.length; ; i++) {
-		    	if ((acc+=getWeight(i)) >= tot*(fst ? frac : (1.0-frac))) {
-		    		into[fst ? 0 : 1]=i;
-		    		if (fst) fst=false; else return;
-		    	}
-		    }
+			final double tot = total();
+			into[0] = search(tot*frac);
+			into[1] = Math.max(into[0]+1, search(tot*(1.0-frac)));
 		}
 		
 		private static final int NUM_ROWS=6;
 		
 		/** Adds a gaussian with the given mean, variance, and weight, to the distribution */
 		private void AddDist(int mean, double var, double wt) {
-			int num = (int)(6*Math.sqrt(var)); // 6 std deviations
-			double tot=0.0, dDist[] = new double[2*num]; 
-			for (int i=0; i<2*num; i++)
-			    tot+= dDist[i]= Math.exp(-(i-num)*(i-num)/(var*2.0));
-			wt/=tot;
+			if (var!=m_dKernelVar) {
+				//compute (and cache) the kernel, normalized
+				final int num = (int)(6*Math.sqrt(var)); // 6 std deviations
+				if (m_Kernel.length<2*num) m_Kernel = new double[2*num];
+				double tot=0.0;
+				for (int i=0; i<2*num; i++)
+				    tot+= m_Kernel[i]= Math.exp(-(i-num)*(i-num)/(var*2.0));
+				for (int i=0; i<2*num; i++) m_Kernel[i]/=tot;
+				m_iKernelNum=num;
+				m_dKernelVar=var;
+			}
+			final int num=m_iKernelNum;
 			for (int i = 0; i < 2*num; i++)
-			    addWeight(i+mean-num,dDist[i] * wt);
-			//delete dDist
+			    addWeight(i+mean-num,m_Kernel[i] * wt);
 			/*if (DEBUG_LEARNING) {
 				//print distribution
 				double dMax = 0.0;
-				for (int i=0; i<weightsNeg.length; i++) dMax=Math.max(dMax,weightsNeg[i]);
-				for (int i=0; i<weightsPos.length; i++) dMax=Math.max(dMax,weightsPos[i]);
+				for (int i=m_iLo; i<=m_iHi; i++) dMax=Math.max(dMax,getWeight(i));
 				java.io.StringWriter sw=new java.io.StringWriter();
 				java.io.PrintWriter pw=new java.io.PrintWriter(sw);
 				pw.println(); //initial newline
 				for (int row = 1; row <= NUM_ROWS; row++) {
-					for (int i = -weightsNeg.length; i < weightsPos.length; i++)
+					for (int i = m_iLo; i <= m_iHi; i++)
 						pw.print(getWeight(i)*row >= dMax ? '*' : ' ');
 					pw.println();
 				}
@@ -157,8 +186,15 @@ public class BounceMarker {
 		}
 		
 		private void DecayAndAdd(int time, double var) {
-			for (int i=0; i<weightsNeg.length; i++) weightsNeg[i]*=m_Lambda;
-			for (int i=0; i<weightsPos.length; i++) weightsPos[i]*=m_Lambda;
+			//equivalent to multiplying all existing weights by m_Lambda
+			m_dScale/=m_Lambda;
+			if (m_dScale>MAX_SCALE) {
+				//bring weights back to the unit scale
+				final double f=1.0/m_dScale;
+				for (int i=0; i<NUM_BINS; i++) weights[i]*=f;
+				for (int i=1; i<=NUM_BINS; i++) tree[i]*=f;
+				m_dScale=1.0;
+			}
 			AddDist(time, var, 1.0);
 			//remove outliers if less significant than a binormal distribution (heavy-tailed!)
 			//should we scale everything up to compensate? Assume not significant...
@@ -159,6 +159,27 @@ public class CAlphIO extends XMLFileParser {
 			return m_Characters.size();
 		}
 		
+		/**
+		 * Identifies the symbols of this alphabet, in order, and how training
+		 * text is mapped onto them: alphabets with the same hash learn the same
+		 * model from the same text, so can share what is learnt from it.
+		 * 
+		 * @return Hash of the symbols' text, the paragraph symbol, and the
+		 * context-switching character.
+		 */
+		public int GetSymbolsHash() {
+			StringBuilder sb = new StringBuilder();
+			for (String s : m_Characters) sb.append(s).append('\0');
+			sb.append(m_ParagraphSymbol).append('\0').append(ctxChar);
+			java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+			try {
+				crc.update(sb.toString().getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e); //every JVM supports UTF-8
+			}
+			return (int)crc.getValue();
+		}
+		
 		/**
 		 * Gets the orientation associated with this alphabet.
 		 * Allowable values are enumerated by Opts.ScreenOrientations.
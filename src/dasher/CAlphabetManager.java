@@ -27,6 +27,7 @@ package dasher;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -71,6 +72,11 @@ public class CAlphabetManager<C> {
     
     protected final CAlphabetMap m_AlphabetMap;
     
+    /** Recycled node objects, obtained from the interface's {@link CNodeArena} */
+    private final CNodeArena.Pool<CSymbolNode> symbolPool;
+    private final CNodeArena.Pool<CGroupNode> groupPool;
+    private final CNodeArena.Pool<SpecialNode> specialPool;
+    
     private int getColour(CDasherNode parent, SGroupInfo group, int phase) {
     	if (group!=null) {
     		if (group.bVisible) return group.iColour;
@@ -94,6 +100,17 @@ public class CAlphabetManager<C> {
     	m_Alphabet = LanguageModel.getAlphabet();
     	m_AlphabetMap = m_Alphabet.makeMap();
     	
+    	CNodeArena arena = intf.getNodeArena();
+    	symbolPool = arena.new Pool<CSymbolNode>("Symbol") {
+    		@Override protected CSymbolNode make() {return new CSymbolNode();}
+    	};
+    	groupPool = arena.new Pool<CGroupNode>("Group") {
+    		@Override protected CGroupNode make() {return new CGroupNode();}
+    	};
+    	specialPool = arena.new Pool<SpecialNode>("Special") {
+    		@Override protected SpecialNode make() {return new SpecialNode();}
+    	};
+    	
     	//ACL TODO: CSFS wrote that repeated requests to CAlphIO.AlphInfo (then CAlphabet)::GetColour,
     	// GetSpaceSymbol and GetDisplayText, were taking up 5% of our runtime; and hence, he cached
     	// the ArrayList<Integer>s here. I'm trying to improve encapsulation and hence have ended this,
@@ -104,6 +121,21 @@ public class CAlphabetManager<C> {
 			 CDasherInterfaceBase.ProgressNotifier prog) throws IOException {
 		return m_AlphabetMap.TrainStream(m_LanguageModel, FileIn, iTotalBytes, iOffset, prog);
 	}
+
+    /** Starts recording what the language model learns; see {@link CLanguageModel#BeginDelta()} */
+    public void BeginDelta() {
+    	m_LanguageModel.BeginDelta();
+    }
+    
+    /** Merges a recording into the language model; see {@link CLanguageModel#ReadDelta(InputStream)} */
+    public boolean ReadDelta(InputStream in) throws IOException {
+    	return m_LanguageModel.ReadDelta(in);
+    }
+    
+    /** Stops recording, and writes it out; see {@link CLanguageModel#EndDelta(OutputStream)} */
+    public boolean EndDelta(OutputStream out) throws IOException {
+    	return m_LanguageModel.EndDelta(out);
+    }
 	
     /**
      * Creates a new root CDasherNode with the supplied parameters. (Parent, Lower, Upper:
@@ -124,7 +156,8 @@ public class CAlphabetManager<C> {
 	    			char c = doc.getCharAt(iOffset);
 	    			String s = (Character.isLowSurrogate(c) && Character.isHighSurrogate(doc.getCharAt(iOffset-1)))
 	    				? new String(new char[] {doc.getCharAt(iOffset-1),c}) : Character.toString(c);
-	    			NewNode = new SpecialNode(iOffset, s, m_LanguageModel.EmptyContext());
+	    			NewNode = specialPool.alloc();
+	    			((SpecialNode)NewNode).initNode(iOffset, 1, m_LanguageModel.EmptyContext(), s);
 	    		} else {
 	        		NewNode = allocSymbol(iOffset,iSym, 
 	        				m_LanguageModel.ContextWithSymbol(m_LanguageModel.BuildContext(previousSyms),iSym));
@@ -174,7 +207,9 @@ public class CAlphabetManager<C> {
 			}
 			strTrainfileContext.setLength(0);
 		}
+		final long tSpan = CSpanTracer.begin();
 		intf.WriteTrainFile(m_Alphabet.GetTrainingFile(),strTrainfileBuffer.toString());
+		CSpanTracer.end("WriteTrainFile", tSpan);
 		strTrainfileBuffer.setLength(0);
 	}
 	
@@ -303,12 +338,16 @@ public class CAlphabetManager<C> {
     	@Override public void Output() {
 			super.Output();
 			m_Interface.getDocument().outputText(outputText(), getOffset());
+			CInputTrace trace = m_Interface.getTrace();
+			if (trace!=null) trace.outputText(outputText(), getOffset());
 		}
     	
     	/** Removes {@link #outputText()} from the document at this node's offset. */
 		@Override public void Undo() {
 			super.Undo();
 			m_Interface.getDocument().deleteText(outputText(), getOffset());
+			CInputTrace trace = m_Interface.getTrace();
+			if (trace!=null) trace.deleteText(outputText(), getOffset());
 		}
 		/** Begins a fresh copy of the whole alphabet/letter tree */ 
 		@Override
@@ -337,9 +376,7 @@ public class CAlphabetManager<C> {
     }
 
     class SpecialNode extends COutputNode {
-		SpecialNode(int iOffset, String string, C ctx) {
-			initNode(iOffset, 1, ctx, string);
-		}
+		private SpecialNode() {}
 		@Override
 		protected CGroupNode rebuildGroup(CAlphNode parent, SGroupInfo group, long iLbnd, long iHbnd) {
 			return CAlphabetManager.this.mkGroup(parent,group,iLbnd,iHbnd);
@@ -385,6 +422,12 @@ public class CAlphabetManager<C> {
 			// stopping him in his tracks. He can continue by unpausing...
 			m_Interface.GetActiveInputFilter().pause();
 		}
+		
+		@Override
+		public void DeleteNode() {
+			super.DeleteNode();
+			specialPool.recycle(this);
+		}
 	}
 
     protected class CSymbolNode extends COutputNode {
@@ -521,7 +564,7 @@ public class CAlphabetManager<C> {
 		@Override
 		public void DeleteNode() {
 			super.DeleteNode(); //clears Parent(), hence have to do the above first...
-			freeSymbolList.add(this);
+			symbolPool.recycle(this);
 		}
 
     }
@@ -598,7 +641,7 @@ public class CAlphabetManager<C> {
 		@Override
 		public void DeleteNode() {
 			super.DeleteNode();
-			freeGroupList.add(this);
+			groupPool.recycle(this);
 		}
     }
 
@@ -671,21 +714,24 @@ public class CAlphabetManager<C> {
     	return n;
     }
     
-    private final List<CGroupNode> freeGroupList = new ArrayList<CGroupNode>();
-    
     private CGroupNode allocGroup(int iOffset, SGroupInfo group, int iColour, C ctx) {
-    	CGroupNode node = (freeGroupList.isEmpty()) ? new CGroupNode() : freeGroupList.remove(freeGroupList.size()-1);
+    	CGroupNode node = groupPool.alloc();
     	node.initNode(iOffset, group, iColour, ctx);
     	return node;
     }
 
-    private final List<CSymbolNode> freeSymbolList = new ArrayList<CSymbolNode>();
-    
     private CSymbolNode allocSymbol(int iOffset, int sym, C ctx) {
-    	CSymbolNode node = (freeSymbolList.isEmpty()) ? new CSymbolNode() : freeSymbolList.remove(freeSymbolList.size()-1);
+    	CSymbolNode node = symbolPool.alloc();
     	node.initNode(iOffset, sym, ctx);
     	return node;
     }
+    
+    /** Stop retaining deleted nodes for reuse - call once this manager has been
+     * replaced (and the tree rebuilt), as its nodes can't be used by any other.
+     */
+    void releasePools() {
+    	symbolPool.close(); groupPool.close(); specialPool.close();
+    }
 
     static <T> CAlphabetManager<T> makeAlphMgr(CDasherInterfaceBase intf, CLanguageModel<T> lm) {
     	return new CAlphabetManager<T>(intf, lm);
@@ -203,7 +203,9 @@ public class CAlphabetMap {
 	
 	/**
 	 * Trains the language model from a given InputStream, which
-	 * must be UTF-8 encoded. The stream may contain commands to
+	 * must be UTF-8 encoded, or gzip-compressed UTF-8 (which is
+	 * decompressed on another thread, by {@link CInflaterPipe}, as we
+	 * learn). The text may contain commands to
 	 * switch context; these are encoded as {@link #CONTEXT_COMMAND_CHAR},
 	 * followed by an arbitrary delimiter character that is not
 	 * {@link #CONTEXT_COMMAND_CHAR}, then any number of characters which
@@ -217,9 +219,9 @@ public class CAlphabetMap {
 	 * the file.
 	 * 
 	 * @param FileIn InputStream from which to read.
-	 * @param iTotalBytes Number of bytes to read.
+	 * @param iTotalBytes Number of bytes to read (i.e. compressed, if FileIn is).
 	 * @param iOffset Offset at which to start reading.
-	 * @return Number of bytes read
+	 * @return Number of bytes read (of FileIn, so compressed, if it was)
 	 * @throws IOException 
 	 */	
 	public <C> int TrainStream(CLanguageModel<C> model, InputStream FileIn, int iTotalBytes, int iOffset, CDasherInterfaceBase.ProgressNotifier prog) throws IOException {
@@ -247,10 +249,14 @@ public class CAlphabetMap {
 			}
 		};
 		CountStream count = new CountStream(FileIn, iOffset);
-		Reader chars = new BufferedReader(new InputStreamReader(count)); //buffer just for performance
+		final InputStream text = CInflaterPipe.open(count);
+		//if decompressing, count is read on another thread (and ahead); the pipe knows how far we've got
+		final CInflaterPipe pipe = (text instanceof CInflaterPipe) ? (CInflaterPipe)text : null;
+		Reader chars = new BufferedReader(new InputStreamReader(text)); //buffer just for performance
 		C trainContext = model.EmptyContext();
 		int iLastPercent = count.iTotalRead / iTotalBytes;
 		int delim=-1; //if not -1, we are in a context-switching command; chars read should be Enter'd not Learn'd.
+		long tBlock = CSpanTracer.begin(); //one span per 1% of progress
 		try {
 			outer: while (true) {
 				int c=chars.read();
@@ -309,9 +315,11 @@ public class CAlphabetMap {
 					else
 						trainContext = model.ContextWithSymbol(trainContext, sym);
 					if (prog!=null) {
-						int iNPercent = (count.iTotalRead *100)/iTotalBytes;
+						int iNPercent = (pipe==null) ? (count.iTotalRead *100)/iTotalBytes
+								: (int)(((iOffset+pipe.consumed())*100)/iTotalBytes);
 						if (iNPercent != iLastPercent) {
 							iLastPercent=iNPercent;
+							tBlock = CSpanTracer.end("TrainStream block", tBlock);
 							prog.notifyProgress(iNPercent);
 							//an AsynchronousCloseException exits trainStream().
 						}
@@ -321,6 +329,7 @@ public class CAlphabetMap {
 		} catch (EOFException e) {
 			//that's fine!
 		} finally {
+			CSpanTracer.end("TrainStream block", tBlock);
 			chars.close();
 		}
 		return count.iTotalRead;
@@ -25,8 +25,6 @@
 
 package dasher;
 
-import java.util.LinkedList;
-
 import dasher.CDasherView.MutablePoint;
 import static dasher.CDasherModel.CROSS_X;
 import static dasher.CDasherModel.CROSS_Y;
@@ -76,9 +74,23 @@ public class CAutoSpeedControl extends CDasherComponent {
 	 */
 	protected double m_dMinRRate; // controls rate at which min. r adapts HIGHER===SLOWER!
 	/**
-	 * List of the previous angles observed.
+	 * Cosines and sines of the previous angles observed, in a circular buffer:
+	 * the oldest is at m_iFirstAngle, and there are m_iNumAngles in total (at
+	 * most m_nSpeedSamples). Grown (doubling) when m_nSpeedSamples exceeds its size.
+	 */
+	protected double[] m_dCosAngles = new double[64], m_dSinAngles = new double[64]; // store angles for statistics
+	protected int m_iFirstAngle, m_iNumAngles;
+	/**
+	 * Running totals of the cosines and sines in the buffer, updated as angles
+	 * are added and evicted; so {@link #Variance()} takes constant time.
+	 */
+	protected double m_dSumCos, m_dSumSin;
+	/**
+	 * Evictions since the totals were last recomputed from the buffer (which we do
+	 * every {@link #RESUM_INTERVAL}, so that rounding errors cannot accumulate).
 	 */
-	protected LinkedList<Double> m_dequeAngles = new LinkedList<Double>(); // store angles for statistics
+	private int m_iEvictions;
+	private static final int RESUM_INTERVAL = 1<<16;
 	/**
 	 * Variables for adaptive radius calculations
 	 */
@@ -185,16 +197,9 @@ public class CAutoSpeedControl extends CDasherComponent {
 	protected double Variance() 
 	
 		{      
-		double avgcos, avgsin;
-		avgsin = avgcos = 0.0;
-		// find average of cos(theta) and sin(theta) 
-		for(double i : m_dequeAngles) {
-			
-			avgcos += Math.cos(i);
-			avgsin += Math.sin(i);
-		}
-		avgcos /= (1.0 * m_dequeAngles.size());
-		avgsin /= (1.0 * m_dequeAngles.size());
+		// find average of cos(theta) and sin(theta)
+		double avgcos = m_dSumCos / m_iNumAngles;
+		double avgsin = m_dSumSin / m_iNumAngles;
 		//return variance (see dasher/Doc/speedcontrol.tex)
 		return -(Math.log(avgcos * avgcos + avgsin * avgsin));
 		
@@ -290,15 +295,13 @@ public class CAutoSpeedControl extends CDasherComponent {
 
 //	  Data collection:
 	    
-	    // CSFS: Replaced push_back with addLast and pop_front with removeFirst.
-	    // 		 (C++ deque to Java LinkedList translation)
 	    // CSFS: Replaced C++ 'fabs' with Math.abs
-	    
+
 	    if(r > m_dMinRadius && Math.abs(theta) < 1.25) {
 	      m_nSpeedCounter++;
-	      m_dequeAngles.addLast(theta);
-	      while(m_dequeAngles.size() > m_nSpeedSamples) {
-		    m_dequeAngles.removeFirst();
+	      AddAngle(theta);
+	      while(m_iNumAngles > m_nSpeedSamples) {
+		    RemoveFirstAngle();
 	      }
 	      
 	      if(m_nSpeedCounter > round(m_nSpeedSamples *100.0 / GetLongParameter(Elp_parameters.LP_AUTOSPEED_SENSITIVITY))) {
@@ -316,6 +319,49 @@ public class CAutoSpeedControl extends CDasherComponent {
 	}
 	  
 
+	/**
+	 * Appends an angle to the buffer, adding its cosine and sine to the
+	 * running totals. Does not evict any; grows the buffer if full.
+	 *
+	 * @param theta Angle in radians
+	 */
+	protected void AddAngle(double theta) {
+		if (m_iNumAngles == m_dCosAngles.length) {
+			//unwrap into arrays twice the size
+			final int n = m_dCosAngles.length, iTail = n - m_iFirstAngle;
+			double[] cos = new double[2*n], sin = new double[2*n];
+			System.arraycopy(m_dCosAngles, m_iFirstAngle, cos, 0, iTail);
+			System.arraycopy(m_dCosAngles, 0, cos, iTail, m_iFirstAngle);
+			System.arraycopy(m_dSinAngles, m_iFirstAngle, sin, 0, iTail);
+			System.arraycopy(m_dSinAngles, 0, sin, iTail, m_iFirstAngle);
+			m_dCosAngles = cos; m_dSinAngles = sin;
+			m_iFirstAngle = 0;
+		}
+		final double c = Math.cos(theta), s = Math.sin(theta);
+		final int i = (m_iFirstAngle + m_iNumAngles++) % m_dCosAngles.length;
+		m_dCosAngles[i] = c; m_dSinAngles[i] = s;
+		m_dSumCos += c; m_dSumSin += s;
+	}
+
+	/**
+	 * Evicts the oldest angle from the buffer (which must not be empty),
+	 * subtracting its cosine and sine from the running totals.
+	 */
+	protected void RemoveFirstAngle() {
+		m_dSumCos -= m_dCosAngles[m_iFirstAngle];
+		m_dSumSin -= m_dSinAngles[m_iFirstAngle];
+		m_iFirstAngle = (m_iFirstAngle+1) % m_dCosAngles.length;
+		m_iNumAngles--;
+		if (++m_iEvictions == RESUM_INTERVAL) {
+			m_iEvictions = 0;
+			m_dSumCos = m_dSumSin = 0.0;
+			for (int j=0, i=m_iFirstAngle; j<m_iNumAngles; j++, i=(i+1) % m_dCosAngles.length) {
+				m_dSumCos += m_dCosAngles[i];
+				m_dSumSin += m_dSinAngles[i];
+			}
+		}
+	}
+
 	/**
 	 * Rounds a double to the nearest integer without
 	 * casting to an integer type.
@@ -20,6 +20,7 @@ import static dasher.CDasherModel.MAX_Y;
 public class CButtonMode extends CDasherButtons {
 	public CButtonMode(CDasherComponent creator, CDasherInterfaceBase iface, String szName) {
 		super(creator, iface, szName);
+		ListenFor(Elp_parameters.LP_B, Elp_parameters.LP_R);
 	}
 
 	protected SBox[] SetupBoxes() {
@@ -57,6 +57,7 @@ public class CClickFilter extends CStaticFilter {
 	 */
 	public CClickFilter(CDasherComponent creator, CDasherInterfaceBase iface) {
 	  super(creator, iface, "Click Mode");
+	  ListenFor(Elp_parameters.LP_MAX_ZOOM);
 	  HandleEvent(Elp_parameters.LP_MAX_ZOOM);
 	}
 
@@ -6,6 +6,7 @@ public class CCompassMode extends CDasherButtons {
 	private int iTargetWidth;
 	public CCompassMode(CDasherComponent creator, CDasherInterfaceBase iface) {
 		super(creator, iface, "Compass Mode");
+		ListenFor(Elp_parameters.LP_RIGHTZOOM);
 	}
   
 	@Override protected SBox[] SetupBoxes() {
@@ -20,10 +20,16 @@ public class CControlManager extends CDasherComponent {
 		this.model=model;
 		this.root=(actions.size()==1) ? actions.get(0) :
 			new FixedSuccessorsAction("Control",actions); //TODO internationalize
+		this.nodePool = iface.getNodeArena().new Pool<CContNode>("Control") {
+			@Override protected CContNode make() {return new CContNode();}
+		};
 	}
 
 	void ChangeNCManager(CNodeCreationManager pNCMgr) {m_pNCMgr = pNCMgr;}
 
+	/** Stop retaining deleted nodes for reuse, once this manager has been replaced */
+	void releasePools() {nodePool.close();}
+
 	static int getColour(CDasherNode parent) {return parent==null ? 7 : (parent.ChildCount()%99)+11;}
 
 	public CDasherNode GetRoot(CDasherNode parent) {
@@ -151,8 +157,8 @@ public class CControlManager extends CDasherComponent {
 		@Override
 		public void DeleteNode() {
 			super.DeleteNode();
-			nodeCache.add(this);
 			extraInfo.remove(this);
+			nodePool.recycle(this);
 		}
 	}
 	/** Utility method, to build an appropriate alph-node parent (root) for a control
@@ -178,10 +184,10 @@ public class CControlManager extends CDasherComponent {
 	
 	private final Map<CContNode,Object> extraInfo = new HashMap<CContNode, Object>();
 	
-	private final List<CContNode> nodeCache = new ArrayList<CContNode>();
+	private final CNodeArena.Pool<CContNode> nodePool;
 
 	public CContNode makeCont(ControlAction act, int iOffset, int iColour, String desc) {
-		CContNode node = (nodeCache.isEmpty()) ? new CContNode() : nodeCache.remove(nodeCache.size()-1);
+		CContNode node = nodePool.alloc();
 		node.initNode(iOffset, iColour, act, desc);
 		return node;
 	}
@@ -316,6 +322,7 @@ public class CControlManager extends CDasherComponent {
 		
 		AlphSwitcher(CDasherComponent creator) {
 			super(creator);
+			ListenFor(Esp_parameters.SP_ALPHABET_ID);
 			HandleEvent(Esp_parameters.SP_ALPHABET_ID);
 		}
 		
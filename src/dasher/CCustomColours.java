@@ -56,6 +56,11 @@ public class CCustomColours {
 	 * Fast-access array of available colours' blue values.
 	 */
 	protected ArrayList<Integer> m_Blue = new ArrayList<Integer>();
+	
+	/**
+	 * Each colour packed into a single int, as by {@link #GetARGB(int)}.
+	 */
+	protected final int[] m_ARGB;
 
 	/**
 	 * Sole constructor; copies the data from a given ColourInfo
@@ -72,6 +77,9 @@ public class CCustomColours {
 			m_Green.add(m_ColourInfo.Greens.get(i));
 			m_Blue.add(m_ColourInfo.Blues.get(i));
 		}
+		m_ARGB = new int[m_Red.size()];
+		for (int i = 0; i < m_ARGB.length; i++)
+			m_ARGB[i] = 0xFF000000 | (m_Red.get(i) << 16) | (m_Green.get(i) << 8) | m_Blue.get(i);
 	}
 		
 	/**
@@ -112,4 +120,17 @@ public class CCustomColours {
 	public int GetBlue(int colour) {
 		return m_Blue.get(colour);
 	}
+	
+	/**
+	 * Gets a colour packed into a single int: opaque, with 8 bits each of
+	 * red, green and blue, from most to least significant - as used by
+	 * e.g. android.graphics.Color and java.awt.Color. This requires no
+	 * unboxing, so is cheaper than calling GetRed, GetGreen and GetBlue.
+	 * 
+	 * @param colour Index of the colour to look up.
+	 * @return 0xAARRGGBB, where AA is always 0xFF.
+	 */
+	public int GetARGB(int colour) {
+		return m_ARGB[colour];
+	}
 }
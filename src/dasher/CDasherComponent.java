@@ -94,10 +94,28 @@ public class CDasherComponent implements Observer<EParameters> {
 	  }
 	}
 	
+	/**
+	 * Restricts the parameter changes of which this component is notified, to
+	 * just those given here (by this call, or by others in any constructor of the
+	 * class hierarchy): after the first call, it is no longer woken by changes
+	 * to any other parameters. Call from the constructor of every class which
+	 * overrides {@link #HandleEvent(EParameters)}, with all the parameters which
+	 * that class handles, or from none of them (to receive all changes).
+	 *
+	 * @param params Parameters whose changes this component handles
+	 */
+	protected final void ListenFor(EParameters... params) {
+		m_SettingsStore.UnregisterListener(this);
+		for (EParameters param : params)
+			m_SettingsStore.RegisterListener(this, param);
+	}
+
 	/**
 	 * Called when a settings value changes. The default asserts false:
 	 * the DasherComponent will have registered itself for callbacks in
-	 * its constructor if and only if it overrides this method.
+	 * its constructor if and only if it overrides this method; and if it
+	 * has called {@link #ListenFor(EParameters...)}, will be called only
+	 * for the parameters passed to that.
 	 * @param eParamChange Parameter whose value has just changed.
 	 */
 	public void HandleEvent(EParameters eParamChange) {assert false;}
@@ -84,6 +84,18 @@ abstract public class CDasherInput implements CDasherModule {
 		return true;
 	}
 	
+	/**
+	 * Called at the start of each frame, before the coordinates are read, with
+	 * the time for which they are wanted: the frame's time plus LP_INPUT_PREDICTION,
+	 * i.e. roughly when the frame will be seen. Devices which buffer timestamped
+	 * samples (see {@link CInputSamples}) may then report their position as
+	 * predicted for that time (see {@link CInputPredictor}), rather than as of
+	 * the latest sample. Default does nothing.
+	 * @param iTime time (ms) for which to predict; or -1 if LP_INPUT_PREDICTION is
+	 * negative, meaning the device should report its latest sample as is
+	 */
+	public void NewFrame(long iTime) {}
+	
 	/**
 	 * Activates the input device. If threads must be started
 	 * to support the device, this is the place to do it.
@@ -26,8 +26,10 @@
 package dasher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Collection;
 import java.util.List;
@@ -81,11 +83,17 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	protected CCustomColours m_Colours;
 	
+	/**
+	 * Recycles, and counts, all the nodes created by our NodeCreation/Alphabet/ControlManagers.
+	 * (Must be initialized before the model, which budgets using its count of live nodes.)
+	 */
+	private final CNodeArena m_NodeArena = new CNodeArena(this);
+	
 	/**
 	 * The DasherModel, i.e. tracks locations of nodes on screen. Only one need be created,
 	 * as it can be fed nodes from multiple NodeCreation/AlphabetManagers.
 	 */
-	private final CDasherModel m_DasherModel = new CDasherModel(this);
+	private final CDasherModel m_DasherModel = new CDasherModel(this, m_NodeArena);
 	
 	protected CNodeCreationManager m_pNCManager;
 	
@@ -124,6 +132,19 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	protected CUserLog m_UserLog;
 	
+	/**
+	 * Recorder of input etc., if a trace is being made (else null)
+	 */
+	private CInputTrace m_Trace;
+	
+	/** Temporary for recording input co-ordinates into {@link #m_Trace} */
+	private final CDasherView.MutablePoint m_TraceCoords = new CDasherView.MutablePoint();
+	
+	/**
+	 * Timings of each stage of NewFrame, iff BP_PROFILE_FRAMES is set (else null)
+	 */
+	private CFrameProfiler m_Profiler;
+	
 	/**
 	 * Current input filter
 	 */
@@ -174,6 +195,74 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	protected abstract void GetStreams(String fname, Collection<InputStream> into);
 	
+	/**
+	 * Open the text written by the user (i.e. passed to {@link #WriteTrainFile(String, String)})
+	 * for a training file, except any removed by {@link #DiscardUserText(String, long)}.
+	 * This is learnt after the files from {@link #GetStreams(String, Collection)}
+	 * and the delta from {@link #OpenUserDelta(String, String)}. Default does nothing.
+	 * @param fname filename, e.g. "training_english_GB.txt"
+	 * @param into Collection to which inputstreams for the text should be added.
+	 * @return Position of the start of the text returned, i.e. number of bytes
+	 * ever written (and then discarded) before it
+	 */
+	protected long GetUserStreams(String fname, Collection<InputStream> into) {
+		return 0;
+	}
+	
+	/**
+	 * Removes user-written text for a training file, which has been learnt into
+	 * the deltas for every alphabet that trains from it, so it is no longer
+	 * returned by {@link #GetUserStreams(String, Collection)}. Default does nothing.
+	 * @param fname filename, e.g. "training_english_GB.txt"
+	 * @param iPos Position in the text, as per {@link #GetUserStreams(String, Collection)},
+	 * before which it may be removed
+	 */
+	protected void DiscardUserText(String fname, long iPos) throws IOException {}
+	
+	/**
+	 * Open the delta last saved by {@link #CommitUserDelta(String, String)}, recording what
+	 * the language model for an alphabet learnt from user-written text before that.
+	 * Default returns null, as does any platform which cannot store deltas.
+	 * @param fname name of the training file, e.g. "training_english_GB.txt"
+	 * @param alph identifies the alphabet, from {@link #UserDeltaKey(CAlphIO.AlphInfo)}
+	 * @return stream from which to read the delta, or null if none saved
+	 */
+	protected InputStream OpenUserDelta(String fname, String alph) throws IOException {
+		return null;
+	}
+	
+	/**
+	 * Start saving a new delta for a training file and alphabet, replacing that from
+	 * {@link #OpenUserDelta(String, String)} once {@link #CommitUserDelta(String, String)}
+	 * is called. Default returns null, as does any platform which cannot store deltas.
+	 * @param fname name of the training file, e.g. "training_english_GB.txt"
+	 * @param alph identifies the alphabet, from {@link #UserDeltaKey(CAlphIO.AlphInfo)}
+	 * @return stream to which to write the delta, or null to not save one
+	 */
+	protected OutputStream CreateUserDelta(String fname, String alph) throws IOException {
+		return null;
+	}
+	
+	/**
+	 * Called once the delta written to the stream from {@link #CreateUserDelta(String, String)}
+	 * is complete (and the stream closed): should make it, in a single step, the delta to be
+	 * returned by {@link #OpenUserDelta(String, String)}. (The delta records how much of the
+	 * user-written text it includes, so nothing else need change at the same time.)
+	 * Default does nothing, as {@link #CreateUserDelta(String, String)} never saves a delta.
+	 * @param fname name of the training file, e.g. "training_english_GB.txt"
+	 * @param alph identifies the alphabet, from {@link #UserDeltaKey(CAlphIO.AlphInfo)}
+	 */
+	protected void CommitUserDelta(String fname, String alph) throws IOException {}
+	
+	/**
+	 * Identifies the delta for an alphabet, among those training from the same file:
+	 * alphabets which share a key have the same symbols, so may share a delta.
+	 * @return key, suitable for use in a filename
+	 */
+	protected static String UserDeltaKey(CAlphIO.AlphInfo alph) {
+		return Integer.toHexString(alph.GetSymbolsHash());
+	}
+	
 	/** Must return a representation of whatever we're currently editing. */
 	//TODO can clients keep references to this, that persist over SetOffset(,true)?
 	public abstract EditableDocument getDocument();
@@ -193,6 +282,9 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 		sets.setLastListener(this);
 	}
 	
+	/** Whether {@link #LoadData()} has read all available alphabets into m_AlphIO */
+	private boolean m_bAlphabetsLoaded;
+	
 	/**
 	 * Loads all required data from external sources:
 	 * <ul>
@@ -204,6 +296,7 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	protected void LoadData() {
 		ScanXMLFiles(m_AlphIO, "alphabet");
+		m_bAlphabetsLoaded = true;
 		
 		ScanXMLFiles(m_ColourIO, "colour");
 		CreateModules();
@@ -237,6 +330,8 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 		
 		CreateInput();
 		CreateInputFilter();
+		UpdateProfiler();
+		CSpanTracer.setEnabled(GetBoolParameter(Ebp_parameters.BP_TRACE_SPANS));
 		
 		// All the setup is done by now, so let the user log object know
 		// that future parameter changes should be logged.
@@ -272,7 +367,7 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 * <p>
 	 * <i>BP_COLOUR_MODE</i>: redraws the display.
 	 * <p>
-	 * <i>BP_OUTLINE_MODE</i>: Redraws the display.
+	 * <i>BP_OUTLINE_MODE, LP_LOD_PIXELS</i>: Redraws the display.
 	 * <p>
 	 * <i>LP_ORIENTATION</i>: Sets the LP_REAL_ORIENTATION parameter either
 	 * to the value of LP_ORIENTATION, or if the latter is -2 (a special sentinel value)
@@ -312,7 +407,7 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 		if(eParam == Ebp_parameters.BP_COLOUR_MODE) {       // Forces us to redraw the display
 			// TODO) { Is this variable ever used any more?
 			Redraw(true);
-		} else if(eParam ==  Ebp_parameters.BP_OUTLINE_MODE) {
+		} else if(eParam ==  Ebp_parameters.BP_OUTLINE_MODE || eParam == Elp_parameters.LP_LOD_PIXELS) {
 			Redraw(true);
 		} else if(eParam ==  Esp_parameters.SP_ALPHABET_ID) {
 			ChangeAlphabet();
@@ -333,6 +428,7 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 			Redraw(true);
 		} else if (eParam == Esp_parameters.SP_ORIENTATION) {
 			if (m_DasherView!=null) m_DasherView.setOrientation(computeOrientation());
+			Redraw(true);
 		} else if(eParam == Esp_parameters.SP_INPUT_DEVICE) {
 			CreateInput();
 			Redraw(false);
@@ -345,17 +441,54 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 			Redraw(false);
 		} else if (eParam == Ebp_parameters.BP_CONTROL_MODE || eParam == Elp_parameters.LP_UNIFORM) {
 			UpdateControlManager();
+		} else if (eParam == Ebp_parameters.BP_PROFILE_FRAMES) {
+			UpdateProfiler();
+		} else if (eParam == Ebp_parameters.BP_TRACE_SPANS) {
+			CSpanTracer.setEnabled(GetBoolParameter(Ebp_parameters.BP_TRACE_SPANS));
 		}
 	}
 	
+	/** Creates or discards the frame profiler, according to BP_PROFILE_FRAMES */
+	private void UpdateProfiler() {
+		if (GetBoolParameter(Ebp_parameters.BP_PROFILE_FRAMES)) {
+			if (m_Profiler==null) m_Profiler = new CFrameProfiler();
+		} else m_Profiler=null;
+		m_DasherModel.setProfiler(m_Profiler);
+	}
+	
+	/**
+	 * Gets the timings of each stage of NewFrame, and counts of nodes
+	 * expanded/collapsed/drawn etc., recorded since BP_PROFILE_FRAMES
+	 * was last turned on (or {@link #ResetFrameProfile()} called).
+	 * @return snapshot of statistics, or null if BP_PROFILE_FRAMES is not set.
+	 */
+	public CFrameProfiler.Snapshot GetFrameProfile() {
+		final CFrameProfiler prof = m_Profiler;
+		return (prof==null) ? null : prof.getSnapshot();
+	}
+	
+	/** Clears the statistics that would be returned by {@link #GetFrameProfile()} */
+	public void ResetFrameProfile() {
+		final CFrameProfiler prof = m_Profiler;
+		if (prof!=null) prof.reset();
+	}
+	
 	/** Create a new NCManager and ControlManager, but using the previous' (existing) NCManager's AlphabetManager
 	 * (preserving training). This'll updates cached values for normalization, uniformity, etc.  
 	 */
 	protected void UpdateControlManager() {
-		if (m_pNCManager!=null) m_pNCManager = new CNodeCreationManager(this, m_pNCManager.getAlphabetManager(), makeControlManager());
+		CControlManager oldCont = null;
+		if (m_pNCManager!=null) {
+			oldCont = m_pNCManager.getControlManager();
+			m_pNCManager = new CNodeCreationManager(this, m_pNCManager.getAlphabetManager(), makeControlManager());
+		}
 		forceRebuild(); //perhaps overkill, but makes sure control nodes appear, pronto
+		if (oldCont!=null) oldCont.releasePools(); //all its nodes have now been deleted
 	}
 	
+	/** The arena from which all nodes for this interface should be allocated */
+	public CNodeArena getNodeArena() {return m_NodeArena;}
+	
 	public void Lock(String msg, int iPercent) {
 		// TODO: 'Reference counting' for locks?
 		if (iPercent>=0) {
@@ -365,7 +498,9 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 			m_sLockMsg = null;
 			forceRebuild();
 		}
-		Redraw(false); //assume %age or m_bLock has changed... 
+		//assume %age or m_bLock has changed... and if unlocked, the nodes must
+		// replace the message (even on a CMarkerScreen, when not moving)
+		Redraw(m_sLockMsg==null);
 	}
 	
 	/** Subclasses should implement to display a message to the user, e.g.
@@ -375,6 +510,15 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	public abstract void Message(String msg, int severity);
 	
+	/** Records diagnostic output (e.g. frame profiles), for developers rather
+	 * than the user: so never displayed in the UI. The default writes to System.err;
+	 * subclasses may redirect to a platform log.
+	 * @param msg Text to log
+	 */
+	public void DebugLog(String msg) {
+		System.err.println(msg);
+	}
+	
 	private final Map<CAlphIO.AlphInfo,WeakReference<CLanguageModel<?>>> m_LMcache
 		= new HashMap<CAlphIO.AlphInfo, WeakReference<CLanguageModel<?>>>();
 	/**
@@ -397,9 +541,11 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 
 		//(1) So, first we make the old NCMgr & LM unreachable (the event handler has only weakrefs)
 		CControlManager cont;
+		CAlphabetManager<?> oldAlph = null;
 		if (m_pNCManager!=null) {
 			//since the AlphabetManager is about to be deleted, better write out anything unsaved...
-			m_pNCManager.getAlphabetManager().WriteTrainFileFull(this);
+			oldAlph = m_pNCManager.getAlphabetManager();
+			oldAlph.WriteTrainFileFull(this);
 			cont = m_pNCManager.getControlManager();
 		} else 
 			cont = makeControlManager();
@@ -452,11 +598,13 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 			bTrain=false;
 		
 		m_pNCManager = new CNodeCreationManager(this, CAlphabetManager.makeAlphMgr(this,lm), cont);
+		if (m_DasherView!=null) m_DasherView.setAlphabet(cAlphabet);
 		if (m_ColourIO.getByName(GetStringParameter(Esp_parameters.SP_COLOUR_ID))==null)
 			ChangeColours(); //we must have been using the alphabet palette, which may have changed
 		
 		//Then, we rebuild the tree, so that any old nodes (referring to the old LM) are gone...
 		forceRebuild();
+		if (oldAlph!=null) oldAlph.releasePools();
 		
 		System.gc(); //the old LM should now be collectable, so just a hint...
 		
@@ -566,7 +714,28 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 		//ok, we want to render some nodes...if there are any...
 		if (m_DasherModel == null) throw new IllegalStateException("Not yet constructed?");
 		
+		final long tFrame = CSpanTracer.begin();
+		long tSpan = tFrame;
+		final CFrameProfiler prof = m_Profiler;
+		long t=0, iProbCalls=0;
+		if (prof!=null) {
+			t = prof.startFrame();
+			if (m_pNCManager!=null) iProbCalls = m_pNCManager.getNumProbCalls();
+		}
+		
+		if (m_Input!=null) {
+			final long iAhead = GetLongParameter(Elp_parameters.LP_INPUT_PREDICTION);
+			m_Input.NewFrame(iAhead<0 ? -1 : iTime+iAhead);
+		}
+
+		if (m_Trace!=null) {
+			boolean bValid = m_Input!=null && m_Input.GetDasherCoords(m_DasherView, m_TraceCoords);
+			m_Trace.frame(iTime, bValid, m_TraceCoords.x, m_TraceCoords.y);
+		}
+		
 		if (m_InputFilter!=null) m_InputFilter.Timer(iTime, m_DasherView, m_Input, m_DasherModel); 
+		if (prof!=null) t=prof.endStage(CFrameProfiler.Stage.INPUT_FILTER, t);
+		tSpan = CSpanTracer.end("Timer", tSpan);
 					
 		/*Logging code. TODO: capture int iNumDeleted / Vector<CSymbolProb>
 		 * from information passed to outputText/deleteText, then:
@@ -576,6 +745,8 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 		 *        m_UserLog.AddSymbols(vAdded);
 		 */
 		final boolean bMoved = m_DasherModel.nextScheduledStep(iTime);
+		if (prof!=null) prof.endStage(CFrameProfiler.Stage.SCHEDULED_STEP, t);
+		tSpan = CSpanTracer.end("nextScheduledStep", tSpan);
 		if (bMoved) {
 			if (m_bLastPaused) {onUnpause(); m_bLastPaused=false;}
 		} else if (!m_bLastPaused) {onPause(); m_bLastPaused=true;}
@@ -594,10 +765,15 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 		
 		if (m_MarkerScreen!=null)
 			m_MarkerScreen.SendMarker(1);
+		tSpan = CSpanTracer.end("RenderToView", tSpan);
+		
+		if (prof!=null) t=System.nanoTime(); //RenderToView records its own stages
+		final boolean bDecorated = m_InputFilter!=null && m_InputFilter.DecorateView(m_DasherView, m_Input);
+		if (prof!=null) t=prof.endStage(CFrameProfiler.Stage.DECORATE, t);
+		tSpan = CSpanTracer.end("DecorateView", tSpan);
 		
 		//if we moved, expanded/collapsed anything, or decorations changed...
-		if ((m_InputFilter!=null && m_InputFilter.DecorateView(m_DasherView, m_Input))
-				|| bRedraw) {
+		if (bDecorated || bRedraw) {
 			//then need to blit to screen!
 			if (m_MarkerScreen!=null) m_MarkerScreen.Display();
 			// and also make sure we render another frame after this (necessary
@@ -610,6 +786,14 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 		for (int i=0; i<endOfFrameTasks.size(); i++)
 			endOfFrameTasks.get(i).run();
 		endOfFrameTasks.clear();
+		CSpanTracer.end("EndOfFrame", tSpan);
+		CSpanTracer.end("NewFrame", tFrame);
+		
+		if (prof!=null) {
+			prof.endStage(CFrameProfiler.Stage.END_OF_FRAME, t);
+			if (m_pNCManager!=null) prof.add(CFrameProfiler.Counter.PROB_CALLS, Math.max(0, m_pNCManager.getNumProbCalls()-iProbCalls));
+			if (prof.endFrame(iTime)) DebugLog("Frame profile: "+prof.getSnapshot());
+		}
 	}
 	
 	protected void onUnpause() {
@@ -718,12 +902,14 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	public void ChangeScreen(CDasherScreen NewScreen) {
 		m_DasherScreen = NewScreen;
+		if (m_Trace!=null) m_Trace.screen(NewScreen.GetWidth(), NewScreen.GetHeight());
 		m_MarkerScreen = (NewScreen instanceof CMarkerScreen) ? (CMarkerScreen)NewScreen : null;
 		if (m_Colours!=null) m_DasherScreen.SetColourScheme(m_Colours);
 		
-		if(m_DasherView == null)
+		if(m_DasherView == null) {
 			m_DasherView = new CDasherViewSquare(this, m_DasherScreen, computeOrientation());
-		else
+			m_DasherView.setAlphabet(m_pNCManager.getAlphabetManager().m_Alphabet);
+		} else
 			m_DasherView.ChangeScreen(m_DasherScreen);
 		
 		Redraw(true);
@@ -755,36 +941,218 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	}
 	/**
 	 * Called to train the model with all available files of the specified name
-	 * (obtained via {@link #GetStreams(String, Collection)}.
+	 * (obtained via {@link #GetStreams(String, Collection)}, and then with what
+	 * the user has written: the delta for the alphabet from {@link #OpenUserDelta(String, String)},
+	 * then the text from {@link #GetUserStreams(String, Collection)} which that does not
+	 * include. If all of these are learnt successfully, they are compacted into a new delta
+	 * (via {@link #CreateUserDelta(String, String)} and {@link #CommitUserDelta(String, String)}),
+	 * so the text need not be learnt again on subsequent starts; and once the deltas for
+	 * all alphabets training from the file include some text, it is discarded.
 	 * @param T alphabet-provided name of training file, e.g. "training_english_GB.txt"
 	 * @param prog ProgressNotifier which will be notified of %progress
 	 */
 	protected void train(CAlphabetManager<?> mgr,ProgressNotifier prog) {
+		final String fname = mgr.m_Alphabet.GetTrainingFile(), alph = UserDeltaKey(mgr.m_Alphabet);
 		int iTotalBytes=0;
 		List<InputStream> streams=new ArrayList<InputStream>();
-		GetStreams(mgr.m_Alphabet.GetTrainingFile(),streams);
-		for (InputStream in : streams)
+		GetStreams(fname,streams);
+		List<InputStream> userStreams=new ArrayList<InputStream>();
+		final long iUserStart = GetUserStreams(fname,userStreams);
+		sizes: for (List<InputStream> l : Arrays.asList(streams, userStreams))
+			for (InputStream in : l)
+				try {
+					iTotalBytes+=in.available();
+				} catch (IOException e) {
+					//Hmmm. Ignore? Or...how about:
+					iTotalBytes = Integer.MAX_VALUE; //i.e. we won't get progress - because we can't...
+					break sizes;
+				}
+		
+		int iRead = train(mgr, streams, iTotalBytes, 0, prog);
+		if (iRead<0) return;
+		//Now what the user has written: first, that learnt and recorded previously...
+		mgr.BeginDelta();
+		boolean bDeltaOk;
+		long iLearnt=0; //position in the user's text, up to which the delta includes it
+		try {
+			InputStream in = OpenUserDelta(fname, alph);
+			if (in==null) bDeltaOk=true;
+			else try {
+				DataInputStream d = new DataInputStream(in);
+				iLearnt = d.readLong();
+				bDeltaOk = mgr.ReadDelta(d);
+				if (!bDeltaOk) Message("User model for "+fname+" not compatible - ignored", 1);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Message("Error "+e+" reading user model for "+fname, 1);
+			bDeltaOk=false;
+		}
+		if (!bDeltaOk) iLearnt=0;
+		//...then the text since, recording it too
+		final UserTextStream user = new UserTextStream(userStreams, iUserStart);
+		try {
+			iRead += (int)user.skipTo(iLearnt);
+		} catch (IOException e) {
+			Message("Error "+e+" reading user text for "+fname, 1);
+			bDeltaOk=false; //don't know how much of it is in the delta
+		}
+		iRead = train(mgr, Collections.<InputStream>singletonList(user), iTotalBytes, iRead, prog);
+		OutputStream out = null;
+		try {
+			//so long as nothing's been lost, compact it all into a new delta
+			if (iRead>=0 && bDeltaOk && user.m_bEnd && user.m_iPos!=iLearnt) out = CreateUserDelta(fname, alph);
+			if (out!=null) {
+				final long tSpan = CSpanTracer.begin();
+				try {
+					DataOutputStream d = new DataOutputStream(out);
+					d.writeLong(user.m_iPos);
+					boolean bOk = mgr.EndDelta(d);
+					d.flush();
+					out.close(); out=null;
+					if (bOk) {
+						CommitUserDelta(fname, alph);
+						DiscardLearntUserText(fname);
+					}
+				} finally {
+					CSpanTracer.end("CompactUserModel", tSpan);
+				}
+			} else
+				mgr.EndDelta(null);
+		} catch (IOException e) {
+			Message("Error "+e+" writing user model for "+fname, 1);
+			if (out!=null) try {out.close();} catch (IOException e2) {}
+		}
+	}
+	
+	/**
+	 * Discards the user-written text for a training file, as far as the deltas
+	 * for all alphabets that train from that file include it. (If any alphabet
+	 * has no delta yet, it will need all the text, so none is discarded; nor
+	 * is any before {@link #LoadData()}, when not all alphabets are known.)
+	 */
+	private void DiscardLearntUserText(String fname) throws IOException {
+		if (!m_bAlphabetsLoaded) return;
+		List<String> alphs = new ArrayList<String>();
+		m_AlphIO.GetAlphabets(alphs);
+		long iMin = Long.MAX_VALUE;
+		for (String id : alphs) {
+			CAlphIO.AlphInfo info = m_AlphIO.GetInfo(id);
+			if (!fname.equals(info.GetTrainingFile())) continue;
+			InputStream in = OpenUserDelta(fname, UserDeltaKey(info));
+			if (in==null) return;
 			try {
-				iTotalBytes+=in.available();
-			} catch (IOException e) {
-				//Hmmm. Ignore? Or...how about:
-				iTotalBytes = Integer.MAX_VALUE; //i.e. we won't get progress - because we can't...
-				break;
+				iMin = Math.min(iMin, new DataInputStream(in).readLong());
+			} finally {
+				in.close();
 			}
-			
-		int iRead = 0;
+		}
+		if (iMin!=Long.MAX_VALUE) DiscardUserText(fname, iMin);
+	}
+	
+	/**
+	 * The user-written text from a list of streams, in order, as one stream;
+	 * which can skip that already learnt, and records how far it has been read.
+	 */
+	private static class UserTextStream extends InputStream {
+		private final Iterator<InputStream> m_Streams;
+		private InputStream m_Cur;
+		/** Position in the user's text (as per {@link CDasherInterfaceBase#GetUserStreams}) of the next byte */
+		long m_iPos;
+		/** Whether all of the text has been read */
+		boolean m_bEnd;
+		
+		UserTextStream(List<InputStream> streams, long iStart) {
+			this.m_Streams = streams.iterator();
+			this.m_iPos = iStart;
+		}
+		
+		/** Makes sure m_Cur is the stream to read next; returns false at the end of the last */
+		private boolean next() {
+			if (m_Cur==null) {
+				if (!m_Streams.hasNext()) {
+					m_bEnd=true;
+					return false;
+				}
+				m_Cur = m_Streams.next();
+			}
+			return true;
+		}
+		
+		/** Finishes with the current stream, after it returned EOF */
+		private void endCur() throws IOException {
+			m_Cur.close();
+			m_Cur=null;
+		}
+		
+		/**
+		 * Reads (and discards) the text before a position, if any.
+		 * @return number of bytes skipped
+		 */
+		long skipTo(long iPos) throws IOException {
+			final long iStart = m_iPos;
+			byte[] buf = new byte[4096];
+			while (m_iPos<iPos && read(buf, 0, (int)Math.min(buf.length, iPos-m_iPos))!=-1);
+			return m_iPos-iStart;
+		}
+		
+		@Override public int read() throws IOException {
+			while (next()) {
+				final int b = m_Cur.read();
+				if (b!=-1) {
+					m_iPos++;
+					return b;
+				}
+				endCur();
+			}
+			return -1;
+		}
+		
+		@Override public int read(byte[] buf, int off, int len) throws IOException {
+			if (len==0) return 0;
+			while (next()) {
+				final int n = m_Cur.read(buf, off, len);
+				if (n>0) {
+					m_iPos+=n;
+					return n;
+				}
+				if (n==-1) endCur();
+			}
+			return -1;
+		}
+		
+		@Override public int available() throws IOException {
+			return (m_Cur==null) ? 0 : m_Cur.available();
+		}
+		
+		@Override public void close() throws IOException {
+			if (m_Cur!=null) endCur();
+			while (m_Streams.hasNext()) m_Streams.next().close();
+		}
+	}
+	
+	/**
+	 * Trains the model from each of a list of streams in turn.
+	 * @return total number of bytes read (including iRead), or -1 if training was aborted
+	 */
+	private int train(CAlphabetManager<?> mgr, List<InputStream> streams, int iTotalBytes, int iRead, ProgressNotifier prog) {
 		for (InputStream in : streams) {
+			final long tSpan = CSpanTracer.begin();
 			try {
 				iRead = mgr.TrainStream(in, iTotalBytes, iRead, prog);
 			} catch (AsynchronousCloseException e) {
 				//thrown to indicate training aborted. In that case we don't
 				// want to cache the LM.
 				m_LMcache.remove(mgr.m_Alphabet);
-				break;
+				return -1;
 			} catch (IOException e) {
 				Message("Error "+e+" in training - rest of text skipped", 1); // 1 = severity
+			} finally {
+				CSpanTracer.end("TrainStream", tSpan);
 			}
 		}
+		return iRead;
 	}
 	
 	/**
@@ -842,6 +1210,7 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	public void setOffset(int iOffset, boolean bForce) {
 		if (m_DasherModel==null) throw new IllegalStateException("Not yet constructed?");
 		if (iOffset == m_DasherModel.GetOffset() && !bForce) return;
+		if (m_Trace!=null) m_Trace.setOffset(iOffset, bForce);
 		m_InputFilter.pause();
 		
 		m_DasherModel.SetNode(m_pNCManager.getAlphabetManager().GetRoot(getDocument(), iOffset, true));
@@ -884,6 +1253,7 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	public void KeyDown(long iTime, int iId) {
 		if(m_InputFilter != null && m_sLockMsg==null) {
+			if (m_Trace!=null) m_Trace.keyDown(iTime, iId);
 			m_InputFilter.KeyDown(iTime, iId, m_DasherView, m_Input, m_DasherModel);
 		}
 	}
@@ -913,6 +1283,7 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	 */
 	public void KeyUp(long iTime, int iId) {
 		if(m_InputFilter != null && m_sLockMsg==null) {
+			if (m_Trace!=null) m_Trace.keyUp(iTime, iId);
 			m_InputFilter.KeyUp(iTime, iId, m_DasherView, m_Input, m_DasherModel);
 		}
 	}
@@ -1007,16 +1378,67 @@ abstract public class CDasherInterfaceBase extends CDasherComponent {
 	}
 	
 	/**
-	 * Engages the shutdown lock (m_bShutdownLock).
+	 * Starts recording a trace of all input, parameter changes and edits
+	 * (stopping any trace already in progress). The trace begins with the values
+	 * of all parameters, the screen size, and the text before the cursor; Dasher
+	 * is then paused and the tree rebuilt around the cursor, so that replay (by
+	 * {@link CTraceReplayer}) can start from the same state.
+	 * Must be called after {@link #DoSetup()}.
+	 * @param out Stream to write the trace to; will be closed by {@link #StopTrace()}
+	 */
+	public void StartTrace(OutputStream out) {
+		if (m_pNCManager==null || m_InputFilter==null) throw new IllegalStateException("Not yet set up");
+		StopTrace();
+		CInputTrace trace = new CInputTrace(this, out, TRACE_BUFFER_LOG2);
+		trace.recordAllParameters();
+		if (m_DasherScreen!=null) trace.screen(m_DasherScreen.GetWidth(), m_DasherScreen.GetHeight());
+		final int iOffset = m_DasherModel.GetOffset();
+		StringBuilder ctx = new StringBuilder();
+		for (int i=iOffset; i>=0 && ctx.length()<MAX_TRACE_CONTEXT; i--) {
+			Character c = getDocument().getCharAt(i);
+			if (c==null) break;
+			ctx.append(c.charValue());
+		}
+		trace.context(iOffset, ctx.reverse().toString());
+		m_Trace = trace;
+		setOffset(iOffset, true);
+	}
+	
+	/** Size of ring buffer for traces: 64kB */
+	private static final int TRACE_BUFFER_LOG2 = 16;
+	/** Max number of characters of context recorded at start of trace */
+	private static final int MAX_TRACE_CONTEXT = 256;
+	
+	/**
+	 * Stops recording any trace in progress, flushing and closing its stream.
+	 */
+	public void StopTrace() {
+		if (m_Trace==null) return;
+		CInputTrace trace = m_Trace;
+		m_Trace=null;
+		try {
+			trace.close();
+		} catch (IOException e) {
+			Message("Error writing trace: "+e, 1);
+		}
+	}
+	
+	/*package*/ CInputTrace getTrace() {return m_Trace;}
+	
+	/**
+	 * Engages the shutdown lock (m_bShutdownLock), and writes out any
+	 * settings not yet saved to the backing store.
 	 */
 	public void StartShutdown() {
+		StopTrace();
 		m_bShutdownLock = true;
 		if (m_DasherModel!=null) m_DasherModel.shutdown();
+		m_SettingsStore.Flush();
 	}
 	
 	/**
 	 * Append user-written text to a training file - which should be found
-	 * if the same filename is passed to {@link #GetStreams(String, Collection)}
+	 * if the same filename is passed to {@link #GetUserStreams(String, Collection)}
 	 * Default implementation does nothing; subclasses which are able
 	 * to perform file I/O, should override to do so. (e.g. applet cannot!).
 	 * 
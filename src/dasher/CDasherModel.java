@@ -115,13 +115,20 @@ public class CDasherModel extends CFrameRate {
 	
 	private CDasherNode m_pLastOutput;
 	
+	/** Source of nodes in the tree; used by the ExpansionPolicy to count live nodes */
+	private final CNodeArena m_NodeArena;
+	
+	/** Records timings of rendering stages, and expansions/collapses; null if not profiling */
+	private CFrameProfiler m_Profiler;
+	
 	/**
 	 * Initialise a new DasherModel. Note that you'll still have to call
 	 * {@link #SetNode(CDasherNode)} before you can use it...
 	 */
-	public CDasherModel(CDasherComponent creator) {
+	public CDasherModel(CDasherComponent creator, CNodeArena arena) {
 		super(creator); 
-		
+		ListenFor(Elp_parameters.LP_NODE_BUDGET);
+		this.m_NodeArena = arena;
 		HandleEvent(Elp_parameters.LP_NODE_BUDGET);
 	}
 	
@@ -139,7 +146,7 @@ public class CDasherModel extends CFrameRate {
 	public void HandleEvent(EParameters eParam) {
 		super.HandleEvent(eParam); //framerate watches LP_MAX_BITRATE
 		if (eParam == Elp_parameters.LP_NODE_BUDGET) {
-			pol = new AmortizedPolicy((int)GetLongParameter(Elp_parameters.LP_NODE_BUDGET));
+			pol = new AmortizedPolicy(m_NodeArena, (int)GetLongParameter(Elp_parameters.LP_NODE_BUDGET));
 		}
 	}
 	
@@ -603,7 +610,24 @@ public class CDasherModel extends CFrameRate {
 	
 	protected void Collapse(CDasherNode node) {
 		if (node.isSeen()) EraseBackTo(node.Parent());
-		if (node.ChildCount()>0) node.Delete_children();
+		if (node.ChildCount()>0) {
+			node.Delete_children();
+			countCollapse();
+		}
+	}
+	
+	/** Record (if profiling) that a node's children have been deleted; for use by ExpansionPolicy */
+	void countCollapse() {
+		if (m_Profiler!=null) m_Profiler.count(CFrameProfiler.Counter.COLLAPSES);
+	}
+	
+	/**
+	 * Sets the profiler to which to report timings of {@link #RenderToView(CDasherView)}
+	 * and the nodes expanded/collapsed.
+	 * @param prof profiler, or null to stop profiling
+	 */
+	public void setProfiler(CFrameProfiler prof) {
+		this.m_Profiler = prof;
 	}
 	
 	private void EraseBackTo(CDasherNode lastToKeep) {
@@ -628,8 +652,10 @@ public class CDasherModel extends CFrameRate {
 	 */
 	protected void Expand(CDasherNode Node) {
 		
-		if(Node.ChildCount() == 0)
+		if(Node.ChildCount() == 0) {
 			Node.PopulateChildren();
+			if (m_Profiler!=null) m_Profiler.count(CFrameProfiler.Counter.EXPANSIONS);
+		}
 	}
 	
 	/** Whether there is currently a call to RenderToView in progress.
@@ -653,12 +679,23 @@ public class CDasherModel extends CFrameRate {
 	public boolean RenderToView(CDasherView View) {
 		if (bRendering) throw new IllegalStateException("Some thread already in call to RenderToView!");
 		bRendering=true;
+		final CFrameProfiler prof = m_Profiler;
+		long t = (prof==null) ? 0 : System.nanoTime(), tRoot=0;
 		while (!View.NodeFillsScreen(m_Rootmin,m_Rootmax)) {
 			if (!Reparent_root()) break;
 		}
+		if (prof!=null) {
+			long now=System.nanoTime();
+			tRoot = now-t; t=now;
+		}
 		
 		CDasherNode out=View.Render(m_Root, m_Rootmin + m_iDisplayOffset, m_Rootmax + m_iDisplayOffset, pol, this);
 		if (out!=m_pLastOutput) EraseBackTo(out);
+		if (prof!=null) {
+			t=prof.endStage(CFrameProfiler.Stage.RENDER, t);
+			prof.add(CFrameProfiler.Counter.NODES_DRAWN, View.getNumNodesDrawn());
+			prof.add(CFrameProfiler.Counter.TEXT_MEASURED, View.getNumTextMeasured());
+		}
 		
 		while (m_Root.m_OnlyChildRendered!=null) {
 			// We have zoomed sufficiently that only one child of the root node 
@@ -677,7 +714,14 @@ public class CDasherModel extends CFrameRate {
 			}
 		}
 
+		if (prof!=null) {
+			long now=System.nanoTime();
+			prof.record(CFrameProfiler.Stage.MAKE_ROOT, tRoot + now-t);
+			t=now;
+		}
+		
 		boolean bRes = pol.apply(this);
+		if (prof!=null) prof.endStage(CFrameProfiler.Stage.EXPANSION_POLICY, t);
 		bRendering=false;
 		if (m_replace!=null) {
 			ReplaceNode(m_replace, m_with);
@@ -146,16 +146,7 @@ public abstract class CDasherNode implements Document {
 		m_iColour = Colour;
 		m_Parent = null; //until Reparent called
 		this.m_strDisplayText = strDisplayText;
-		numNodes++;
 	}
-    
-    /** The number of node objects currently accessible in the tree.
-     * (There may be more than this iff including further objects
-     * awaiting GC)
-     */
-    private static int numNodes=0;
-    
-    public static int currentNumNodeObjects() {return numNodes;}
 
     public abstract int ExpectedNumChildren();
     
@@ -213,15 +204,15 @@ public abstract class CDasherNode implements Document {
     public abstract CDasherNode RebuildParent();
     
 	/**
-	 * At present, does nothing; Nodes will be "deleted" by virtue
-	 * of their parents cutting them loose at the appropriate time,
-	 * making them available for garbage collection.
+	 * Deletes all children, and detaches this node from its parent.
+	 * Concrete subclasses should override to return themselves to the
+	 * {@link CNodeArena.Pool} they were allocated from (which keeps count
+	 * of live nodes), after clearing their own state.
 	 *
 	 */
     public void DeleteNode() {
 	  Delete_children();
 	  m_Parent=null;
-	  numNodes--;
 	}
 
     /**
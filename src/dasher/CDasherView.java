@@ -154,6 +154,7 @@ public abstract class CDasherView extends CDasherComponent {
 	 */
 	public CDasherView(CDasherComponent creator, CDasherScreen DasherScreen, ScreenOrientations orient) {
 		super(creator);
+		ListenFor(Elp_parameters.LP_DASHER_FONTSIZE);
 		m_Screen = DasherScreen;
 		realOrientation = orient;
 		
@@ -200,6 +201,16 @@ public abstract class CDasherView extends CDasherComponent {
 		m_Screen = NewScreen;
 	}
 	
+	/**
+	 * Tells the view which alphabet's labels it will be drawing, so it may
+	 * prepare to draw them (e.g. measure their text) in advance, rather than
+	 * during a frame. Default implementation does nothing.
+	 * 
+	 * @param alph Alphabet now in use
+	 */
+	public void setAlphabet(CAlphIO.AlphInfo alph) {
+	}
+	
 	/**
 	 * Determines whether the node falling between two specified
 	 * y co-ordinates entirely covers the screen.
@@ -343,6 +354,18 @@ public abstract class CDasherView extends CDasherComponent {
 	 * @return the smallest/innermost node under the crosshair
 	 */
 	public abstract CDasherNode Render(CDasherNode Root, long iRootMin, long iRootMax, ExpansionPolicy pol, CDasherModel model);
+	
+	/** Number of nodes visited by the last call to {@link #Render}; subclasses must maintain */
+	protected int m_iNodesDrawn;
+	
+	/** Number of nodes visited (rendered) by the last call to {@link #Render} */
+	public int getNumNodesDrawn() {return m_iNodesDrawn;}
+	
+	/** Number of text strings measured on the screen (i.e. not found in any cache) by the last call to {@link #Render}; subclasses must maintain */
+	protected int m_iTextMeasured;
+	
+	/** Number of text strings measured on the screen, rather than found in a cache, by the last call to {@link #Render} */
+	public int getNumTextMeasured() {return m_iTextMeasured;}
 			
 	/**
 	 * Convert a given screen coordinate into dasher co-ordinates.
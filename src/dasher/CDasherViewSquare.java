@@ -27,8 +27,6 @@ package dasher;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 import dasher.Opts.ScreenOrientations;
 
@@ -117,6 +115,29 @@ public class CDasherViewSquare extends CDasherView {
 	/** X center after allowing for margin */
 	protected int m_iCenterX;
 	
+	/** Max number of entries in each x mapping lookup table; beyond this, the mapping is computed exactly */
+	private static final int MAX_XMAP_ENTRIES = 1<<14;
+	
+	/**
+	 * Lookup table sampling {@link #exactApplyXMapping} over the logarithmic part
+	 * of the x axis, from m_iXMapStart, for linear interpolation; or null, if the
+	 * mapping must be computed exactly. Being logarithmic, the mapping changes
+	 * ever more slowly, so samples are spaced geometrically: the offset from
+	 * m_iXMapOrigin (at which the log would be of zero) is divided into octaves,
+	 * each containing 2^m_iXMapBits samples. Built by {@link #buildXMappingTables}.
+	 */
+	private long[] m_XMapTable;
+	private long m_iXMapStart, m_iXMapOrigin;
+	private int m_iXMapBits;
+	
+	/**
+	 * Lookup table sampling {@link #exactUnapplyXMapping} every m_iXUnmapStep
+	 * units from m_iXUnmapStart, i.e. evenly across the screen, for linear
+	 * interpolation; or null, if the mapping must be computed exactly.
+	 */
+	private long[] m_XUnmapTable;
+	private long m_iXUnmapStart, m_iXUnmapStep;
+	
 	protected DRect visibleRegion;
 	
 	/** Cache of LP_MIN_NODE_SIZE_TEXT */
@@ -125,6 +146,22 @@ public class CDasherViewSquare extends CDasherView {
 	/** Cache of BP_OUTLINE_MODE */
 	protected boolean bOutline;
 	
+	/** Cache of LP_LOD_PIXELS */
+	protected int lodPixels;
+	
+	/**
+	 * Number of nodes, in the chain of RecursiveRender calls currently executing,
+	 * that were merged into a run; while nonzero, nodes' rectangles are not drawn
+	 * (as they lie within the run's).
+	 */
+	private int lodSuppress;
+	
+	/** Number of nodes in the pending run of merged sibling rectangles; if nonzero, then... */
+	private int runNodes;
+	/** ...bounds of the run (screen co-ordinates, smallest first); its colour, pixel height of
+	 * the node giving that colour, and width (extent along the Dasher x axis) of the first node */
+	private int runMinX, runMinY, runMaxX, runMaxY, runColour, runColourSize, runWidth;
+	
 	/**
 	 * Sole constructor. Creates a new view wrapping a specified
 	 * screen, fires the ChangeScreen method to configure itself
@@ -146,11 +183,13 @@ public class CDasherViewSquare extends CDasherView {
 	public CDasherViewSquare(CDasherComponent creator, CDasherScreen DasherScreen, Opts.ScreenOrientations orient)  {
 		
 		super(creator, DasherScreen, orient);
+		ListenFor(Elp_parameters.LP_MIN_NODE_SIZE_TEXT, Ebp_parameters.BP_OUTLINE_MODE, Elp_parameters.LP_LOD_PIXELS, Elp_parameters.LP_NON_LINEAR_X);
 		
 		m_DelayDraw = new CDelayedDraw();
 		
 		minNodeSizeText = (int)GetLongParameter(Elp_parameters.LP_MIN_NODE_SIZE_TEXT);
 		bOutline = GetBoolParameter(Ebp_parameters.BP_OUTLINE_MODE);
+		lodPixels = (int)GetLongParameter(Elp_parameters.LP_LOD_PIXELS);
 		
 		SetScaleFactor();
 		
@@ -174,8 +213,11 @@ public class CDasherViewSquare extends CDasherView {
 	 * <p>
 	 * <i>LP_REAL_ORIENTATION</i>: Invalidates our current visible region.
 	 * <p>
-	 * <i>LP_TRUNCATION, LP_TRUNCATION_TYPE, LP_NORMALIZATION</i>:
+	 * <i>LP_TRUNCATION, LP_TRUNCATION_TYPE, LP_NORMALIZATION, LP_LOD_PIXELS</i>:
 	 * Updates internally cached values of these parameters.
+	 * <p>
+	 * <i>LP_NON_LINEAR_X</i>: Recomputes the x mapping (and its lookup tables)
+	 * via {@link #SetScaleFactor()}.
 	 */
 	public void HandleEvent(EParameters eParam) {
 		// Let the parent class do its stuff
@@ -186,6 +228,13 @@ public class CDasherViewSquare extends CDasherView {
 			minNodeSizeText = (int)GetLongParameter(Elp_parameters.LP_MIN_NODE_SIZE_TEXT);
 		} else if (eParam == Ebp_parameters.BP_OUTLINE_MODE) {
 			bOutline = GetBoolParameter(Ebp_parameters.BP_OUTLINE_MODE);
+		} else if (eParam == Elp_parameters.LP_LOD_PIXELS) {
+			lodPixels = (int)GetLongParameter(Elp_parameters.LP_LOD_PIXELS);
+		} else if (eParam == Elp_parameters.LP_DASHER_FONTSIZE) {
+			prewarmText();
+		} else if (eParam == Elp_parameters.LP_NON_LINEAR_X) {
+			visibleRegion = null;
+			SetScaleFactor();
 		}
 	}
 	
@@ -207,6 +256,9 @@ public class CDasherViewSquare extends CDasherView {
 	 */
 	public CDasherNode Render(CDasherNode Root, long iRootMin, long iRootMax, ExpansionPolicy pol, CDasherModel model) {
 		m_model=model;
+		m_iNodesDrawn=0;
+		lodSuppress=runNodes=0;
+		final int iMisses = textSizes.getNumMisses();
 		
 		CDasherView.DRect visreg = VisibleRegion();
 		output = Root.Parent();
@@ -221,6 +273,7 @@ public class CDasherViewSquare extends CDasherView {
 		}
 		
 		this.pol = pol;
+		bHoriz = getOrientation().isHorizontal;
 		int textedge;
 		switch (getOrientation()) {
 		case RIGHT_TO_LEFT: textedge = Screen().GetWidth(); break;
@@ -229,17 +282,21 @@ public class CDasherViewSquare extends CDasherView {
 			textedge = 0;
 		}
 		RecursiveRender(Root, iRootMin, iRootMax, textedge);
+		flushRun();
 		
 		// DelayDraw the text nodes
 		m_DelayDraw.Draw(Screen());
 		
 		Crosshair();  // add crosshair
+		m_iTextMeasured = textSizes.getNumMisses()-iMisses;
 		return output;
 	}
 	
 	private CDasherNode output;
 	private CDasherModel m_model;
 	private ExpansionPolicy pol;
+	/** Whether the Dasher x axis runs horizontally on screen, for the current call to Render */
+	private boolean bHoriz;
 	
 	/* CSFS: Heavily modified to get the new mostleft value out. I'm fairly sure this
 	 * obeys the same semantics as the C++ version but this needs to be tested.
@@ -272,6 +329,7 @@ public class CDasherViewSquare extends CDasherView {
 		// This method takes mostleft by VALUE.
 		
 		CDasherView.DRect visreg = VisibleRegion();
+		final int iSuppressAtEntry = lodSuppress;
 		
 		//when only a single recursive call is required (and nothing more after that recursion completes),
 		// iterating round this loop allows a "tail call"-like mechanism without using any more stack space.
@@ -280,6 +338,7 @@ public class CDasherViewSquare extends CDasherView {
 		tailcall: while (true) {
 		
 			/* Step 1: Render *this* node */
+			m_iNodesDrawn++;
 			assert y2 >= y1;
 			
 			//ok, render the node...
@@ -299,8 +358,20 @@ public class CDasherViewSquare extends CDasherView {
 				case BOTTOM_TO_TOP:
 					{int temp = right; right = left; left = temp;}
 				}
-				if (Render.visible())
-					Screen().DrawRectangle(left, top, right, bottom, Render.m_iColour, -1, bOutline ? 1 : 0);
+				if (Render.visible() && lodSuppress==0) {
+					//size in pixels along the Dasher y axis, and along the x axis
+					final int pixels = Math.abs(bHoriz ? bottom-top : right-left), width = Math.abs(bHoriz ? right-left : bottom-top);
+					if (pixels < lodPixels) {
+						//too small to see individually: merge with adjacent siblings (if similar width),
+						// and don't draw descendants, as they lie within
+						if (runNodes>0 && Math.abs(width-runWidth) > lodPixels) flushRun();
+						addToRun(left, top, right, bottom, Render.m_iColour, pixels, width);
+						lodSuppress++;
+					} else {
+						flushRun();
+						Screen().DrawRectangle(left, top, right, bottom, Render.m_iColour, -1, (bOutline && pixels >= 2*lodPixels) ? 1 : 0);
+					}
+				}
 		
 				if( Render.m_strDisplayText.length() > 0 ) {
 					int textedge = DrawText(left, top, right, bottom, mostleft, fontSize(iDasherSize), Render.m_strDisplayText);
@@ -324,7 +395,7 @@ public class CDasherViewSquare extends CDasherView {
 				/* If this node hasn't any children (yet), we're done */
 				if(Render.ChildCount() == 0) {
 					pol.pushNode(Render, (int)y1, (int)y2, true);
-					return;
+					break tailcall;
 				}
 				//has children, & not under xhair, so can be collapsed
 				pol.pushNode(Render, (int)y1, (int)y2, false);
@@ -374,15 +445,40 @@ public class CDasherViewSquare extends CDasherView {
 			}
 			//any remaining children are offscreen, and do not need rendering
 			while (++i<j) m_model.Collapse(Render.ChildAtIndex(i));
+			//runs contain only siblings (if this node was merged, its siblings may yet join the run)
+			if (lodSuppress==0) flushRun();
 			//node rendered, no tail call required, exit
 			break;
 			// (otherwise, would loop round the tail-call loop)
 		}
+		lodSuppress = iSuppressAtEntry;
+	}
+	
+	/** Adds a node's rectangle (screen co-ordinates, any order) to the pending run */
+	private void addToRun(int x1, int y1, int x2, int y2, int iColour, int pixels, int width) {
+		final int minX=Math.min(x1,x2), maxX=Math.max(x1,x2), minY=Math.min(y1,y2), maxY=Math.max(y1,y2);
+		if (runNodes++==0) {
+			runMinX=minX; runMaxX=maxX; runMinY=minY; runMaxY=maxY;
+			runColour=iColour; runColourSize=pixels; runWidth=width;
+		} else {
+			runMinX=Math.min(runMinX,minX); runMaxX=Math.max(runMaxX,maxX);
+			runMinY=Math.min(runMinY,minY); runMaxY=Math.max(runMaxY,maxY);
+			//representative colour: that of the largest node
+			if (pixels>runColourSize) {runColour=iColour; runColourSize=pixels;}
+		}
+	}
+	
+	/** Draws the pending run of merged rectangles, if any, as a single filled rectangle */
+	private void flushRun() {
+		if (runNodes==0) return;
+		Screen().DrawRectangle(runMinX, runMinY, runMaxX, runMaxY, runColour, -1, 0);
+		runNodes=0;
 	}
 	
 	private int DrawText(int left, int top, int right, int bottom, int textedge, int size, String sDisplayText) {
 		
-		CDasherView.Point textDimensions = ScreenTextSize(sDisplayText, size);
+		final int textDimensions = textSizes.lookup(Screen(), sDisplayText, size);
+		final int textWidth = textSizes.getWidth(textDimensions), textHeight = textSizes.getHeight(textDimensions);
 
 		// Position of text box relative to anchor depends on orientation
 		
@@ -390,20 +486,20 @@ public class CDasherViewSquare extends CDasherView {
 		
 		switch (getOrientation()) {
 		case LEFT_TO_RIGHT:
-			textedge = (textleft = Math.max(left,textedge)) + textDimensions.x;
-			texttop = (top+bottom - textDimensions.y) / 2;
+			textedge = (textleft = Math.max(left,textedge)) + textWidth;
+			texttop = (top+bottom - textHeight) / 2;
 			break;
 		case RIGHT_TO_LEFT:
-			textedge = textleft = Math.min(right, textedge) - textDimensions.x;
-			texttop = (top+bottom - textDimensions.y) / 2;
+			textedge = textleft = Math.min(right, textedge) - textWidth;
+			texttop = (top+bottom - textHeight) / 2;
 			break;
 		case TOP_TO_BOTTOM:
-			textleft = (left+right - textDimensions.x) / 2;
-			textedge = (texttop = Math.max(top, textedge)) + textDimensions.y;
+			textleft = (left+right - textWidth) / 2;
+			textedge = (texttop = Math.max(top, textedge)) + textHeight;
 			break;
 		case BOTTOM_TO_TOP:
-			textleft = (left+right - textDimensions.x) / 2;
-			textedge = texttop = Math.min(bottom, textedge) - textDimensions.y;
+			textleft = (left+right - textWidth) / 2;
+			textedge = texttop = Math.min(bottom, textedge) - textHeight;
 		break;
 		default:
 			throw new AssertionError();
@@ -418,14 +514,44 @@ public class CDasherViewSquare extends CDasherView {
 		
 	}
 	
-	private final Map<Integer,Map<String,CDasherView.Point>> textSizes = new HashMap<Integer,Map<String,CDasherView.Point>>();
+	/** Min capacity of {@link #textSizes}; enough for control nodes etc. beyond the alphabet's symbols */
+	private static final int MIN_TEXT_CACHE = 512;
+	
+	/** Sizes of node labels on the current screen, at each font size */
+	private CTextMetricsCache textSizes = new CTextMetricsCache(MIN_TEXT_CACHE);
+	
+	/** Alphabet whose labels are measured in advance by {@link #prewarmText()}, or null */
+	private CAlphIO.AlphInfo m_Alphabet;
+	
+	/**
+	 * Records the alphabet, and measures all its labels (at every font size
+	 * that {@link #fontSize(long)} may return), resizing the cache of text
+	 * sizes if necessary to hold them all.
+	 */
+	@Override
+	public void setAlphabet(CAlphIO.AlphInfo alph) {
+		m_Alphabet = alph;
+		final int iNeeded = 3*alph.GetNumberSymbols() + MIN_TEXT_CACHE;
+		if (textSizes.getCapacity() < iNeeded) textSizes = new CTextMetricsCache(iNeeded);
+		prewarmText();
+	}
 	
-	private CDasherView.Point ScreenTextSize(String sText, int iSize) {
-		Map<String,CDasherView.Point> strings = textSizes.get(iSize);
-		if (strings == null) textSizes.put(iSize, strings = new HashMap<String, Point>());
-		Point p = strings.get(sText);
-		if (p==null) strings.put(sText, p = Screen().TextSize(sText, iSize));
-		return p;
+	/**
+	 * Measures every label of the current alphabet at each font size, so that
+	 * rendering frames need not; and if the screen is a {@link CLabelScreen},
+	 * tells it to prepare the same labels. Call when the alphabet, screen or
+	 * font size changes.
+	 */
+	private void prewarmText() {
+		if (m_Alphabet==null || Screen()==null) return;
+		final int[] sizes = {lpFontSize*20, lpFontSize*14, lpFontSize*11}; //as fontSize(long)
+		final String[] texts = new String[m_Alphabet.GetNumberSymbols()];
+		for (int i=0; i<texts.length; i++) {
+			String text = texts[i] = m_Alphabet.GetDisplayText(i);
+			if (text==null || text.length()==0) continue;
+			for (int size : sizes) textSizes.lookup(Screen(), text, size);
+		}
+		if (Screen() instanceof CLabelScreen) ((CLabelScreen)Screen()).setLabels(texts, sizes);
 	}
 
 	/**
@@ -524,9 +650,14 @@ public class CDasherViewSquare extends CDasherView {
 	 * to 17/14(sx). This will cause trouble if sx is zero, and
 	 * there will be issues if sx is small since we're working
 	 * with integers, not floating point
+	 * <p>
+	 * Finally, rebuilds the lookup tables for the x mapping.
 	 */
 	public void SetScaleFactor()
 	{
+		//compute exactly until the tables have been rebuilt for the new scale
+		m_XMapTable = m_XUnmapTable = null;
+		
 		//Default values for x non-linearity (TODO - Make these parameters)
 		m_dXMappingLogLinearBoundary = 0.5; //threshold: DasherX's less than (that * MAX_Y) are linear...
 		m_dXMappingLinearScaleFactor = 0.9; //...but multiplied by that; DasherX's above that, are logarithmic...
@@ -584,6 +715,8 @@ public class CDasherViewSquare extends CDasherView {
 
 		CDasherView.DRect visreg = VisibleRegion();
 		
+		buildXMappingTables(visreg.maxX);
+		
 		cross_v0 = Dasher2Screen(CROSS_X, visreg.minY);
 		cross_v1 = Dasher2Screen(CROSS_X, visreg.maxY);
 		
@@ -697,6 +830,7 @@ public class CDasherViewSquare extends CDasherView {
 	public void ChangeScreen(CDasherScreen NewScreen) {
 		super.ChangeScreen(NewScreen);
 		textSizes.clear();
+		prewarmText();
 		visibleRegion = null;
 		SetScaleFactor();
 	}
@@ -720,12 +854,13 @@ public class CDasherViewSquare extends CDasherView {
 	/**
 	 * Reverse the x co-ordinate nonlinearity.
 	 * <p>
-	 * For details of this non-linearity, see the constructor.
+	 * For details of this non-linearity, see the constructor. This evaluates
+	 * the mapping exactly (using Math.exp/log); see {@link #unapplyXMapping} for the fast version.
 	 * 
 	 * @param x Value to which the mapping should be unapplied
 	 * @return Raw value
 	 */
-	private long unapplyXMapping(long lx) {
+	private long exactUnapplyXMapping(long lx) {
 		double x = lx/(double)MAX_Y;
 		if(x < m_dXMappingLogLinearBoundary * m_dXMappingLinearScaleFactor)
 			x = x / m_dXMappingLinearScaleFactor;
@@ -737,12 +872,13 @@ public class CDasherViewSquare extends CDasherView {
 	/**
 	 * Apply the x co-ordinate nonlinearity.
 	 * <p>
-	 * For details of this non-linearity, see the constructor.
+	 * For details of this non-linearity, see the constructor. This evaluates
+	 * the mapping exactly (using Math.exp/log); see {@link #applyXMapping} for the fast version.
 	 * 
 	 * @param x Value to which the mapping should be applied
 	 * @return Mapped value
 	 */
-	private long applyXMapping(long lx) {
+	private long exactApplyXMapping(long lx) {
 		double x = lx / (double)MAX_Y;
 		if(x < m_dXMappingLogLinearBoundary)
 			x = m_dXMappingLinearScaleFactor * x;
@@ -750,4 +886,120 @@ public class CDasherViewSquare extends CDasherView {
 			x = m_dXMappingLinearScaleFactor * (m_dXMappingLogarithmicScaleFactor * Math.log((x + m_dXMappingLogarithmicScaleFactor - m_dXMappingLogLinearBoundary) / m_dXMappingLogarithmicScaleFactor) + m_dXMappingLogLinearBoundary);
 		return (long)(x * MAX_Y);
 	}
+	
+	/**
+	 * Reverse the x co-ordinate nonlinearity, by interpolating in the lookup
+	 * table where there is one, else exactly.
+	 * 
+	 * @param lx Value to which the mapping should be unapplied
+	 * @return Raw value, which {@link #exactApplyXMapping} maps to within one pixel
+	 * (see {@link #buildXMappingTables}) of what it maps {@link #exactUnapplyXMapping}'s to
+	 */
+	private long unapplyXMapping(long lx) {
+		final long[] table = m_XUnmapTable;
+		if (table!=null && lx>=m_iXUnmapStart) {
+			final long d = lx-m_iXUnmapStart, i = d/m_iXUnmapStep;
+			if (i < table.length-1) {
+				final long y0 = table[(int)i];
+				return y0 + (table[(int)i+1]-y0) * (d - i*m_iXUnmapStep) / m_iXUnmapStep;
+			}
+		}
+		return exactUnapplyXMapping(lx);
+	}
+	
+	/**
+	 * Apply the x co-ordinate nonlinearity, by interpolating in the lookup
+	 * table where there is one, else exactly. (The linear part of the mapping
+	 * is always computed exactly, as that is cheap.)
+	 * 
+	 * @param lx Value to which the mapping should be applied
+	 * @return Mapped value, within one pixel (see {@link #buildXMappingTables}) of {@link #exactApplyXMapping}
+	 */
+	private long applyXMapping(long lx) {
+		final long[] table = m_XMapTable;
+		if (table!=null && lx>=m_iXMapStart) {
+			final long v = lx-m_iXMapOrigin;
+			final int iShift = Math.max(0, 63-Long.numberOfLeadingZeros(v)-m_iXMapBits);
+			final long i = ((long)iShift << m_iXMapBits) + (v >> iShift);
+			if (i < table.length-1) {
+				final long y0 = table[(int)i];
+				return y0 + ((table[(int)i+1]-y0) * (v & ((1L<<iShift)-1)) >> iShift);
+			}
+		}
+		return exactApplyXMapping(lx);
+	}
+	
+	/**
+	 * Builds the lookup tables used by {@link #applyXMapping} and {@link #unapplyXMapping},
+	 * covering the logarithmic part of the x axis up to the edge of the screen.
+	 * Each table is refined until interpolating at the midpoint between every
+	 * pair of entries (where the error of interpolating a log or exp curve is
+	 * greatest) gives a screen position within half a pixel of the exact mapping.
+	 * Only the midpoints are checked, and entries and results are truncated to
+	 * whole Dasher units, so elsewhere the error can approach a whole pixel
+	 * (0.98 at most, in tests over the visible range of each orientation and
+	 * several screen sizes); callers should rely only on one pixel. If that
+	 * would take more than {@link #MAX_XMAP_ENTRIES}, the mapping is left to
+	 * be computed exactly.
+	 * 
+	 * @param iMaxX Largest (unmapped) Dasher x co-ordinate which is on screen
+	 */
+	private void buildXMappingTables(long iMaxX) {
+		//Dasher units (after mapping) per pixel, along whichever screen axis the Dasher x axis runs
+		final long iScale = getOrientation().isHorizontal ? m_iScaleFactorX : m_iScaleFactorY;
+		if (iScale<=0) return;
+		final double dTolerance = m_iScalingFactor / (2.0 * iScale);
+		
+		//Applying: at least one entry per unit up to 2^bits from the origin, then 2^bits per octave.
+		// Beyond 2^48 units, nodes are so far off screen, just compute exactly.
+		final long iMapStart = (long)Math.ceil(m_dXMappingLogLinearBoundary * MAX_Y);
+		final long iMapOrigin = iMapStart - Math.max(1, Math.round(m_dXMappingLogarithmicScaleFactor * MAX_Y));
+		final long iMapEnd = Math.min(iMaxX, iMapOrigin + (1L<<48));
+		for (int iBits = 4; iMapEnd>iMapStart; iBits++) {
+			final long v = iMapEnd-iMapOrigin;
+			final int iShift = Math.max(0, 63-Long.numberOfLeadingZeros(v)-iBits);
+			final long iEntries = ((long)iShift << iBits) + (v >> iShift) + 2;
+			if (iEntries > MAX_XMAP_ENTRIES) break;
+			final long[] table = new long[(int)iEntries];
+			for (int i=0; i<table.length; i++) table[i] = exactApplyXMapping(iMapOrigin + xMapOffset(i, iBits));
+			m_iXMapStart = iMapStart; m_iXMapOrigin = iMapOrigin; m_iXMapBits = iBits; m_XMapTable = table;
+			double dErr = 0;
+			for (int i=0; i<table.length-1; i++) {
+				final long x = iMapOrigin + (xMapOffset(i, iBits) + xMapOffset(i+1, iBits))/2;
+				if (x>=iMapStart) dErr = Math.max(dErr, Math.abs(applyXMapping(x) - exactApplyXMapping(x)));
+			}
+			if (dErr <= dTolerance) break;
+			m_XMapTable = null;
+		}
+		
+		//Unapplying: the mapped values on screen are close to linear in pixels, so space evenly,
+		// starting with about one entry per pixel. The error that matters is in the screen position,
+		// i.e. after re-applying.
+		final int iPixels = Math.max(1, getOrientation().isHorizontal ? Screen().GetWidth() : Screen().GetHeight());
+		final long iUnmapStart = (long)Math.ceil(m_dXMappingLogLinearBoundary * m_dXMappingLinearScaleFactor * MAX_Y);
+		final long iUnmapEnd = exactApplyXMapping(iMaxX);
+		for (long iStep = Math.max(1, (iUnmapEnd-iUnmapStart)/iPixels); iUnmapEnd>iUnmapStart; iStep/=2) {
+			final long iEntries = (iUnmapEnd-iUnmapStart)/iStep + 2;
+			if (iEntries > MAX_XMAP_ENTRIES) break;
+			final long[] table = new long[(int)iEntries];
+			for (int i=0; i<table.length; i++) table[i] = exactUnapplyXMapping(iUnmapStart + i*iStep);
+			m_iXUnmapStart = iUnmapStart; m_iXUnmapStep = iStep; m_XUnmapTable = table;
+			double dErr = 0;
+			for (int i=0; iStep>1 && i<table.length-1; i++) {
+				final long x = iUnmapStart + i*iStep + iStep/2;
+				dErr = Math.max(dErr, Math.abs(exactApplyXMapping(unapplyXMapping(x)) - exactApplyXMapping(exactUnapplyXMapping(x))));
+			}
+			if (dErr <= dTolerance || iStep==1) break;
+			m_XUnmapTable = null;
+		}
+	}
+	
+	/**
+	 * Offset from m_iXMapOrigin of an entry in the table for {@link #applyXMapping}:
+	 * the inverse of the indexing performed there.
+	 */
+	private static long xMapOffset(int i, int iBits) {
+		final int iShift = Math.max(0, (i >> iBits) - 1);
+		return ((long)i - ((long)iShift << iBits)) << iShift;
+	}
 }
@@ -110,6 +110,7 @@ public class CDefaultFilter extends CDynamicFilter {
 	public CDefaultFilter(CDasherComponent creator, CDasherInterfaceBase iface, String szName)
 	{ 
 		super(creator, iface, szName);
+		ListenFor(Ebp_parameters.BP_CIRCLE_START, Ebp_parameters.BP_MOUSEPOS_MODE);
 		m_StartHandler = null;
 		m_AutoSpeedControl = new CAutoSpeedControl(this);
 		
@@ -0,0 +1,232 @@
+package dasher;
+
+import java.util.Arrays;
+
+/**
+ * A CDasherScreen which records the primitives drawn on it, rather than
+ * drawing them, so they can be replayed onto a real screen afterwards in a
+ * single pass. This separates drawing from the work of walking the node tree:
+ * e.g. a screen which must be locked while drawing, need be locked only for
+ * the replay, and the list may be compared with the last frame's or handed
+ * to another thread.
+ * <p>
+ * Primitives are packed into a single int array (an opcode followed by
+ * co-ordinates and colour indices), with strings held by reference in a
+ * second array; both are reused between frames, so recording allocates
+ * only when a frame draws more than any before. Queries (size of screen and
+ * of text) and colour scheme changes are passed straight through to the
+ * target screen supplied at construction.
+ */
+public class CDisplayList implements CDasherScreen {
+	private static final int RECT=1, CIRCLE=2, LINE=3, STRING=4, POLYGON=5;
+
+	private final CDasherScreen m_Target;
+
+	private int[] m_Ops = new int[1024];
+	private int m_iOpsLen;
+	private String[] m_Texts = new String[64];
+	private int m_iNumTexts;
+	/** Number of primitives recorded */
+	private int m_iSize;
+
+	/**
+	 * @param target screen to which queries are delegated, and onto which
+	 * {@link #replay()} draws.
+	 */
+	public CDisplayList(CDasherScreen target) {
+		this.m_Target = target;
+	}
+
+	/** Discards all primitives recorded, e.g. at the start of a frame */
+	public void clear() {
+		m_iOpsLen = 0;
+		//release references to strings, for GC
+		Arrays.fill(m_Texts, 0, m_iNumTexts, null);
+		m_iNumTexts = 0;
+		m_iSize = 0;
+	}
+
+	/** Number of primitives recorded since the last {@link #clear()} */
+	public int size() {return m_iSize;}
+
+	public boolean isEmpty() {return m_iSize==0;}
+
+	/** Draws all recorded primitives, in order, onto the target screen */
+	public void replay() {replay(m_Target);}
+
+	/** Draws all recorded primitives, in order, onto the specified screen */
+	public void replay(CDasherScreen screen) {
+		final int[] ops = m_Ops;
+		for (int i=0, t=0; i<m_iOpsLen;) {
+			switch (ops[i++]) {
+			case RECT:
+				screen.DrawRectangle(ops[i], ops[i+1], ops[i+2], ops[i+3], ops[i+4], ops[i+5], ops[i+6]);
+				i+=7;
+				break;
+			case CIRCLE:
+				screen.DrawCircle(ops[i], ops[i+1], ops[i+2], ops[i+3], ops[i+4], ops[i+5]);
+				i+=6;
+				break;
+			case LINE:
+				screen.drawLine(ops[i], ops[i+1], ops[i+2], ops[i+3], ops[i+4], ops[i+5]);
+				i+=6;
+				break;
+			case STRING:
+				screen.DrawString(m_Texts[t++], ops[i], ops[i+1], ops[i+2]);
+				i+=3;
+				break;
+			case POLYGON: {
+				final int n = ops[i];
+				CDasherView.Point[] pts = new CDasherView.Point[n];
+				for (int j=0; j<n; j++) pts[j] = new CDasherView.Point(ops[i+4+2*j], ops[i+5+2*j]);
+				screen.Polygon(pts, ops[i+1], ops[i+2], ops[i+3]);
+				i+=4+2*n;
+				break;
+			}
+			default:
+				throw new IllegalStateException("Corrupt display list");
+			}
+		}
+	}
+
+	/**
+	 * Whether this list contains exactly the same primitives as another,
+	 * i.e. replaying either would draw the same frame.
+	 */
+	public boolean contentEquals(CDisplayList other) {
+		if (other.m_iOpsLen!=m_iOpsLen || other.m_iNumTexts!=m_iNumTexts) return false;
+		for (int i=0; i<m_iOpsLen; i++) if (m_Ops[i]!=other.m_Ops[i]) return false;
+		for (int i=0; i<m_iNumTexts; i++) if (!m_Texts[i].equals(other.m_Texts[i])) return false;
+		return true;
+	}
+
+	/**
+	 * Computes the bounding box of all primitives recorded, allowing for line
+	 * widths (plus a pixel for antialiasing). Text is measured on the target screen.
+	 * @param bounds array of (at least) four elements, into which to store
+	 * min x, min y, max x and max y (inclusive) in that order
+	 * @return false if the list is empty (bounds unchanged)
+	 */
+	public boolean getBounds(int[] bounds) {
+		if (m_iSize==0) return false;
+		int minX=Integer.MAX_VALUE, minY=Integer.MAX_VALUE, maxX=Integer.MIN_VALUE, maxY=Integer.MIN_VALUE;
+		final int[] ops = m_Ops;
+		for (int i=0, t=0; i<m_iOpsLen;) {
+			int x0, y0, x1, y1, w;
+			switch (ops[i++]) {
+			case RECT:
+				x0=Math.min(ops[i],ops[i+2]); x1=Math.max(ops[i],ops[i+2]);
+				y0=Math.min(ops[i+1],ops[i+3]); y1=Math.max(ops[i+1],ops[i+3]);
+				w=ops[i+6];
+				i+=7;
+				break;
+			case CIRCLE:
+				x0=ops[i]-ops[i+2]; x1=ops[i]+ops[i+2];
+				y0=ops[i+1]-ops[i+2]; y1=ops[i+1]+ops[i+2];
+				w=ops[i+5];
+				i+=6;
+				break;
+			case LINE:
+				x0=Math.min(ops[i],ops[i+2]); x1=Math.max(ops[i],ops[i+2]);
+				y0=Math.min(ops[i+1],ops[i+3]); y1=Math.max(ops[i+1],ops[i+3]);
+				w=ops[i+4];
+				i+=6;
+				break;
+			case STRING: {
+				CDasherView.Point p = m_Target.TextSize(m_Texts[t++], ops[i+2]);
+				x0=ops[i]; y0=ops[i+1]; x1=x0+p.x; y1=y0+p.y;
+				w=0;
+				i+=3;
+				break;
+			}
+			case POLYGON: {
+				final int n = ops[i];
+				x0=y0=Integer.MAX_VALUE; x1=y1=Integer.MIN_VALUE;
+				for (int j=0; j<n; j++) {
+					x0=Math.min(x0,ops[i+4+2*j]); x1=Math.max(x1,ops[i+4+2*j]);
+					y0=Math.min(y0,ops[i+5+2*j]); y1=Math.max(y1,ops[i+5+2*j]);
+				}
+				w=ops[i+3];
+				i+=4+2*n;
+				break;
+			}
+			default:
+				throw new IllegalStateException("Corrupt display list");
+			}
+			w=Math.max(w,0)+1;
+			minX=Math.min(minX,x0-w); minY=Math.min(minY,y0-w);
+			maxX=Math.max(maxX,x1+w); maxY=Math.max(maxY,y1+w);
+		}
+		bounds[0]=minX; bounds[1]=minY; bounds[2]=maxX; bounds[3]=maxY;
+		return true;
+	}
+
+	/** Make sure there's room for the specified number of ints, and count a primitive */
+	private int[] reserve(int n) {
+		if (m_iOpsLen+n > m_Ops.length) {
+			int[] ops = new int[Math.max(m_Ops.length*2, m_iOpsLen+n)];
+			System.arraycopy(m_Ops, 0, ops, 0, m_iOpsLen);
+			m_Ops = ops;
+		}
+		m_iSize++;
+		return m_Ops;
+	}
+
+	public void DrawRectangle(int x1, int y1, int x2, int y2, int iFillColour, int iOutlineColour, int iThickness) {
+		final int[] ops = reserve(8);
+		int i=m_iOpsLen;
+		ops[i++]=RECT; ops[i++]=x1; ops[i++]=y1; ops[i++]=x2; ops[i++]=y2;
+		ops[i++]=iFillColour; ops[i++]=iOutlineColour; ops[i++]=iThickness;
+		m_iOpsLen=i;
+	}
+
+	public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {
+		final int[] ops = reserve(7);
+		int i=m_iOpsLen;
+		ops[i++]=CIRCLE; ops[i++]=iCX; ops[i++]=iCY; ops[i++]=iR;
+		ops[i++]=iFillColour; ops[i++]=iLineColour; ops[i++]=iLineWidth;
+		m_iOpsLen=i;
+	}
+
+	public void drawLine(int x0, int y0, int x1, int y1, int iWidth, int Colour) {
+		final int[] ops = reserve(7);
+		int i=m_iOpsLen;
+		ops[i++]=LINE; ops[i++]=x0; ops[i++]=y0; ops[i++]=x1; ops[i++]=y1;
+		ops[i++]=iWidth; ops[i++]=Colour;
+		m_iOpsLen=i;
+	}
+
+	public void DrawString(String string, int x1, int y1, int Size) {
+		if (m_iNumTexts==m_Texts.length) {
+			String[] texts = new String[m_Texts.length*2];
+			System.arraycopy(m_Texts, 0, texts, 0, m_iNumTexts);
+			m_Texts = texts;
+		}
+		m_Texts[m_iNumTexts++] = string;
+		final int[] ops = reserve(4);
+		int i=m_iOpsLen;
+		ops[i++]=STRING; ops[i++]=x1; ops[i++]=y1; ops[i++]=Size;
+		m_iOpsLen=i;
+	}
+
+	public void Polygon(CDasherView.Point[] Points, int fillColour, int iOutlineColour, int iWidth) {
+		final int[] ops = reserve(5+2*Points.length);
+		int i=m_iOpsLen;
+		ops[i++]=POLYGON; ops[i++]=Points.length;
+		ops[i++]=fillColour; ops[i++]=iOutlineColour; ops[i++]=iWidth;
+		for (CDasherView.Point p : Points) {ops[i++]=p.x; ops[i++]=p.y;}
+		m_iOpsLen=i;
+	}
+
+	public int GetWidth() {return m_Target.GetWidth();}
+
+	public int GetHeight() {return m_Target.GetHeight();}
+
+	public CDasherView.Point TextSize(String string, int Size) {
+		return m_Target.TextSize(string, Size);
+	}
+
+	public void SetColourScheme(CCustomColours ColourScheme) {
+		m_Target.SetColourScheme(ColourScheme);
+	}
+}
@@ -0,0 +1,200 @@
+package dasher;
+
+/**
+ * Overlaps producing frames with presenting them: the Dasher thread records
+ * each frame (every primitive, including the crosshair and any decorations)
+ * into a {@link CDisplayList}, and hands it over complete; meanwhile a
+ * dedicated render thread presents (rasterises) the last frame handed over.
+ * So a slow frame on the Dasher thread (e.g. expanding many nodes, calling
+ * the language model) does not delay presenting the previous one, and on a
+ * multi-core device the two stages run in parallel.
+ * <p>
+ * Frames are passed between the threads using three display lists: the
+ * Dasher thread records into one, the render thread replays another, and
+ * the third holds the most recently completed frame, if the render thread
+ * has not yet taken it. Once handed over, a list is not modified until the
+ * render thread has finished with it, so it serves as an immutable snapshot.
+ * With frame dropping (triple buffering), the Dasher thread never waits: a
+ * completed frame not yet taken by the render thread, is replaced by the next.
+ * Without (double buffering), the Dasher thread waits, when it completes a
+ * frame, until the render thread has taken the previous one.
+ * <p>
+ * The pipeline is itself a CDasherScreen, on which the Dasher thread may
+ * draw between {@link #beginFrame()} and {@link #endFrame()}: primitives are
+ * recorded into the current frame, and queries passed to the target screen.
+ */
+public class CFramePipeline implements CDasherScreen {
+	/** Presents frames, on the render thread */
+	public static interface Presenter {
+		/**
+		 * Draw the specified frame onto the real screen, e.g. by calling
+		 * {@link CDisplayList#replay(CDasherScreen)}. Called on the render
+		 * thread only; must not modify the list.
+		 */
+		public void present(CDisplayList frame);
+	}
+
+	private final CDasherScreen m_Target;
+	private final Presenter m_Presenter;
+	private final boolean m_bDropFrames;
+
+	/** Being recorded, by the Dasher thread */
+	private CDisplayList m_Back;
+	/** Latest frame handed over (if m_bFresh), or a spare buffer */
+	private CDisplayList m_Middle;
+	/** Being presented, by the render thread */
+	private CDisplayList m_Front;
+	/** Whether m_Middle contains a frame not yet taken by the render thread */
+	private boolean m_bFresh;
+	private boolean m_bClosed;
+	/** Number of frames handed over; presented; and replaced before the render thread took them */
+	private int m_iNumSubmitted, m_iNumPresented, m_iNumDropped;
+
+	private final Thread m_Renderer;
+
+	/**
+	 * Create a pipeline, starting its render thread.
+	 * @param target screen to which the display lists delegate queries (size of screen and of text).
+	 * Note these will be called on the Dasher thread, concurrently with the presenter drawing on the render thread.
+	 * @param presenter called on the render thread to present each frame
+	 * @param bDropFrames true for triple buffering (the Dasher thread never waits, and frames may be skipped);
+	 * false for double buffering (every frame is presented, but the Dasher thread may wait)
+	 */
+	public CFramePipeline(CDasherScreen target, Presenter presenter, boolean bDropFrames) {
+		this.m_Target = target;
+		this.m_Presenter = presenter;
+		this.m_bDropFrames = bDropFrames;
+		m_Back = new CDisplayList(target);
+		m_Middle = new CDisplayList(target);
+		m_Front = new CDisplayList(target);
+		m_Renderer = new Thread("Dasher render") {
+			@Override public void run() {renderLoop();}
+		};
+		m_Renderer.setDaemon(true);
+		m_Renderer.start();
+	}
+
+	/**
+	 * Start recording a new frame; call on the Dasher thread.
+	 * @return an empty display list into which to draw the frame
+	 */
+	public CDisplayList beginFrame() {
+		m_Back.clear();
+		return m_Back;
+	}
+
+	/**
+	 * Hand over the frame recorded since {@link #beginFrame()} to the render
+	 * thread; call on the Dasher thread. If nothing was drawn, the frame is
+	 * discarded (and the render thread left showing the previous one).
+	 */
+	public void endFrame() {
+		if (m_Back.isEmpty()) return;
+		synchronized(this) {
+			if (!m_bDropFrames)
+				while (m_bFresh && !m_bClosed)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+			if (m_bClosed) return;
+			if (m_bFresh) m_iNumDropped++;
+			CDisplayList t = m_Middle; m_Middle = m_Back; m_Back = t;
+			m_bFresh = true;
+			m_iNumSubmitted++;
+			notifyAll();
+		}
+	}
+
+	/** Number of frames handed over by {@link #endFrame()} so far */
+	public synchronized int getNumSubmitted() {return m_iNumSubmitted;}
+
+	/** Number of frames presented so far: less than submitted, if any were dropped */
+	public synchronized int getNumPresented() {return m_iNumPresented;}
+
+	/** Number of frames handed over, but replaced by a later frame before they could be presented */
+	public synchronized int getNumDropped() {return m_iNumDropped;}
+
+	/**
+	 * Stop the render thread, waiting for it to finish presenting any frame
+	 * it is in the middle of. (Any frame handed over but not yet taken, is not presented.)
+	 */
+	public void close() {
+		synchronized(this) {
+			m_bClosed = true;
+			notifyAll();
+		}
+		if (Thread.currentThread()==m_Renderer) return;
+		try {
+			m_Renderer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait until the render thread has presented every frame handed over
+	 * so far (or the pipeline is closed). Mainly for testing/benchmarking.
+	 */
+	public synchronized void waitUntilPresented() throws InterruptedException {
+		while (!m_bClosed && (m_bFresh || m_iNumPresented + m_iNumDropped < m_iNumSubmitted))
+			wait();
+	}
+
+	private void renderLoop() {
+		while (true) {
+			synchronized(this) {
+				while (!m_bFresh && !m_bClosed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (m_bClosed) return;
+				CDisplayList t = m_Front; m_Front = m_Middle; m_Middle = t;
+				m_bFresh = false;
+				notifyAll(); //Dasher thread may be waiting to hand over
+			}
+			m_Presenter.present(m_Front);
+			synchronized(this) {
+				m_iNumPresented++;
+				notifyAll();
+			}
+		}
+	}
+
+	public void DrawRectangle(int x1, int y1, int x2, int y2, int iFillColour, int iOutlineColour, int iThickness) {
+		m_Back.DrawRectangle(x1, y1, x2, y2, iFillColour, iOutlineColour, iThickness);
+	}
+
+	public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {
+		m_Back.DrawCircle(iCX, iCY, iR, iFillColour, iLineColour, iLineWidth);
+	}
+
+	public void drawLine(int x0, int y0, int x1, int y1, int iWidth, int Colour) {
+		m_Back.drawLine(x0, y0, x1, y1, iWidth, Colour);
+	}
+
+	public void DrawString(String string, int x1, int y1, int Size) {
+		m_Back.DrawString(string, x1, y1, Size);
+	}
+
+	public void Polygon(CDasherView.Point[] Points, int fillColour, int iOutlineColour, int iWidth) {
+		m_Back.Polygon(Points, fillColour, iOutlineColour, iWidth);
+	}
+
+	public int GetWidth() {return m_Target.GetWidth();}
+
+	public int GetHeight() {return m_Target.GetHeight();}
+
+	public CDasherView.Point TextSize(String string, int Size) {
+		return m_Target.TextSize(string, Size);
+	}
+
+	public void SetColourScheme(CCustomColours ColourScheme) {
+		m_Target.SetColourScheme(ColourScheme);
+	}
+}
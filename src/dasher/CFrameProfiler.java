@@ -0,0 +1,248 @@
+package dasher;
+
+import java.util.Arrays;
+
+/**
+ * Records how long each stage of {@link CDasherInterfaceBase#NewFrame(long)}
+ * takes, plus counts of the work done in each frame (nodes expanded,
+ * collapsed and rendered; calls to the language model). Each stage has a
+ * fixed-size histogram with logarithmic buckets (four per power of two, so
+ * percentiles are accurate to within about 20%), so recording a time costs
+ * no allocation and only a few instructions.
+ * <p>
+ * The interface creates one of these only while BP_PROFILE_FRAMES is set;
+ * otherwise the cost is one null check per stage. Times are in nanoseconds,
+ * from {@link System#nanoTime()}. All methods must be called on the thread
+ * calling NewFrame, except {@link #getSnapshot()} and {@link #reset()},
+ * which may be called from any thread.
+ */
+public class CFrameProfiler {
+	/** Stages of a frame, each timed separately */
+	public static enum Stage {
+		/** Whole of NewFrame, once past the checks for locks and a screen */
+		FRAME("Frame"),
+		/** {@link CInputFilter#Timer} */
+		INPUT_FILTER("Timer"),
+		/** {@link CDasherModel#nextScheduledStep(long)} */
+		SCHEDULED_STEP("Step"),
+		/** {@link CDasherView#Render}, including any output/undo of nodes */
+		RENDER("Render"),
+		/** Choosing a new root (Reparent_root / Make_root) before and after rendering */
+		MAKE_ROOT("Make_root"),
+		/** {@link ExpansionPolicy#apply(CDasherModel)} */
+		EXPANSION_POLICY("Policy"),
+		/** {@link CInputFilter#DecorateView} */
+		DECORATE("Decorate"),
+		/** Redrawing (blitting) if necessary, and running the end-of-frame tasks */
+		END_OF_FRAME("EndOfFrame");
+
+		public final String name;
+		private Stage(String name) {this.name=name;}
+	}
+
+	/** Per-frame counts of work done */
+	public static enum Counter {
+		/** Nodes whose children were populated */
+		EXPANSIONS("Expansions"),
+		/** Nodes whose children were deleted */
+		COLLAPSES("Collapses"),
+		/** Calls to {@link CNodeCreationManager#GetProbs} */
+		PROB_CALLS("GetProbs"),
+		/** Nodes visited by the view's Render method */
+		NODES_DRAWN("NodesDrawn"),
+		/** Labels the view had to measure on the screen, i.e. missing from its cache */
+		TEXT_MEASURED("TextMeasured");
+
+		public final String name;
+		private Counter(String name) {this.name=name;}
+	}
+
+	/** Default interval between dumps to the log, in ms */
+	public static final long DUMP_INTERVAL = 10000;
+
+	/** Values 0-7 get a bucket each; thereafter, four buckets per power of two, up to 2^40ns */
+	private static final int NUM_BUCKETS = 160;
+
+	private static final Stage[] STAGES = Stage.values();
+	private static final Counter[] COUNTERS = Counter.values();
+
+	private final long[][] m_Buckets = new long[STAGES.length][NUM_BUCKETS];
+	private final long[] m_Sums = new long[STAGES.length], m_Maxes = new long[STAGES.length];
+	private final long[] m_Counts = new long[COUNTERS.length];
+	private long m_iNumFrames;
+
+	private final long m_iDumpInterval;
+	private long m_iLastDump = -1;
+	/** nanoTime at which current frame started */
+	private long m_lFrameStart;
+
+	public CFrameProfiler() {this(DUMP_INTERVAL);}
+
+	/**
+	 * @param iDumpInterval min time between successive frames for which
+	 * {@link #endFrame(long)} returns true, in ms; 0 = never
+	 */
+	public CFrameProfiler(long iDumpInterval) {
+		this.m_iDumpInterval = iDumpInterval;
+	}
+
+	/** Marks the start of a frame; returns the current time, for passing to {@link #endStage} */
+	public long startFrame() {
+		return m_lFrameStart = System.nanoTime();
+	}
+
+	/**
+	 * Records the time since <code>lFrom</code> as the duration of a stage.
+	 * @param lFrom value previously returned by {@link #startFrame()} or {@link #endStage}
+	 * @return the current time (i.e. the start of the next stage)
+	 */
+	public long endStage(Stage s, long lFrom) {
+		final long now = System.nanoTime();
+		record(s, now-lFrom);
+		return now;
+	}
+
+	/** Records a duration of a stage, in ns, e.g. if the stage was performed in several parts */
+	public synchronized void record(Stage s, long lNanos) {
+		final int i=s.ordinal();
+		m_Buckets[i][bucket(lNanos)]++;
+		m_Sums[i]+=lNanos;
+		if (lNanos>m_Maxes[i]) m_Maxes[i]=lNanos;
+	}
+
+	public void count(Counter c) {add(c,1);}
+
+	public synchronized void add(Counter c, long n) {
+		m_Counts[c.ordinal()]+=n;
+	}
+
+	/**
+	 * Marks the end of a frame, recording its total time.
+	 * @param iTime the time passed to NewFrame, in ms
+	 * @return true if it's time to dump stats to the log (i.e. the dump interval
+	 * has elapsed since the last frame for which true was returned)
+	 */
+	public boolean endFrame(long iTime) {
+		endStage(Stage.FRAME, m_lFrameStart);
+		synchronized(this) {m_iNumFrames++;}
+		if (m_iDumpInterval<=0) return false;
+		if (m_iLastDump==-1) m_iLastDump=iTime;
+		else if (iTime - m_iLastDump >= m_iDumpInterval) {
+			m_iLastDump=iTime;
+			return true;
+		}
+		return false;
+	}
+
+	/** Clears all recorded timings and counts */
+	public synchronized void reset() {
+		for (long[] b : m_Buckets) Arrays.fill(b,0);
+		Arrays.fill(m_Sums,0);
+		Arrays.fill(m_Maxes,0);
+		Arrays.fill(m_Counts,0);
+		m_iNumFrames=0;
+	}
+
+	/** Copies the statistics recorded so far (since construction or {@link #reset()}) */
+	public synchronized Snapshot getSnapshot() {
+		return new Snapshot(this);
+	}
+
+	private static int bucket(long v) {
+		if (v<8) return (v<0) ? 0 : (int)v;
+		final int e = 63-Long.numberOfLeadingZeros(v); //floor(log2(v)), >=3
+		final int b = 4*(e-1) + (int)((v>>>(e-2)) & 3);
+		return Math.min(b, NUM_BUCKETS-1);
+	}
+
+	/** Smallest value that falls into the specified bucket */
+	private static long bucketMin(int b) {
+		if (b<8) return b;
+		return (4L+(b&3)) << (b/4-1);
+	}
+
+	/**
+	 * Immutable copy of the statistics in a profiler, which may be queried for
+	 * percentiles etc. of each stage.
+	 */
+	public static class Snapshot {
+		private final long[][] m_Buckets;
+		private final long[] m_Sums, m_Maxes, m_Samples, m_Counts;
+		private final long m_iNumFrames;
+
+		private Snapshot(CFrameProfiler p) {
+			m_Buckets = new long[STAGES.length][];
+			m_Samples = new long[STAGES.length];
+			for (int i=0; i<STAGES.length; i++) {
+				m_Buckets[i] = p.m_Buckets[i].clone();
+				for (long n : m_Buckets[i]) m_Samples[i]+=n;
+			}
+			m_Sums=p.m_Sums.clone();
+			m_Maxes=p.m_Maxes.clone();
+			m_Counts=p.m_Counts.clone();
+			m_iNumFrames=p.m_iNumFrames;
+		}
+
+		public long getNumFrames() {return m_iNumFrames;}
+
+		/** Number of times the stage was recorded (not necessarily every frame) */
+		public long getNumSamples(Stage s) {return m_Samples[s.ordinal()];}
+
+		/** Total time spent in the stage, in ns */
+		public long getTotal(Stage s) {return m_Sums[s.ordinal()];}
+
+		public long getMax(Stage s) {return m_Maxes[s.ordinal()];}
+
+		/** Mean time per sample, in ns, or 0 if no samples */
+		public long getMean(Stage s) {
+			final long n = getNumSamples(s);
+			return n==0 ? 0 : m_Sums[s.ordinal()]/n;
+		}
+
+		/**
+		 * Estimate a percentile of a stage's duration, as the midpoint of the
+		 * histogram bucket containing it.
+		 * @param dFrac fraction of samples that should be at or below the result, e.g. 0.99
+		 * @return duration in ns, or 0 if no samples
+		 */
+		public long getPercentile(Stage s, double dFrac) {
+			final int i=s.ordinal();
+			if (m_Samples[i]==0) return 0;
+			final long rank = Math.max(1, (long)Math.ceil(dFrac*m_Samples[i]));
+			long cum=0;
+			for (int b=0; b<NUM_BUCKETS; b++) {
+				if ((cum+=m_Buckets[i][b])>=rank) {
+					if (b==NUM_BUCKETS-1) return m_Maxes[i];
+					final long lo=bucketMin(b), hi=bucketMin(b+1)-1;
+					return Math.min((lo+hi)/2, m_Maxes[i]);
+				}
+			}
+			return m_Maxes[i];
+		}
+
+		/** Total of a counter over all frames */
+		public long getCount(Counter c) {return m_Counts[c.ordinal()];}
+
+		/** One line per stage (p50, p99, max, in microseconds), then mean counts per frame */
+		@Override public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(m_iNumFrames).append(" frames; stage p50/p99/max (us):");
+			for (Stage s : STAGES) {
+				if (getNumSamples(s)==0) continue;
+				sb.append("\n  ").append(s.name).append(' ')
+					.append(micros(getPercentile(s,0.5))).append('/')
+					.append(micros(getPercentile(s,0.99))).append('/')
+					.append(micros(getMax(s)));
+			}
+			sb.append("\nper frame:");
+			for (Counter c : COUNTERS)
+				sb.append(' ').append(c.name).append('=')
+					.append(m_iNumFrames==0 ? "0" : String.format("%.1f", getCount(c)/(double)m_iNumFrames));
+			return sb.toString();
+		}
+
+		private static String micros(long ns) {
+			return String.format("%.1f", ns/1000.0);
+		}
+	}
+}
@@ -89,6 +89,7 @@ private double logFrames;*/
 	 */
 	public CFrameRate(CDasherComponent creator) {
 		super(creator);
+		ListenFor(LP_X_LIMIT_SPEED, LP_MAX_BITRATE, LP_FRAMERATE);
 		HandleEvent(LP_X_LIMIT_SPEED);
 	}
 	
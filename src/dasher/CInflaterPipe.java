@@ -0,0 +1,178 @@
+package dasher;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stream of the text decompressed from a gzip-compressed stream,
+ * decompressed on a separate thread: so that (e.g. when training) decompressing
+ * the next block overlaps with processing the last, rather than alternating.
+ * <p>
+ * The decompressing thread fills blocks of {@link #BLOCK_SIZE} bytes, and passes
+ * them to the reader via a queue; at most {@link #NUM_BLOCKS} exist, being handed
+ * back and forth, so the decompressor runs at most that far ahead. Errors reading
+ * the compressed stream are rethrown to the reader, at the point they occurred;
+ * and {@link #consumed()} tells the reader how much of the compressed stream
+ * has been used to produce what it has read (e.g. to report progress).
+ * Use {@link #open(InputStream)} to decompress only if a stream is compressed.
+ */
+public class CInflaterPipe extends InputStream {
+	/** Size of each block of decompressed bytes passed between the threads */
+	public static final int BLOCK_SIZE = 8192;
+	/** Number of blocks, i.e. filled but not yet read, being read, or being filled */
+	public static final int NUM_BLOCKS = 8;
+
+	/** Block of decompressed data, and the reason (EOF or error) if it is the last */
+	private static class Block {
+		final byte[] data = new byte[BLOCK_SIZE];
+		int len;
+		/** Number of compressed bytes consumed, by the time the block was filled */
+		long consumed;
+		boolean bEnd;
+		IOException error;
+	}
+
+	/** Blocks ready to read, in order */
+	private final BlockingQueue<Block> m_Full = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+	/** Blocks read, ready to be refilled */
+	private final BlockingQueue<Block> m_Empty = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+	private final InputStream m_In;
+	/** Compressed bytes read so far; only accessed by the decompressing thread */
+	private long m_iConsumed;
+	private final Thread m_Thread;
+	/** Block being read, or null if must take the next */
+	private Block m_Cur;
+	private int m_iPos;
+	private boolean m_bClosed;
+
+	/**
+	 * Starts decompressing.
+	 * @param in compressed stream; read by the decompressing thread (and the header,
+	 * by this constructor), and closed by {@link #close()}
+	 */
+	public CInflaterPipe(final InputStream in) throws IOException {
+		this.m_In = new GZIPInputStream(new FilterInputStream(in) {
+			@Override public int read() throws IOException {
+				int b = in.read();
+				if (b!=-1) m_iConsumed++;
+				return b;
+			}
+			@Override public int read(byte[] buf, int off, int len) throws IOException {
+				int n = in.read(buf, off, len);
+				if (n>0) m_iConsumed+=n;
+				return n;
+			}
+		}, BLOCK_SIZE);
+		for (int i=0; i<NUM_BLOCKS; i++) m_Empty.add(new Block());
+		m_Thread = new Thread("Decompress") {
+			@Override public void run() {fill();}
+		};
+		m_Thread.setDaemon(true);
+		m_Thread.start();
+	}
+
+	/** Body of the decompressing thread */
+	private void fill() {
+		try {
+			for (;;) {
+				final Block b = m_Empty.take();
+				b.len=0;
+				try {
+					for (int r; b.len<BLOCK_SIZE && (r=m_In.read(b.data, b.len, BLOCK_SIZE-b.len))!=-1; )
+						b.len+=r;
+					b.bEnd = (b.len<BLOCK_SIZE);
+					b.consumed = m_iConsumed;
+				} catch (IOException e) {
+					b.error=e;
+					b.bEnd=true;
+				}
+				m_Full.put(b);
+				if (b.bEnd) return;
+			}
+		} catch (InterruptedException e) {
+			//closed by reader
+		}
+	}
+
+	/** Makes sure m_Cur is a block with bytes to read; returns false at end of stream */
+	private boolean next() throws IOException {
+		while (m_Cur==null || m_iPos==m_Cur.len) {
+			if (m_Cur!=null) {
+				if (m_Cur.bEnd) {
+					if (m_Cur.error!=null) throw m_Cur.error;
+					return false;
+				}
+				m_Empty.add(m_Cur);
+			}
+			if (m_bClosed) throw new IOException("Stream closed");
+			try {
+				m_Cur = m_Full.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			m_iPos=0;
+		}
+		return true;
+	}
+
+	@Override public int read() throws IOException {
+		return next() ? m_Cur.data[m_iPos++] & 0xFF : -1;
+	}
+
+	@Override public int read(byte[] buf, int off, int len) throws IOException {
+		if (len==0) return 0;
+		if (!next()) return -1;
+		final int n = Math.min(len, m_Cur.len-m_iPos);
+		System.arraycopy(m_Cur.data, m_iPos, buf, off, n);
+		m_iPos+=n;
+		return n;
+	}
+
+	/**
+	 * Number of bytes of the compressed stream used (so far as can be told, as
+	 * it is read in chunks) to produce the bytes read so far; so, at most the
+	 * length of that stream.
+	 */
+	public long consumed() {
+		return (m_Cur==null) ? 0 : m_Cur.consumed;
+	}
+
+	/** Bytes decompressed and waiting in the current block (not counting any further blocks) */
+	@Override public int available() {
+		return (m_Cur==null) ? 0 : m_Cur.len-m_iPos;
+	}
+
+	/** Stops the decompressing thread, and closes the compressed stream */
+	@Override public void close() throws IOException {
+		if (m_bClosed) return;
+		m_bClosed=true;
+		m_Thread.interrupt();
+		try {
+			m_Thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		m_In.close();
+	}
+
+	/**
+	 * Opens a stream which may or may not be compressed.
+	 * @param in stream of (possibly) compressed data; closed by closing the result
+	 * @return if in begins with a gzip header (magic number, then deflate method),
+	 * a {@link CInflaterPipe} decompressing it; otherwise, a stream of its bytes unchanged.
+	 * (A bare zlib header is not looked for, as it could also begin some text.)
+	 */
+	public static InputStream open(InputStream in) throws IOException {
+		if (!in.markSupported()) in = new BufferedInputStream(in);
+		in.mark(3);
+		final int b0 = in.read(), b1 = in.read(), b2 = in.read();
+		in.reset();
+		return (b0==0x1f && b1==0x8b && b2==8) ? new CInflaterPipe(in) : in;
+	}
+}
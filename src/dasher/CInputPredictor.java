@@ -0,0 +1,136 @@
+package dasher;
+
+import dasher.CDasherView.MutablePoint;
+
+/**
+ * Estimates the position of an input at a given time (e.g. that at which a
+ * frame will be seen) from all the timestamped samples in a
+ * {@link CInputSamples}, rather than just the latest. Each axis is tracked by
+ * a Kalman filter with a constant-velocity model (white-noise acceleration),
+ * which smooths jitter between samples and estimates the velocity; the
+ * position is then extrapolated from the time of the latest sample, with the
+ * velocity decaying (so that if samples stop arriving, e.g. because a finger
+ * has stopped moving and so generates no more touch events, the prediction
+ * settles rather than running on).
+ * <p>
+ * The filter restarts from the raw position whenever the {@link CInputSamples#DOWN}
+ * flag changes (a new touch) or after a long gap between samples. Call from
+ * the reader (Dasher) thread only; does not allocate.
+ */
+public class CInputPredictor {
+	/** Gap between samples (ms) after which we restart rather than carry on the old velocity */
+	private static final long RESET_GAP = 250;
+
+	/** Variance of each sample about the true position, in sample units squared */
+	private final double m_dMeasureVar;
+	/** Spectral density of the acceleration, in sample units squared per ms cubed */
+	private final double m_dAccelDensity;
+	/** Time constant (ms) with which extrapolated velocity decays after the latest sample */
+	private final double m_dDecay;
+
+	/** Per-axis state (position, velocity per ms) and covariance of the Kalman filter */
+	private static final class Axis {
+		double p, v, pp, pv, vv;
+
+		void reset(double z, double r) {
+			p=z; v=0; pp=r; pv=0; vv=INITIAL_VELOCITY_VAR;
+		}
+
+		void update(double z, double dt, double r, double q) {
+			//predict forwards dt
+			p += v*dt;
+			final double dt2 = dt*dt;
+			pp += dt*(2*pv + dt*vv) + q*dt2*dt/3;
+			pv += dt*vv + q*dt2/2;
+			vv += q*dt;
+			//correct by measurement z
+			final double s = pp+r, k0 = pp/s, k1 = pv/s, y = z-p;
+			p += k0*y;
+			v += k1*y;
+			vv -= k1*pv;
+			pv -= k0*pv;
+			pp -= k0*pp;
+		}
+	}
+
+	/** Variance of the velocity at the start of a new touch: we've no idea which way it's going */
+	private static final double INITIAL_VELOCITY_VAR = 4.0;
+
+	private final Axis m_X = new Axis(), m_Y = new Axis();
+	private final CInputSamples.Sample m_Sample = new CInputSamples.Sample();
+	/** Number of the last sample incorporated into the filter, or 0 if none */
+	private long m_iLastSeq;
+	/** Time and flags of that sample */
+	private long m_iLastTime;
+	private int m_iLastFlags;
+
+	/** Uses parameters suited to touch and mouse positions in pixels */
+	public CInputPredictor() {
+		this(1.0, 1e-4, 20.0);
+	}
+
+	/**
+	 * @param dMeasureVar variance of the samples about the true position (noise), in sample units squared
+	 * @param dAccelDensity how much the velocity is expected to change: spectral density
+	 * of acceleration, in sample units squared per ms cubed
+	 * @param dDecay time constant (ms) for extrapolating beyond the latest sample: its
+	 * estimated velocity applies for this long in total
+	 */
+	public CInputPredictor(double dMeasureVar, double dAccelDensity, double dDecay) {
+		this.m_dMeasureVar = dMeasureVar;
+		this.m_dAccelDensity = dAccelDensity;
+		this.m_dDecay = dDecay;
+	}
+
+	/** Forgets all samples; the next prediction will start afresh from whatever samples remain in the buffer */
+	public void reset() {
+		m_iLastSeq = 0;
+	}
+
+	/**
+	 * Incorporates any new samples, and predicts the position at a specified time.
+	 * @param samples buffer of samples; must be the same one every call, unless
+	 * {@link #reset()} is called in between
+	 * @param iTime time (ms, on the same clock as the samples) at which position is wanted;
+	 * or negative, to report the latest sample as is
+	 * @param into into which to write the predicted position (in sample units)
+	 * @param latest into which to copy the latest sample (e.g. so the caller can examine its flags)
+	 * @return false if no samples have been added (in which case neither into nor latest is changed)
+	 */
+	public boolean predict(CInputSamples samples, long iTime, MutablePoint into, CInputSamples.Sample latest) {
+		if (!samples.getLatest(latest)) return false;
+		if (iTime<0) {
+			into.init(latest.x, latest.y);
+			return true;
+		}
+		final CInputSamples.Sample s = m_Sample;
+		//earliest sample still available; if we've missed some, the filter simply steps over the gap
+		long iSeq = Math.max(m_iLastSeq+1, latest.seq-samples.getCapacity()+2);
+		for (; iSeq<=latest.seq; iSeq++) {
+			if (!samples.get(iSeq, s)) {
+				if (iSeq<latest.seq) continue;
+				//writer lapped us (very unlikely): use the copy taken first
+				s.seq=latest.seq; s.time=latest.time; s.x=latest.x; s.y=latest.y; s.flags=latest.flags;
+			}
+			add(s);
+		}
+		final long dt = Math.max(0, iTime - m_iLastTime);
+		final double ext = m_dDecay * (1.0 - Math.exp(-dt/m_dDecay));
+		into.init(Math.round(m_X.p + m_X.v*ext), Math.round(m_Y.p + m_Y.v*ext));
+		return true;
+	}
+
+	private void add(CInputSamples.Sample s) {
+		final long dt = s.time-m_iLastTime;
+		if (m_iLastSeq==0 || s.flags!=m_iLastFlags || dt>RESET_GAP) {
+			m_X.reset(s.x, m_dMeasureVar);
+			m_Y.reset(s.y, m_dMeasureVar);
+		} else {
+			//tolerate (small) misordering of timestamps
+			final double d = Math.max(0, dt);
+			m_X.update(s.x, d, m_dMeasureVar, m_dAccelDensity);
+			m_Y.update(s.y, d, m_dMeasureVar, m_dAccelDensity);
+		}
+		m_iLastSeq=s.seq; m_iLastTime=s.time; m_iLastFlags=s.flags;
+	}
+}
@@ -0,0 +1,104 @@
+package dasher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free ring buffer of timestamped input samples (e.g. touch positions),
+ * written by a single thread (e.g. the UI thread, on each input event) and
+ * read by another (the Dasher thread, each frame). The writer never blocks
+ * nor allocates, and the reader always sees a consistent sample - its x, y,
+ * time and flags all published together - however the two interleave.
+ * <p>
+ * Each sample is held in a slot of an atomic array, and published by then
+ * incrementing a count of samples written; a reader checks, after reading a
+ * slot, that the count has not since advanced far enough for the writer to
+ * have started overwriting that slot, and if it has, retries with the latest.
+ * Samples are numbered from 1 by the order in which they were added; the
+ * most recent {@link #getCapacity()} (less one) remain available.
+ */
+public class CInputSamples {
+	/** Flag on a sample taken while the pointer was down (e.g. finger on screen) */
+	public static final int DOWN = 1;
+
+	/** A sample, as copied out of the buffer by the reader */
+	public static class Sample {
+		/** Number of the sample, counting from 1 */
+		public long seq;
+		/** Time the sample was taken, in ms (on the same clock as frame times) */
+		public long time;
+		public int x, y;
+		/** Bitwise or of flags, e.g. {@link CInputSamples#DOWN} */
+		public int flags;
+	}
+
+	private final int m_iCapacity;
+	/** Three longs per slot: x and y (packed together), time, flags */
+	private final AtomicLongArray m_Slots;
+	/** Number of samples published (so, the number of the latest sample). Only the writer modifies. */
+	private volatile long m_iWritten;
+
+	/**
+	 * @param iCapacity number of slots; at least 2. The reader may see any of the
+	 * last iCapacity-1 samples, so more than the number of samples the writer may
+	 * add between reads, if all are wanted.
+	 */
+	public CInputSamples(int iCapacity) {
+		if (iCapacity<2) throw new IllegalArgumentException("Capacity "+iCapacity);
+		this.m_iCapacity = iCapacity;
+		m_Slots = new AtomicLongArray(3*iCapacity);
+	}
+
+	public int getCapacity() {return m_iCapacity;}
+
+	/**
+	 * Publishes a new sample. Call only on the writer thread.
+	 * @return number of the new sample
+	 */
+	public long add(long iTime, int x, int y, int iFlags) {
+		final long iSeq = m_iWritten+1;
+		final int i = 3*(int)(iSeq % m_iCapacity);
+		m_Slots.set(i, ((long)x << 32) | (y & 0xFFFFFFFFL));
+		m_Slots.set(i+1, iTime);
+		m_Slots.set(i+2, iFlags);
+		m_iWritten = iSeq;
+		return iSeq;
+	}
+
+	/** Number of the latest sample published, or 0 if none */
+	public long getLatestSeq() {return m_iWritten;}
+
+	/**
+	 * Copies out the latest sample. Call on any thread.
+	 * @param s into which to copy the sample
+	 * @return false if no samples have been added (in which case s is unchanged)
+	 */
+	public boolean getLatest(Sample s) {
+		while (true) {
+			final long iSeq = m_iWritten;
+			if (iSeq==0) return false;
+			if (get(iSeq, s)) return true;
+			//else, writer lapped us (very unlikely): try the new latest
+		}
+	}
+
+	/**
+	 * Copies out a specified sample, if still available. Call on any thread.
+	 * @param iSeq number of the sample, i.e. at most {@link #getLatestSeq()}
+	 * @param s into which to copy the sample
+	 * @return false if the sample has been (or may be being) overwritten by a
+	 * later one, or has not yet been added (in which case the contents of s are undefined)
+	 */
+	public boolean get(long iSeq, Sample s) {
+		if (iSeq<1 || iSeq>m_iWritten) return false;
+		final int i = 3*(int)(iSeq % m_iCapacity);
+		final long xy = m_Slots.get(i);
+		s.time = m_Slots.get(i+1);
+		s.flags = (int)m_Slots.get(i+2);
+		//the writer starts overwriting this slot only after publishing sample iSeq+capacity-1
+		if (m_iWritten >= iSeq + m_iCapacity - 1) return false;
+		s.seq = iSeq;
+		s.x = (int)(xy >> 32);
+		s.y = (int)xy;
+		return true;
+	}
+}
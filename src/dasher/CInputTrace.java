@@ -0,0 +1,271 @@
+package dasher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records, in a compact binary form, everything that drives a
+ * {@link CDasherInterfaceBase}: the input co-ordinates seen at each frame,
+ * key presses, parameter changes, cursor moves, and (for checking) the edits
+ * Dasher makes to the document. A {@link CTraceReplayer} can then feed the
+ * same session back through another interface, e.g. to profile it.
+ * <p>
+ * Records are written into a preallocated ring buffer, so recording costs
+ * no allocation on the Dasher thread; a background thread copies the buffer
+ * out to the stream whenever it is half full, and at least once every
+ * {@link #FLUSH_INTERVAL} ms. (Should the stream fall so far behind that the
+ * buffer fills, the Dasher thread waits.)
+ * <p>
+ * Format: a header (magic number and version), then a sequence of records,
+ * each a one-byte type followed by big-endian fields as documented on the
+ * type constants. Strings are a 2-byte length followed by UTF-16 code units.
+ */
+public class CInputTrace extends CDasherComponent {
+	static final int MAGIC = 0x44545243; //"DTRC"
+	static final int VERSION = 1;
+
+	/** time (long), whether coords valid (byte), x (long), y (long) in Dasher co-ordinates */
+	static final byte FRAME=1;
+	/** time (long), key id (int) */
+	static final byte KEY_DOWN=2, KEY_UP=3;
+	/** parameter name (string), value (byte) */
+	static final byte PARAM_BOOL=4;
+	/** parameter name (string), value (long) */
+	static final byte PARAM_LONG=5;
+	/** parameter name (string), value (string) */
+	static final byte PARAM_STRING=6;
+	/** offset (int), text (string): arguments to outputText / deleteText */
+	static final byte OUTPUT=7, DELETE=8;
+	/** new offset (int), whether forced (byte): a call to setOffset */
+	static final byte SET_OFFSET=9;
+	/** width (int), height (int) of new screen */
+	static final byte SCREEN=10;
+	/** offset (int) of cursor, text (string) preceding it: initial document contents */
+	static final byte CONTEXT=11;
+
+	/** Max interval between writes to the stream, in ms */
+	public static final int FLUSH_INTERVAL = 1000;
+
+	private final OutputStream m_Out;
+	private final byte[] m_Buf;
+	private final int m_iMask;
+	/** Total bytes ever written into, and flushed out of, the ring buffer */
+	private long m_lHead, m_lTail;
+	private boolean m_bClosing;
+	private IOException m_Error;
+	private final Thread m_Flusher;
+
+	/**
+	 * Create a new trace, writing the header to the ring buffer and
+	 * starting the background flushing thread.
+	 * @param creator component from which to obtain settings store; all
+	 * subsequent parameter changes will be recorded
+	 * @param out stream to write trace to; will be closed by {@link #close()}.
+	 * @param iCapacityLog2 log (base 2) of size of ring buffer, in bytes
+	 */
+	public CInputTrace(CDasherComponent creator, OutputStream out, int iCapacityLog2) {
+		super(creator);
+		if (iCapacityLog2<10 || iCapacityLog2>30) throw new IllegalArgumentException("Buffer size 2^"+iCapacityLog2);
+		this.m_Out = out;
+		this.m_Buf = new byte[1<<iCapacityLog2];
+		this.m_iMask = m_Buf.length-1;
+		synchronized(this) {
+			reserve(8);
+			putInt(MAGIC); putInt(VERSION);
+		}
+		m_Flusher = new Thread("Trace flusher") {
+			@Override public void run() {flushLoop();}
+		};
+		m_Flusher.setDaemon(true);
+		m_Flusher.start();
+	}
+
+	/** Record the current value of every parameter; typically done once, when starting the trace */
+	public void recordAllParameters() {
+		for (Ebp_parameters p : Ebp_parameters.values()) HandleEvent(p);
+		for (Elp_parameters p : Elp_parameters.values()) HandleEvent(p);
+		for (Esp_parameters p : Esp_parameters.values()) HandleEvent(p);
+	}
+
+	@Override public void HandleEvent(EParameters eParam) {
+		if (eParam instanceof Ebp_parameters) {
+			boolean b = GetBoolParameter((Ebp_parameters)eParam);
+			synchronized(this) {
+				if (!reserve(1+strLen(eParam.regName())+1)) return;
+				put(PARAM_BOOL); putString(eParam.regName()); put(b ? (byte)1 : 0);
+			}
+		} else if (eParam instanceof Elp_parameters) {
+			long l = GetLongParameter((Elp_parameters)eParam);
+			synchronized(this) {
+				if (!reserve(1+strLen(eParam.regName())+8)) return;
+				put(PARAM_LONG); putString(eParam.regName()); putLong(l);
+			}
+		} else {
+			String s = GetStringParameter((Esp_parameters)eParam);
+			synchronized(this) {
+				if (!reserve(1+strLen(eParam.regName())+strLen(s))) return;
+				put(PARAM_STRING); putString(eParam.regName()); putString(s);
+			}
+		}
+	}
+
+	public synchronized void frame(long iTime, boolean bValid, long x, long y) {
+		if (!reserve(26)) return;
+		put(FRAME); putLong(iTime); put(bValid ? (byte)1 : 0); putLong(x); putLong(y);
+	}
+
+	public synchronized void keyDown(long iTime, int iId) {
+		key(KEY_DOWN, iTime, iId);
+	}
+
+	public synchronized void keyUp(long iTime, int iId) {
+		key(KEY_UP, iTime, iId);
+	}
+
+	private void key(byte type, long iTime, int iId) {
+		if (!reserve(13)) return;
+		put(type); putLong(iTime); putInt(iId);
+	}
+
+	public synchronized void outputText(String text, int iOffset) {
+		edit(OUTPUT, iOffset, text);
+	}
+
+	public synchronized void deleteText(String text, int iOffset) {
+		edit(DELETE, iOffset, text);
+	}
+
+	public synchronized void context(int iOffset, String text) {
+		edit(CONTEXT, iOffset, text);
+	}
+
+	private void edit(byte type, int iOffset, String text) {
+		if (!reserve(5+strLen(text))) return;
+		put(type); putInt(iOffset); putString(text);
+	}
+
+	public synchronized void setOffset(int iOffset, boolean bForce) {
+		if (!reserve(6)) return;
+		put(SET_OFFSET); putInt(iOffset); put(bForce ? (byte)1 : 0);
+	}
+
+	public synchronized void screen(int iWidth, int iHeight) {
+		if (!reserve(9)) return;
+		put(SCREEN); putInt(iWidth); putInt(iHeight);
+	}
+
+	/**
+	 * Stop recording: stops listening for parameter changes, flushes everything
+	 * remaining in the buffer, and closes the stream.
+	 * @throws IOException if any write to the stream failed (at any time).
+	 */
+	public void close() throws IOException {
+		synchronized(this) {
+			if (m_bClosing) return;
+			m_bClosing = true;
+			notifyAll();
+		}
+		m_SettingsStore.UnregisterListener(this);
+		try {
+			m_Flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			m_Out.close();
+		} catch (IOException e) {
+			if (m_Error==null) m_Error=e;
+		}
+		if (m_Error!=null) throw m_Error;
+	}
+
+	/** Bytes required to encode a string */
+	private int strLen(String s) {
+		return 2+2*Math.min(s.length(), maxStrLen());
+	}
+
+	/** Longest string we'll record (any more is truncated): a quarter of the buffer */
+	private int maxStrLen() {
+		return Math.min(Short.MAX_VALUE, m_Buf.length/8);
+	}
+
+	/**
+	 * Make sure there are at least the specified number of bytes free
+	 * in the buffer, waiting for the flusher if necessary. Caller must hold lock.
+	 * @return false if the trace has been closed or failed, so the record
+	 * should be discarded.
+	 */
+	private boolean reserve(int iBytes) {
+		if (m_bClosing || m_Error!=null) return false;
+		if (m_lHead + iBytes - m_lTail > m_Buf.length/2) notifyAll(); //wake flusher
+		while (m_lHead + iBytes - m_lTail > m_Buf.length) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			if (m_Error!=null) return false;
+		}
+		return true;
+	}
+
+	private void put(byte b) {m_Buf[(int)(m_lHead++ & m_iMask)] = b;}
+
+	private void putInt(int i) {
+		put((byte)(i>>>24)); put((byte)(i>>>16)); put((byte)(i>>>8)); put((byte)i);
+	}
+
+	private void putLong(long l) {
+		putInt((int)(l>>>32)); putInt((int)l);
+	}
+
+	private void putString(String s) {
+		final int len = Math.min(s.length(), maxStrLen());
+		put((byte)(len>>>8)); put((byte)len);
+		for (int i=0; i<len; i++) {
+			char c = s.charAt(i);
+			put((byte)(c>>>8)); put((byte)c);
+		}
+	}
+
+	/** Body of background thread: write out buffer contents periodically, until closed */
+	private void flushLoop() {
+		while (true) {
+			long from, to;
+			boolean bLast;
+			synchronized(this) {
+				if (!m_bClosing && m_lHead - m_lTail <= m_Buf.length/2) {
+					try {
+						wait(FLUSH_INTERVAL);
+					} catch (InterruptedException e) {
+						m_bClosing=true; //finish up
+					}
+				}
+				from=m_lTail; to=m_lHead; bLast=m_bClosing;
+			}
+			try {
+				//the region [from,to) can't be overwritten until we advance m_lTail
+				while (from<to) {
+					int start = (int)(from & m_iMask);
+					int len = (int)Math.min(to-from, m_Buf.length-start);
+					m_Out.write(m_Buf, start, len);
+					from+=len;
+				}
+				m_Out.flush();
+			} catch (IOException e) {
+				synchronized(this) {
+					m_Error=e;
+					m_lTail=m_lHead;
+					notifyAll();
+				}
+				return;
+			}
+			synchronized(this) {
+				m_lTail=to;
+				notifyAll(); //in case Dasher thread waiting for space
+			}
+			if (bLast) return;
+		}
+	}
+}
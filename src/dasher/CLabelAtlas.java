@@ -0,0 +1,123 @@
+package dasher;
+
+import java.util.Arrays;
+
+/**
+ * Layout of an atlas of pre-rasterised labels: a single image holding each of
+ * a set of texts at each of a set of font sizes, packed into rows ("shelves").
+ * This class is platform-independent; it measures the labels, packs them, and
+ * finds a label's cell quickly (without allocation) when drawing. Screens
+ * subclass it to rasterise the labels into an image of their own, with the
+ * top-left of each label's text bounds at ({@link #getX(int)}, {@link #getY(int)}),
+ * and then draw a label by copying its cell, {@link #PAD} pixels larger all
+ * round (for antialiasing), to the corresponding position on screen.
+ * <p>
+ * Labels which do not fit within the maximum dimensions are left out, as are
+ * all strings and sizes not supplied at construction: {@link #find} returns
+ * -1 and the screen should draw the text directly.
+ */
+public class CLabelAtlas {
+	/** Blank space around each label in the atlas */
+	public static final int PAD = 1;
+
+	private final String[] m_Texts;
+	private final int[] m_Sizes, m_X, m_Y, m_W, m_H;
+	private final int m_iNumLabels;
+	/** Head of the chain for each hash bucket, or -1 */
+	private final int[] m_Table;
+	/** Next label in the same hash bucket, or -1 */
+	private final int[] m_Chain;
+	private final int m_iWidth, m_iHeight;
+
+	/**
+	 * Measures and packs the labels.
+	 * @param measurer screen whose {@link CDasherScreen#TextSize} gives the size of each label
+	 * @param texts texts to include; null or empty strings are skipped
+	 * @param sizes font sizes at which to include every text
+	 * @param iMaxWidth max width of the atlas image, in pixels
+	 * @param iMaxHeight max height of the atlas image, in pixels
+	 */
+	public CLabelAtlas(CDasherScreen measurer, String[] texts, int[] sizes, int iMaxWidth, int iMaxHeight) {
+		final int iMax = texts.length*sizes.length;
+		m_Texts = new String[iMax];
+		m_Sizes = new int[iMax]; m_X = new int[iMax]; m_Y = new int[iMax];
+		m_W = new int[iMax]; m_H = new int[iMax];
+		m_Chain = new int[iMax];
+		int iBuckets = Integer.highestOneBit(Math.max(iMax,1))*2;
+		m_Table = new int[iBuckets];
+		Arrays.fill(m_Table, -1);
+
+		//Largest sizes first, as those are most expensive to draw directly;
+		// and labels of the same size have similar heights, so pack well together
+		int[] order = sizes.clone();
+		Arrays.sort(order);
+		int n=0, x=0, y=0, shelf=0, width=0;
+		for (int s=order.length-1; s>=0; s--) {
+			final int iSize = order[s];
+			if (s<order.length-1 && order[s+1]==iSize) continue; //duplicate
+			for (String text : texts) {
+				if (text==null || text.length()==0) continue;
+				CDasherView.Point p = measurer.TextSize(text, iSize);
+				final int w = p.x+2*PAD, h = p.y+2*PAD;
+				if (w>iMaxWidth) continue;
+				if (x+w > iMaxWidth) {
+					//start a new shelf
+					y+=shelf; x=0; shelf=0;
+				}
+				if (y+h > iMaxHeight) continue; //doesn't fit; maybe a smaller label will
+				m_Texts[n]=text; m_Sizes[n]=iSize;
+				m_X[n]=x+PAD; m_Y[n]=y+PAD; m_W[n]=p.x; m_H[n]=p.y;
+				final int b = hash(text, iSize) & (iBuckets-1);
+				m_Chain[n]=m_Table[b];
+				m_Table[b]=n++;
+				x+=w;
+				shelf=Math.max(shelf,h);
+				width=Math.max(width,x);
+			}
+		}
+		m_iNumLabels=n;
+		m_iWidth=width;
+		m_iHeight=y+shelf;
+	}
+
+	/** Number of labels in the atlas */
+	public int getNumLabels() {return m_iNumLabels;}
+
+	/** Width of image needed to hold all the labels (at most the max width given at construction) */
+	public int getWidth() {return m_iWidth;}
+
+	/** Height of image needed to hold all the labels (at most the max height given at construction) */
+	public int getHeight() {return m_iHeight;}
+
+	/**
+	 * Finds the cell holding a label.
+	 * @return index of the label, from 0 to {@link #getNumLabels()}-1; or -1 if the
+	 * text is not in the atlas at that size
+	 */
+	public int find(String text, int iSize) {
+		for (int i=m_Table[hash(text, iSize) & (m_Table.length-1)]; i!=-1; i=m_Chain[i])
+			if (m_Sizes[i]==iSize && (m_Texts[i]==text || m_Texts[i].equals(text))) return i;
+		return -1;
+	}
+
+	public String getText(int i) {return m_Texts[i];}
+
+	public int getSize(int i) {return m_Sizes[i];}
+
+	/** X co-ordinate in the atlas of the left of the label's text bounds */
+	public int getX(int i) {return m_X[i];}
+
+	/** Y co-ordinate in the atlas of the top of the label's text bounds */
+	public int getY(int i) {return m_Y[i];}
+
+	/** Width of label's text bounds, as measured (excluding padding) */
+	public int getLabelWidth(int i) {return m_W[i];}
+
+	/** Height of label's text bounds, as measured (excluding padding) */
+	public int getLabelHeight(int i) {return m_H[i];}
+
+	private static int hash(String text, int iSize) {
+		int h = text.hashCode()*31 + iSize;
+		return h ^ (h>>>16);
+	}
+}
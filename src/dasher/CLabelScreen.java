@@ -0,0 +1,19 @@
+package dasher;
+
+/**
+ * A screen which can prepare in advance to draw the labels of nodes, e.g. by
+ * rasterising them into a {@link CLabelAtlas}, so that drawing each label in a
+ * frame is just a copy of pixels. The view tells such a screen which labels
+ * it expects to draw, whenever the alphabet, screen or font size changes.
+ */
+public interface CLabelScreen extends CDasherScreen {
+	/**
+	 * Informs the screen of the labels the view expects to draw: every text
+	 * at every size. Replaces any labels previously set. The screen must still
+	 * be able to draw any other string (or size) passed to DrawString.
+	 *
+	 * @param texts Display texts of the alphabet's symbols
+	 * @param sizes Font sizes at which the view draws labels
+	 */
+	public abstract void setLabels(String[] texts, int[] sizes);
+}
@@ -25,6 +25,9 @@
 
 package dasher;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -145,6 +148,45 @@ public abstract class CLanguageModel<C> extends CDasherComponent {
 		return false;
 	}
 
+	/////////////////////////////////////////////////////////////////////////////
+	// Persistence of learning
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Starts recording all that the model learns (from {@link #ContextLearningSymbol}
+	 * or {@link #ReadDelta}), as a delta which {@link #EndDelta} can write out,
+	 * and which can later be merged into a model trained identically up to this
+	 * point (e.g. from the same system training text), to recreate what was learnt
+	 * without having to learn it all again. The default does nothing.
+	 */
+	public void BeginDelta() {}
+
+	/**
+	 * Merges a delta written by {@link #EndDelta(OutputStream)} into this model
+	 * (as if the model had learnt again everything learnt to make it); also
+	 * records it, if {@link #BeginDelta()} has been called.
+	 * The default does nothing and returns false.
+	 * @param in stream from which to read the delta; not closed
+	 * @return true if the delta was merged; false if it could not be (e.g. was
+	 * written by a different model, or for a different alphabet)
+	 * @throws IOException if the stream could not be read (in which case part
+	 * of the delta may have been merged)
+	 */
+	public boolean ReadDelta(InputStream in) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Stops recording, and writes out everything learnt since {@link #BeginDelta()}.
+	 * The default does nothing and returns false.
+	 * @param out stream to which to write the delta; or null to discard it. Not closed.
+	 * @return true if a delta was written (possibly empty); false if not, as the
+	 * model does not support deltas.
+	 */
+	public boolean EndDelta(OutputStream out) throws IOException {
+		return false;
+	}
+
 	/////////////////////////////////////////////////////////////////////////////
 	// Prediction
 	/////////////////////////////////////////////////////////////////////////////
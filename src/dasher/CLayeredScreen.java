@@ -0,0 +1,155 @@
+package dasher;
+
+/**
+ * A {@link CMarkerScreen} which records the two layers of each frame - the
+ * nodes (persistent), and the decorations drawn by the input filter
+ * (ephemeral) - into separate display lists, and works out what has changed
+ * since the last frame. As the interface does not re-render the nodes of a
+ * CMarkerScreen unless the model has moved (or something forces a redraw),
+ * while Dasher is paused (e.g. at the start circle, or in a button mode)
+ * each frame normally redraws only the decorations; so a screen which keeps
+ * a raster of the node layer need recomposite only the area the decorations
+ * occupied, in this frame or the last (see {@link #getDamage()}), and when
+ * the decorations are the same as last frame, need do nothing at all.
+ * <p>
+ * Usage, per frame: {@link #beginFrame()}; NewFrame (drawing on this screen);
+ * {@link #endFrame()}, then present as indicated by its result. Primitives
+ * drawn without any marker (e.g. the message shown while training) are
+ * treated as a frame consisting entirely of nodes.
+ */
+public class CLayeredScreen implements CMarkerScreen {
+	/** What must be presented at the end of a frame */
+	public static enum Change {
+		/** Nothing: the screen should still show the last frame */
+		NONE,
+		/** Only the decorations, within the bounds returned by {@link CLayeredScreen#getDamage()} */
+		DECORATIONS,
+		/** The nodes (e.g. the model has moved) and so everything */
+		ALL
+	}
+
+	private final CDasherScreen m_Target;
+	private CDisplayList m_Nodes, m_Decorations, m_PrevDecorations, m_Unmarked;
+	/** List currently being drawn into */
+	private CDisplayList m_Current;
+	/** Whether the nodes were redrawn this frame */
+	private boolean m_bNodesDrawn;
+	/** Whether the layers must be presented in full at the end of the frame, e.g. after a change of colours */
+	private volatile boolean m_bInvalid = true;
+	private final int[] m_Damage = new int[4], m_Temp = new int[4];
+
+	/**
+	 * @param target screen to which queries (size of screen and of text) are
+	 * delegated, and whose colour scheme is set by {@link #SetColourScheme}
+	 */
+	public CLayeredScreen(CDasherScreen target) {
+		this.m_Target = target;
+		m_Nodes = new CDisplayList(target);
+		m_Decorations = new CDisplayList(target);
+		m_PrevDecorations = new CDisplayList(target);
+		m_Current = m_Unmarked = new CDisplayList(target);
+	}
+
+	/** Call before each frame, to start recording it */
+	public void beginFrame() {
+		CDisplayList t = m_PrevDecorations; m_PrevDecorations = m_Decorations; m_Decorations = t;
+		m_Decorations.clear();
+		m_Unmarked.clear();
+		m_Current = m_Unmarked;
+		m_bNodesDrawn = false;
+	}
+
+	/**
+	 * Call after each frame, to find out what has changed.
+	 * @return ALL if the node layer was redrawn (or {@link #invalidate()} called),
+	 * in which case the screen should redraw both layers in full; DECORATIONS if
+	 * only the decorations changed; NONE if nothing did.
+	 */
+	public Change endFrame() {
+		if (!m_Unmarked.isEmpty()) {
+			//frame drawn without markers: everything counts as nodes
+			CDisplayList t = m_Nodes; m_Nodes = m_Unmarked; m_Unmarked = t;
+			m_Decorations.clear();
+			m_bNodesDrawn = true;
+		}
+		m_Current = m_Unmarked;
+		if (m_bNodesDrawn || m_bInvalid) {
+			m_bInvalid = false;
+			return Change.ALL;
+		}
+		return m_Decorations.contentEquals(m_PrevDecorations) ? Change.NONE : Change.DECORATIONS;
+	}
+
+	/** Makes the next {@link #endFrame()} return ALL, e.g. because the node raster was lost. */
+	public void invalidate() {m_bInvalid = true;}
+
+	/** The node layer: as drawn in the most recent frame that redrew the nodes */
+	public CDisplayList getNodes() {return m_Nodes;}
+
+	/** The decorations drawn in the last frame */
+	public CDisplayList getDecorations() {return m_Decorations;}
+
+	/**
+	 * Area that must be recomposited when {@link #endFrame()} returns DECORATIONS:
+	 * the union of the bounds of this and the previous frame's decorations.
+	 * @return min x, min y, max x, max y (inclusive); valid until the next frame
+	 */
+	public int[] getDamage() {
+		final int[] d = m_Damage;
+		if (!m_Decorations.getBounds(d)) {
+			if (!m_PrevDecorations.getBounds(d)) d[0]=d[1]=d[2]=d[3]=0;
+		} else if (m_PrevDecorations.getBounds(m_Temp)) {
+			d[0]=Math.min(d[0],m_Temp[0]); d[1]=Math.min(d[1],m_Temp[1]);
+			d[2]=Math.max(d[2],m_Temp[2]); d[3]=Math.max(d[3],m_Temp[3]);
+		}
+		return d;
+	}
+
+	/** Starts recording the nodes (0) or the decorations (1) */
+	public void SendMarker(int iMarker) {
+		if (iMarker==0) {
+			m_Nodes.clear();
+			m_Current = m_Nodes;
+			m_bNodesDrawn = true;
+		} else {
+			m_Current = m_Decorations;
+		}
+	}
+
+	/** Does nothing: {@link #endFrame()} works out what needs presenting */
+	public void Display() {}
+
+	public void DrawRectangle(int x1, int y1, int x2, int y2, int iFillColour, int iOutlineColour, int iThickness) {
+		m_Current.DrawRectangle(x1, y1, x2, y2, iFillColour, iOutlineColour, iThickness);
+	}
+
+	public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {
+		m_Current.DrawCircle(iCX, iCY, iR, iFillColour, iLineColour, iLineWidth);
+	}
+
+	public void drawLine(int x0, int y0, int x1, int y1, int iWidth, int Colour) {
+		m_Current.drawLine(x0, y0, x1, y1, iWidth, Colour);
+	}
+
+	public void DrawString(String string, int x1, int y1, int Size) {
+		m_Current.DrawString(string, x1, y1, Size);
+	}
+
+	public void Polygon(CDasherView.Point[] Points, int fillColour, int iOutlineColour, int iWidth) {
+		m_Current.Polygon(Points, fillColour, iOutlineColour, iWidth);
+	}
+
+	public int GetWidth() {return m_Target.GetWidth();}
+
+	public int GetHeight() {return m_Target.GetHeight();}
+
+	public CDasherView.Point TextSize(String string, int Size) {
+		return m_Target.TextSize(string, Size);
+	}
+
+	/** Passes the scheme to the target, and makes the next frame be presented in full */
+	public void SetColourScheme(CCustomColours ColourScheme) {
+		m_Target.SetColourScheme(ColourScheme);
+		invalidate();
+	}
+}
@@ -0,0 +1,146 @@
+package dasher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps track of all the {@link CDasherNode} objects belonging to a single
+ * {@link CDasherInterfaceBase}, and recycles them. Each node manager (alphabet,
+ * control, ...) obtains a typed {@link Pool} for every class of node it creates;
+ * pools with the same name share a single {@link Stats} record, so counts carry
+ * on across managers being replaced (e.g. on alphabet change).
+ * <p>
+ * The number of live nodes ({@link #numLiveNodes()}) is what the
+ * {@link ExpansionPolicy} budgets against, so that two interfaces in the same
+ * process (or a headless one running alongside a real one) don't share a budget.
+ * <p>
+ * Each pool retains at most a quarter of LP_NODE_BUDGET free nodes (its high-water
+ * mark); nodes recycled beyond that are dropped for the GC to collect.
+ */
+public class CNodeArena extends CDasherComponent {
+	/** Lower bound on the high-water mark, whatever the node budget */
+	private static final int MIN_HIGH_WATER = 64;
+
+	/** Counters for one type of node, aggregated over all pools of that type. */
+	public static final class Stats {
+		public final String name;
+		private int live, free, allocated, discarded;
+		private Stats(String name) {this.name=name;}
+		/** Number of nodes currently in use (initialized and not yet deleted) */
+		public int getLive() {return live;}
+		/** Number of nodes sitting in free lists awaiting reuse */
+		public int getFree() {return free;}
+		/** Total number of node objects ever constructed */
+		public int getAllocated() {return allocated;}
+		/** Number of deleted nodes not retained for reuse (pool full or closed) */
+		public int getDiscarded() {return discarded;}
+		@Override public String toString() {
+			return name+": "+live+" live, "+free+" free, "+allocated+" allocated, "+discarded+" discarded";
+		}
+	}
+
+	private final List<Stats> m_Stats = new ArrayList<Stats>();
+	private int m_iLive;
+	/** Cumulative counts of nodes handed out by, and returned to, all our pools */
+	private int m_iNumAllocs, m_iNumRecycles;
+	private int m_iHighWater;
+
+	public CNodeArena(CDasherComponent creator) {
+		super(creator);
+		ListenFor(Elp_parameters.LP_NODE_BUDGET);
+		HandleEvent(Elp_parameters.LP_NODE_BUDGET);
+	}
+
+	@Override public void HandleEvent(EParameters eParam) {
+		if (eParam == Elp_parameters.LP_NODE_BUDGET)
+			m_iHighWater = Math.max(MIN_HIGH_WATER, (int)(GetLongParameter(Elp_parameters.LP_NODE_BUDGET)/4));
+	}
+
+	/** Total number of nodes, of all types, currently in use by this interface */
+	public int numLiveNodes() {return m_iLive;}
+	
+	/** Total number of nodes (new or reused) handed out since construction,
+	 * i.e. number of nodes created by expansion of their parents (or as roots) */
+	public int numAllocs() {return m_iNumAllocs;}
+	
+	/** Total number of nodes deleted (by collapsing, or pruning of the tree) */
+	public int numRecycles() {return m_iNumRecycles;}
+
+	/**
+	 * Adds the counters for each type of node seen so far to the supplied collection.
+	 * (The objects are live, i.e. will continue to be updated.)
+	 */
+	public void GetStats(Collection<? super Stats> into) {
+		into.addAll(m_Stats);
+	}
+
+	private Stats statsFor(String name) {
+		for (int i=0; i<m_Stats.size(); i++)
+			if (m_Stats.get(i).name.equals(name)) return m_Stats.get(i);
+		Stats s = new Stats(name);
+		m_Stats.add(s);
+		return s;
+	}
+
+	/**
+	 * Free list for a single class of node. Subclasses (typically anonymous, inside
+	 * the node manager) implement {@link #make()} to construct a fresh node when
+	 * the free list is empty.
+	 * @param <T> class of node stored
+	 */
+	public abstract class Pool<T extends CDasherNode> {
+		private final Stats stats;
+		private final ArrayList<T> free = new ArrayList<T>();
+		private boolean bClosed;
+
+		protected Pool(String name) {
+			this.stats = statsFor(name);
+		}
+
+		/** Construct a new (uninitialized) node object */
+		protected abstract T make();
+
+		/**
+		 * Get a node object, reusing a previously-recycled one if possible.
+		 * The caller should then call an appropriate initNode method.
+		 */
+		public T alloc() {
+			T node;
+			if (free.isEmpty()) {
+				node = make();
+				stats.allocated++;
+			} else {
+				node = free.remove(free.size()-1);
+				stats.free--;
+			}
+			stats.live++; m_iLive++; m_iNumAllocs++;
+			return node;
+		}
+
+		/**
+		 * Return a node to the pool; to be called from the node's
+		 * {@link CDasherNode#DeleteNode()}, after it has cleared its own state.
+		 */
+		public void recycle(T node) {
+			stats.live--; m_iLive--; m_iNumRecycles++;
+			if (bClosed || free.size()>=m_iHighWater) {
+				stats.discarded++;
+			} else {
+				free.add(node);
+				stats.free++;
+			}
+		}
+
+		/** Drops all free nodes, and stops retaining any subsequently recycled.
+		 * Call when the owning manager is no longer in use (so its nodes can
+		 * never be reused).
+		 */
+		public void close() {
+			bClosed=true;
+			stats.free-=free.size();
+			stats.discarded+=free.size();
+			free.clear();
+		}
+	}
+}
@@ -56,6 +56,12 @@ public class CNodeCreationManager extends CDasherComponent {
 	
 	public String getDefaultColourScheme() {return m_cAlphabet.GetPalette();}
 	
+	/** Number of calls to {@link #GetProbs(CLanguageModel, Object)} - i.e. queries
+	 * of the language model - made since this NCManager was created. */
+	private int m_iNumProbCalls;
+	
+	public int getNumProbCalls() {return m_iNumProbCalls;}
+	
 	/**
 	 * Gets a probability distribution for a context and language model. Detailed
 	 * predictions of characters are performed by {@link CLanguageModel#GetProbs(Object, long[], long)},
@@ -70,6 +76,7 @@ public class CNodeCreationManager extends CDasherComponent {
 	 *  
 	 */
 	public <C> long[] GetProbs(CLanguageModel<C> model, C context) {
+		m_iNumProbCalls++;
 		long[] probs;
 		if (freeArrayList.isEmpty())
 			probs = new long[m_cAlphabet.GetNumberSymbols()+(m_ControlManager==null ? 1 : 2)];
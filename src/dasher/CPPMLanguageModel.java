@@ -26,8 +26,16 @@
 
 package dasher;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Subclass of LanguageModel which implements Prediction by
@@ -50,6 +58,13 @@ public class CPPMLanguageModel extends CLanguageModel<CPPMLanguageModel.CPPMnode
 	private long lpAlpha;
 	private long lpBeta;
 
+	/** Increment to the count of each node learnt since {@link #BeginDelta()}; null if not recording */
+	private Map<CPPMnode,int[]> m_Delta;
+	
+	/** Identifies the format of deltas: "PPMD" */
+	private static final int DELTA_MAGIC = 0x50504D44;
+	private static final int DELTA_VERSION = 2;
+
 	/**
 	 * Node in PPM's prediction trie.
 	 * 
@@ -97,6 +112,7 @@ public class CPPMLanguageModel extends CLanguageModel<CPPMLanguageModel.CPPMnode
 	public CPPMLanguageModel(CDasherComponent creator, CAlphIO.AlphInfo alph) {
 
 		super(creator, alph); // Constructor of CLanguageModel
+		ListenFor(Elp_parameters.LP_LM_ALPHA, Elp_parameters.LP_LM_BETA);
 
 		m_Root = new CPPMnode(-1,null); // m_NodeAlloc.Alloc();
 		
@@ -193,11 +209,13 @@ public class CPPMLanguageModel extends CLanguageModel<CPPMLanguageModel.CPPMnode
 
 		if(child != null) {
 			child.count++;
+			if (m_Delta!=null) record(child,1);
 			if(!bUpdateExclusion) {
 				//update lower-order contexts - which are guaranteed to exist if the higher one does
 				for (CPPMnode v = child.vine; v != null; v = v.vine) {
 					assert (v==m_Root || v.symbol == sym);
 					v.count++;
+					if (m_Delta!=null) record(v,1);
 				}
 			}
 		} else {
@@ -205,6 +223,7 @@ public class CPPMLanguageModel extends CLanguageModel<CPPMLanguageModel.CPPMnode
 			// (recursion will continue until it is found, and further if not doing update exclusion)
 			child = new CPPMnode(sym, ctx, // count is initialized to 1
 							(ctx==m_Root) ? m_Root : AddSymbol(ctx.vine, sym));
+			if (m_Delta!=null) record(child,1);
 		}
 		
 		return child;
@@ -223,9 +242,142 @@ public class CPPMLanguageModel extends CLanguageModel<CPPMLanguageModel.CPPMnode
 		// and then let it be GC'd (or count reincremented first)?
 		if (ch.count<=1) return false;
 		ch.count--;
+		if (m_Delta!=null) record(ch,-1);
+		return true;
+	}
+	
+	/** Adds to the increment recorded for a node (other than the root, whose count is never used) */
+	private void record(CPPMnode node, int iDelta) {
+		if (node==m_Root) return;
+		int[] d = m_Delta.get(node);
+		if (d==null) m_Delta.put(node, new int[] {iDelta});
+		else d[0]+=iDelta;
+	}
+	
+	@Override
+	public void BeginDelta() {
+		m_Delta = new IdentityHashMap<CPPMnode,int[]>();
+	}
+	
+	/**
+	 * Writes the recorded increments as a tree of varints: header (magic,
+	 * version, number of symbols, {@link CAlphIO.AlphInfo#GetSymbolsHash() hash}
+	 * of the symbols), then for each node from the root, the number
+	 * of its children to follow, and for each child, its symbol, increment
+	 * (zigzag-encoded), and the same for its own children. Only nodes with
+	 * increments, and their ancestors, are included.
+	 */
+	@Override
+	public boolean EndDelta(OutputStream out) throws IOException {
+		final Map<CPPMnode,int[]> delta = m_Delta;
+		m_Delta = null;
+		if (out==null) return true;
+		if (delta==null) throw new IllegalStateException("BeginDelta not called");
+		//find ancestors of all nodes with increments (nodes don't point to their parents)
+		Map<CPPMnode,int[]> keep = new IdentityHashMap<CPPMnode,int[]>(delta);
+		markAncestors(m_Root, new CPPMnode[m_iMaxOrder+2], 0, delta, keep);
+		DataOutputStream d = new DataOutputStream(out);
+		d.writeInt(DELTA_MAGIC);
+		writeVar(d, DELTA_VERSION);
+		writeVar(d, m_Alphabet.GetNumberSymbols());
+		d.writeInt(m_Alphabet.GetSymbolsHash());
+		writeChildren(d, m_Root, keep);
+		d.flush();
 		return true;
 	}
 	
+	private static final int[] ZERO = new int[1];
+	
+	/** Adds to keep every node on the path (from the root) to any node in delta */
+	private void markAncestors(CPPMnode node, CPPMnode[] path, int iDepth, Map<CPPMnode,int[]> delta, Map<CPPMnode,int[]> keep) {
+		if (delta.containsKey(node))
+			for (int i=1; i<iDepth; i++)
+				if (!keep.containsKey(path[i])) keep.put(path[i], ZERO);
+		if (iDepth==path.length) return;
+		path[iDepth] = node;
+		for (CPPMnode ch = node.child; ch!=null; ch=ch.next)
+			markAncestors(ch, path, iDepth+1, delta, keep);
+	}
+	
+	private void writeChildren(DataOutputStream d, CPPMnode node, Map<CPPMnode,int[]> keep) throws IOException {
+		int n=0;
+		for (CPPMnode ch = node.child; ch!=null; ch=ch.next)
+			if (keep.containsKey(ch)) n++;
+		writeVar(d, n);
+		for (CPPMnode ch = node.child; ch!=null; ch=ch.next) {
+			int[] inc = keep.get(ch);
+			if (inc==null) continue;
+			writeVar(d, ch.symbol);
+			writeVar(d, (inc[0] << 1) ^ (inc[0] >> 31));
+			writeChildren(d, ch, keep);
+		}
+	}
+	
+	/**
+	 * Adds the increments to the counts of the corresponding nodes, creating
+	 * any which do not exist (with vines, and lower-order nodes, as learning
+	 * would). Nodes deeper than the current maximum order permits are skipped.
+	 * Deltas for any other alphabet (i.e. without the same symbols, in the same
+	 * order) are rejected.
+	 */
+	@Override
+	public boolean ReadDelta(InputStream in) throws IOException {
+		DataInputStream d = new DataInputStream(in);
+		if (d.readInt()!=DELTA_MAGIC || readVar(d)!=DELTA_VERSION
+				|| readVar(d)!=m_Alphabet.GetNumberSymbols()
+				|| d.readInt()!=m_Alphabet.GetSymbolsHash()) return false;
+		List<CPPMnode> created = new ArrayList<CPPMnode>();
+		try {
+			readChildren(d, m_Root, 0, created);
+		} finally {
+			//nodes created only to hold up others (if the system text has changed
+			// since the delta was recorded) must still have a positive count
+			for (CPPMnode n : created) if (n.count<=0) n.count=1;
+		}
+		return true;
+	}
+	
+	private void readChildren(DataInputStream d, CPPMnode node, int iDepth, List<CPPMnode> created) throws IOException {
+		for (int n=readVar(d); n>0; n--) {
+			final int sym = readVar(d), z = readVar(d), inc = (z >>> 1) ^ -(z & 1);
+			if (sym<0 || sym>=m_Alphabet.GetNumberSymbols()) throw new IOException("Bad symbol "+sym+" in delta");
+			if (node==null || iDepth>m_iMaxOrder) {
+				readChildren(d, null, iDepth+1, created); //skip
+				continue;
+			}
+			CPPMnode ch = findOrCreate(node, sym, created);
+			ch.count = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, ch.count+inc));
+			if (m_Delta!=null && inc!=0) record(ch, inc);
+			readChildren(d, ch, iDepth+1, created);
+		}
+	}
+	
+	/** Finds the child of a node with a symbol, creating it (and its vine) with count 0 if necessary */
+	private CPPMnode findOrCreate(CPPMnode parent, int sym, List<CPPMnode> created) {
+		CPPMnode ch = parent.find_symbol(sym);
+		if (ch==null) {
+			ch = new CPPMnode(sym, parent, (parent==m_Root) ? m_Root : findOrCreate(parent.vine, sym, created));
+			ch.count=0;
+			created.add(ch);
+		}
+		return ch;
+	}
+	
+	private static void writeVar(DataOutputStream d, int i) throws IOException {
+		for (; (i & ~0x7F)!=0; i>>>=7) d.writeByte((i & 0x7F) | 0x80);
+		d.writeByte(i);
+	}
+	
+	private static int readVar(DataInputStream d) throws IOException {
+		int i=0;
+		for (int shift=0; shift<32; shift+=7) {
+			final int b = d.readUnsignedByte();
+			i |= (b & 0x7F) << shift;
+			if ((b & 0x80)==0) return i;
+		}
+		throw new IOException("Bad varint in delta");
+	}
+	
 	@Override
 	public CPPMnode ContextWithSymbol(CPPMnode ctx, int Symbol) {
 		assert(Symbol >= 0 && Symbol < m_Alphabet.GetNumberSymbols());
@@ -0,0 +1,202 @@
+package dasher;
+
+/**
+ * A CDasherScreen which collects the rectangles drawn on it, in z-order, into
+ * batches which the real screen can draw with one call each (e.g. as a single
+ * path), such that drawing the batches in turn gives the same result as
+ * drawing the rectangles in the order they were drawn. A batch holds either
+ * fills of a single colour, or outlines of a single colour and thickness. A
+ * rectangle joins the latest pending batch for its paint only if it does not
+ * overlap any rectangle in a batch started after that one (which would
+ * otherwise be drawn on top of it); if it would, it starts a new batch. So
+ * e.g. nodes at the same depth in the tree, which do not overlap, are batched
+ * by colour, whereas a child is always drawn after its parent.
+ * <p>
+ * Rectangles are taken to cover the pixels from (x1,y1) inclusive to (x2,y2)
+ * exclusive, so rectangles which merely touch do not overlap; outlines, to
+ * extend by their thickness outside that. Colours are assumed opaque, so the
+ * order of rectangles within a batch does not matter. Other primitives flush
+ * all pending batches, and are then passed straight to the target screen, as
+ * are queries. Not thread-safe.
+ */
+public class CRectBatcher implements CDasherScreen {
+	/** Draws each batch, when flushed */
+	public static interface Sink {
+		/**
+		 * Draw a batch of rectangles.
+		 * @param iColour colour index, in the current colour scheme
+		 * @param iThickness 0 to fill the rectangles; else, width of line with which to outline them
+		 * @param rects co-ordinates of rectangles, four (left, top, right, bottom) per rectangle;
+		 * only valid for the duration of the call
+		 * @param iCount number of rectangles
+		 */
+		public void drawRects(int iColour, int iThickness, int[] rects, int iCount);
+	}
+
+	private final CDasherScreen m_Target;
+	private final Sink m_Sink;
+
+	/**
+	 * Pending rectangles, in the order added: four co-ordinates each, normalized
+	 * so left<=right and top<=bottom, and enlarged by the outset
+	 */
+	private int[] m_Rects = new int[256];
+	/** Batch to which each pending rectangle belongs, and its outset */
+	private int[] m_RectBatch = new int[64], m_RectOutset = new int[64];
+	private int m_iNumRects;
+
+	/** Key and bounds (four co-ordinates) of each pending batch, in the order they were started */
+	private int[] m_BatchKeys = new int[16], m_BatchBounds = new int[64];
+	private int m_iNumBatches;
+
+	/** Co-ordinates of the rectangles in a single batch, passed to the sink */
+	private int[] m_Scratch = new int[256];
+
+	private int m_iTotalRects, m_iTotalBatches;
+
+	/**
+	 * @param target screen onto which to draw primitives other than rectangles,
+	 * and to which queries are delegated
+	 * @param sink draws batches of rectangles
+	 */
+	public CRectBatcher(CDasherScreen target, Sink sink) {
+		this.m_Target = target;
+		this.m_Sink = sink;
+	}
+
+	/**
+	 * Colour index drawn for an outline requested with colour -1 (the colour
+	 * scheme's default outline); also used for this by the screens, e.g. DasherCanvas.
+	 */
+	public static final int DEFAULT_OUTLINE_COLOUR = 3;
+
+	/** Adds the fill and/or outline to the pending batches. */
+	public void DrawRectangle(int x1, int y1, int x2, int y2, int iFillColour, int iOutlineColour, int iThickness) {
+		if (iFillColour!=-1) add(iFillColour, x1, y1, x2, y2, 0);
+		if (iThickness>0) {
+			if (iOutlineColour==-1) iOutlineColour = DEFAULT_OUTLINE_COLOUR;
+			add((iThickness<<16) | iOutlineColour, x1, y1, x2, y2, iThickness);
+		}
+	}
+
+	/**
+	 * Adds a rectangle to the latest pending batch for its paint, or a new
+	 * batch if it cannot be drawn at that point. The co-ordinates may be given
+	 * in either order.
+	 * @param iKey identifies the paint: colour index, plus thickness of outline (0 for fill) in the top 16 bits
+	 * @param iOutset distance by which whatever is drawn may extend outside
+	 * the rectangle (i.e. for an outline), for the purpose of detecting overlaps
+	 */
+	private void add(int iKey, int x1, int y1, int x2, int y2, int iOutset) {
+		final int l = Math.min(x1,x2)-iOutset, t = Math.min(y1,y2)-iOutset,
+			r = Math.max(x1,x2)+iOutset, b = Math.max(y1,y2)+iOutset;
+		int iBatch = m_iNumBatches-1;
+		while (iBatch>=0 && m_BatchKeys[iBatch]!=iKey) iBatch--;
+		if (iBatch==-1 || overlapsLater(iBatch, l, t, r, b)) {
+			iBatch = m_iNumBatches++;
+			if (iBatch==m_BatchKeys.length) {
+				m_BatchKeys = grow(m_BatchKeys);
+				m_BatchBounds = grow(m_BatchBounds);
+			}
+			m_BatchKeys[iBatch] = iKey;
+			final int[] bb = m_BatchBounds;
+			bb[4*iBatch]=l; bb[4*iBatch+1]=t; bb[4*iBatch+2]=r; bb[4*iBatch+3]=b;
+		} else {
+			final int[] bb = m_BatchBounds;
+			bb[4*iBatch]=Math.min(bb[4*iBatch],l); bb[4*iBatch+1]=Math.min(bb[4*iBatch+1],t);
+			bb[4*iBatch+2]=Math.max(bb[4*iBatch+2],r); bb[4*iBatch+3]=Math.max(bb[4*iBatch+3],b);
+		}
+		if (m_iNumRects==m_RectBatch.length) {
+			m_RectBatch = grow(m_RectBatch);
+			m_RectOutset = grow(m_RectOutset);
+			m_Rects = grow(m_Rects);
+		}
+		final int[] rs = m_Rects; final int i = 4*m_iNumRects;
+		rs[i]=l; rs[i+1]=t; rs[i+2]=r; rs[i+3]=b;
+		m_RectOutset[m_iNumRects] = iOutset;
+		m_RectBatch[m_iNumRects++] = iBatch;
+	}
+
+	/**
+	 * Draws all pending batches, in the order they were started. Call at the
+	 * end of the frame (or before drawing on the target other than through
+	 * this screen).
+	 */
+	public void flush() {
+		for (int iBatch=0; iBatch<m_iNumBatches; iBatch++) {
+			int n=0;
+			for (int i=0; i<m_iNumRects; i++) {
+				if (m_RectBatch[i]!=iBatch) continue;
+				if (4*n==m_Scratch.length) m_Scratch = grow(m_Scratch);
+				final int o = m_RectOutset[i];
+				m_Scratch[4*n]=m_Rects[4*i]+o; m_Scratch[4*n+1]=m_Rects[4*i+1]+o;
+				m_Scratch[4*n+2]=m_Rects[4*i+2]-o; m_Scratch[4*n+3]=m_Rects[4*i+3]-o;
+				n++;
+			}
+			m_Sink.drawRects(m_BatchKeys[iBatch] & 0xFFFF, m_BatchKeys[iBatch] >>> 16, m_Scratch, n);
+		}
+		m_iTotalRects += m_iNumRects;
+		m_iTotalBatches += m_iNumBatches;
+		m_iNumRects = m_iNumBatches = 0;
+	}
+
+	/** Number of rectangles drawn (i.e. flushed) so far */
+	public int getNumRects() {return m_iTotalRects;}
+
+	/** Number of batches drawn so far, i.e. calls to the sink */
+	public int getNumBatches() {return m_iTotalBatches;}
+
+	/** Whether the specified area overlaps any pending rectangle in a batch started after the specified one */
+	private boolean overlapsLater(int iBatch, int l, int t, int r, int b) {
+		final int[] bb = m_BatchBounds;
+		boolean bAny = false;
+		for (int j=iBatch+1; j<m_iNumBatches && !bAny; j++)
+			bAny = l<bb[4*j+2] && bb[4*j]<r && t<bb[4*j+3] && bb[4*j+1]<b;
+		if (!bAny) return false;
+		//bounds overlap, so check the rectangles themselves
+		final int[] rs = m_Rects;
+		for (int i=0; i<m_iNumRects; i++)
+			if (m_RectBatch[i]>iBatch && l<rs[4*i+2] && rs[4*i]<r && t<rs[4*i+3] && rs[4*i+1]<b)
+				return true;
+		return false;
+	}
+
+	public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {
+		flush();
+		m_Target.DrawCircle(iCX, iCY, iR, iFillColour, iLineColour, iLineWidth);
+	}
+
+	public void drawLine(int x0, int y0, int x1, int y1, int iWidth, int Colour) {
+		flush();
+		m_Target.drawLine(x0, y0, x1, y1, iWidth, Colour);
+	}
+
+	public void DrawString(String string, int x1, int y1, int Size) {
+		flush();
+		m_Target.DrawString(string, x1, y1, Size);
+	}
+
+	public void Polygon(CDasherView.Point[] Points, int fillColour, int iOutlineColour, int iWidth) {
+		flush();
+		m_Target.Polygon(Points, fillColour, iOutlineColour, iWidth);
+	}
+
+	public int GetWidth() {return m_Target.GetWidth();}
+
+	public int GetHeight() {return m_Target.GetHeight();}
+
+	public CDasherView.Point TextSize(String string, int Size) {
+		return m_Target.TextSize(string, Size);
+	}
+
+	public void SetColourScheme(CCustomColours ColourScheme) {
+		flush();
+		m_Target.SetColourScheme(ColourScheme);
+	}
+
+	private static int[] grow(int[] a) {
+		int[] n = new int[a.length*2];
+		System.arraycopy(a, 0, n, 0, a.length);
+		return n;
+	}
+}
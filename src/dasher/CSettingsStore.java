@@ -51,6 +51,70 @@ public class CSettingsStore extends Observable<EParameters> {
 	private final long[] longParamValues = new long[Elp_parameters.values().length];
 	private final String[] stringParamValues = new String[Esp_parameters.values().length];
 	
+	/** Depth of nesting of {@link #BeginChanges()} calls, by {@link #m_BatchThread} */
+	private int m_iChangeDepth;
+	/** Thread which began the current batch of changes, whose events are deferred until its end;
+	 * null if none. Events raised on other threads (e.g. preference changes made by the UI)
+	 * are not part of the batch, and so are delivered as normal. */
+	private volatile Thread m_BatchThread;
+	/** Values of every parameter (as returned by the getters) at the outermost BeginChanges */
+	private final boolean[] boolSnapshot = new boolean[boolParamValues.length];
+	private final long[] longSnapshot = new long[longParamValues.length];
+	private final String[] stringSnapshot = new String[stringParamValues.length];
+	
+	/**
+	 * Starts a batch of changes: until the matching {@link #EndChanges()},
+	 * parameters may be set (or their values otherwise changed, e.g. by a subclass
+	 * overriding them) by this thread without notifying any observers. Batches
+	 * may be nested, but only one thread may have a batch open at a time.
+	 * @throws IllegalStateException if another thread is within a batch
+	 */
+	public void BeginChanges() {
+		final Thread t = Thread.currentThread();
+		if (m_BatchThread!=null && m_BatchThread!=t)
+			throw new IllegalStateException("BeginChanges while another thread's batch is open");
+		if (m_iChangeDepth++>0) return;
+		m_BatchThread = t;
+		Ebp_parameters[] bps = Ebp_parameters.values();
+		for (int i=0; i<bps.length; i++) boolSnapshot[i] = GetBoolParameter(bps[i]);
+		Elp_parameters[] lps = Elp_parameters.values();
+		for (int i=0; i<lps.length; i++) longSnapshot[i] = GetLongParameter(lps[i]);
+		Esp_parameters[] sps = Esp_parameters.values();
+		for (int i=0; i<sps.length; i++) stringSnapshot[i] = GetStringParameter(sps[i]);
+	}
+	
+	/**
+	 * Ends a batch of changes. At the end of the outermost batch, notifies
+	 * observers, once each, of every parameter whose value is now different
+	 * from when the batch began (not of those set and then set back).
+	 */
+	public void EndChanges() {
+		if (m_BatchThread!=Thread.currentThread()) throw new IllegalStateException("EndChanges without BeginChanges");
+		if (--m_iChangeDepth>0) return;
+		//find all the changes before notifying any (observers may start another batch)
+		Ebp_parameters[] bps = Ebp_parameters.values();
+		Elp_parameters[] lps = Elp_parameters.values();
+		Esp_parameters[] sps = Esp_parameters.values();
+		EParameters[] changed = new EParameters[bps.length+lps.length+sps.length];
+		int n=0;
+		for (int i=0; i<bps.length; i++)
+			if (boolSnapshot[i] != GetBoolParameter(bps[i])) changed[n++]=bps[i];
+		for (int i=0; i<lps.length; i++)
+			if (longSnapshot[i] != GetLongParameter(lps[i])) changed[n++]=lps[i];
+		for (int i=0; i<sps.length; i++) {
+			if (!stringSnapshot[i].equals(GetStringParameter(sps[i]))) changed[n++]=sps[i];
+			stringSnapshot[i] = null;
+		}
+		m_BatchThread = null;
+		for (int i=0; i<n; i++) InsertEvent(changed[i]);
+	}
+	
+	/** Notifies observers of a change to a parameter, unless this thread is within a batch
+	 * of changes (which will notify them at its end, if the value is then still different). */
+	@Override protected void InsertEvent(EParameters evt) {
+		if (m_BatchThread!=Thread.currentThread()) super.InsertEvent(evt);
+	}
+	
 	/**
 	 * Loads persistent settings by means of the LoadSetting function.
 	 * <p>
@@ -295,5 +359,13 @@ public class CSettingsStore extends Observable<EParameters> {
 	 */
 	protected void SaveSetting(String Key, String Value) {
 	}
+	
+	/**
+	 * Writes out any settings saved (by the SaveSetting methods) but not yet
+	 * written to the backing store, e.g. because a subclass defers and coalesces
+	 * writes; called when Dasher shuts down. In this base class, does nothing.
+	 */
+	public void Flush() {
+	}
 
 }
@@ -0,0 +1,179 @@
+package dasher;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Process-wide recorder of timed spans (e.g. stages of a frame, blocks of
+ * training, IPC calls), for viewing as a timeline of all threads in any
+ * viewer of the Chrome Trace Event format (e.g. chrome://tracing or Perfetto).
+ * Usage:
+ * <pre>
+ *   long t = CSpanTracer.begin();
+ *   ...
+ *   t = CSpanTracer.end("First stage", t); //returns start of next stage
+ *   ...
+ *   CSpanTracer.end("Second stage", t);
+ * </pre>
+ * Each thread records into its own fixed-size ring buffer (so only the most
+ * recent {@link #SPANS_PER_THREAD} spans are kept), so there is no contention
+ * between threads, and no allocation once a thread's buffer exists. While
+ * disabled, {@link #begin()} and {@link #end(String, long)} just read a volatile
+ * flag. Span names should be constants, as only the reference is stored.
+ */
+public class CSpanTracer {
+	/** Capacity of each thread's ring buffer */
+	public static final int SPANS_PER_THREAD = 8192;
+
+	/**
+	 * Max number of buffers to keep for threads which have exited (e.g. a
+	 * training thread is started for each alphabet); beyond this, the buffers
+	 * of the threads first registered are discarded.
+	 */
+	private static final int MAX_DEAD_THREADS = 8;
+
+	private static volatile boolean s_bEnabled;
+
+	/** Buffers of all threads which have recorded spans; synchronize on list to access */
+	private static final List<Buffer> s_Buffers = new ArrayList<Buffer>();
+
+	private static final ThreadLocal<Buffer> s_Local = new ThreadLocal<Buffer>() {
+		@Override protected Buffer initialValue() {
+			Buffer b = new Buffer(Thread.currentThread());
+			synchronized(s_Buffers) {
+				int iDead=0;
+				for (Buffer o : s_Buffers) if (o.isDead()) iDead++;
+				for (Iterator<Buffer> it=s_Buffers.iterator(); iDead>=MAX_DEAD_THREADS && it.hasNext();)
+					if (it.next().isDead()) {it.remove(); iDead--;}
+				s_Buffers.add(b);
+			}
+			return b;
+		}
+	};
+
+	/** Time origin for exported timestamps */
+	private static final long s_lEpoch = System.nanoTime();
+
+	private CSpanTracer() {}
+
+	private static class Buffer {
+		private final WeakReference<Thread> m_Thread;
+		private final String m_strThreadName;
+		private final long m_iThreadId;
+		private final String[] m_Names = new String[SPANS_PER_THREAD];
+		private final long[] m_Starts = new long[SPANS_PER_THREAD], m_Ends = new long[SPANS_PER_THREAD];
+		/** Total spans ever recorded; next is written at index m_iCount % SPANS_PER_THREAD */
+		private long m_iCount;
+
+		Buffer(Thread t) {
+			m_Thread = new WeakReference<Thread>(t);
+			m_strThreadName = t.getName();
+			m_iThreadId = t.getId();
+		}
+
+		boolean isDead() {
+			Thread t = m_Thread.get();
+			return t==null || !t.isAlive();
+		}
+
+		synchronized void add(String name, long lStart, long lEnd) {
+			final int i = (int)(m_iCount++ % SPANS_PER_THREAD);
+			m_Names[i]=name; m_Starts[i]=lStart; m_Ends[i]=lEnd;
+		}
+
+		synchronized void clear() {
+			m_iCount=0;
+			Arrays.fill(m_Names, null);
+		}
+
+		/** Write (each preceded by a comma) the thread's name, then an event for each span retained */
+		synchronized void write(Writer out) throws IOException {
+			final long n = Math.min(m_iCount, SPANS_PER_THREAD);
+			out.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":"+m_iThreadId+",\"args\":{\"name\":");
+			writeString(out, m_strThreadName);
+			out.write("}}");
+			for (long c=m_iCount-n; c<m_iCount; c++) {
+				final int i = (int)(c % SPANS_PER_THREAD);
+				out.write(",\n{\"name\":");
+				writeString(out, m_Names[i]);
+				out.write(",\"cat\":\"dasher\",\"ph\":\"X\",\"pid\":1,\"tid\":"+m_iThreadId
+						+",\"ts\":"+micros(m_Starts[i]-s_lEpoch)+",\"dur\":"+micros(m_Ends[i]-m_Starts[i])+"}");
+			}
+		}
+	}
+
+	/** Start or stop recording spans. Spans already recorded are kept. */
+	public static void setEnabled(boolean bEnabled) {
+		s_bEnabled = bEnabled;
+	}
+
+	public static boolean isEnabled() {return s_bEnabled;}
+
+	/**
+	 * Start a span.
+	 * @return the current time, to pass to {@link #end(String, long)}; or
+	 * 0 if not recording
+	 */
+	public static long begin() {
+		return s_bEnabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Finish a span, recording it (if recording was enabled when it began).
+	 * @param name name of span; should be a constant
+	 * @param lStart value returned by {@link #begin()}, or a previous call to this method
+	 * @return the current time, i.e. usable as the start of a following span;
+	 * or 0 if not recording
+	 */
+	public static long end(String name, long lStart) {
+		if (!s_bEnabled) return 0;
+		final long now = System.nanoTime();
+		if (lStart!=0) s_Local.get().add(name, lStart, now);
+		return now;
+	}
+
+	/** Discard all spans recorded so far, by all threads */
+	public static void clear() {
+		synchronized(s_Buffers) {
+			for (Buffer b : s_Buffers) b.clear();
+		}
+	}
+
+	/**
+	 * Write all spans retained (for all threads) as a JSON object in Chrome
+	 * Trace Event format, with timestamps in microseconds since this class was loaded.
+	 */
+	public static void writeChromeTrace(Writer out) throws IOException {
+		out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+		out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"Dasher\"}}");
+		List<Buffer> bufs;
+		synchronized(s_Buffers) {
+			bufs = new ArrayList<Buffer>(s_Buffers);
+		}
+		for (Buffer b : bufs) b.write(out);
+		out.write("\n]}\n");
+		out.flush();
+	}
+
+	private static String micros(long ns) {
+		//three decimal places, without going through floating-point
+		final long us = ns/1000, frac = Math.abs(ns%1000);
+		return (ns<0 && us==0 ? "-" : "") + us + "." + (frac<10 ? "00" : frac<100 ? "0" : "") + frac;
+	}
+
+	private static void writeString(Writer out, String s) throws IOException {
+		out.write('"');
+		for (int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if (c=='"' || c=='\\') {out.write('\\'); out.write(c);}
+			else if (c<0x20) out.write(String.format("\\u%04x", (int)c));
+			else out.write(c);
+		}
+		out.write('"');
+	}
+}
@@ -18,6 +18,7 @@ public class CStylusFilter extends CDefaultFilter {
 
     protected CStylusFilter(CDasherComponent creator, CDasherInterfaceBase iface, String sName) {
         super(creator, iface, sName);
+        ListenFor(Elp_parameters.LP_MAX_ZOOM);
         HandleEvent(Elp_parameters.LP_MAX_ZOOM);
     }
     
@@ -0,0 +1,142 @@
+package dasher;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of the sizes of text strings on a screen, keyed by (text,
+ * font size). Node labels are drawn every frame, but come from a small set of
+ * strings (mostly the alphabet's display texts, which are the same String
+ * objects every time) at only a few font sizes, so measuring each afresh via
+ * {@link CDasherScreen#TextSize} is wasted work.
+ * <p>
+ * Entries are held in parallel primitive arrays, chained into a hash table and
+ * a least-recently-used list by index, so a lookup allocates nothing and, once
+ * the cache is full, each miss evicts the least recently used entry. Strings
+ * are compared by reference before equals(), so interned texts are cheap.
+ * Not thread-safe: intended for use only by the thread rendering the view.
+ */
+public class CTextMetricsCache {
+	private final int m_iCapacity;
+	/** Head of the chain for each hash bucket, or -1 */
+	private final int[] m_Table;
+	private final int m_iMask;
+
+	private final String[] m_Texts;
+	private final int[] m_Sizes, m_Hashes, m_Widths, m_Heights;
+	/** Next entry in the same hash bucket, or -1 */
+	private final int[] m_Chain;
+	/** Neighbours in the LRU list, or -1 */
+	private final int[] m_Older, m_Newer;
+	private int m_iNewest=-1, m_iOldest=-1;
+	private int m_iNumEntries;
+
+	private int m_iHits, m_iMisses;
+
+	/**
+	 * @param iCapacity max number of (text, size) pairs to hold; once full, each
+	 * new pair evicts the least recently used.
+	 */
+	public CTextMetricsCache(int iCapacity) {
+		if (iCapacity<1) throw new IllegalArgumentException("Capacity "+iCapacity);
+		this.m_iCapacity = iCapacity;
+		int iBuckets = Integer.highestOneBit(iCapacity)*2;
+		m_Table = new int[iBuckets];
+		m_iMask = iBuckets-1;
+		m_Texts = new String[iCapacity];
+		m_Sizes = new int[iCapacity]; m_Hashes = new int[iCapacity];
+		m_Widths = new int[iCapacity]; m_Heights = new int[iCapacity];
+		m_Chain = new int[iCapacity];
+		m_Older = new int[iCapacity]; m_Newer = new int[iCapacity];
+		clear();
+	}
+
+	public int getCapacity() {return m_iCapacity;}
+
+	/** Number of (text, size) pairs currently held */
+	public int size() {return m_iNumEntries;}
+
+	/** Discards all entries, e.g. because the screen (and so text metrics) has changed */
+	public void clear() {
+		Arrays.fill(m_Table, -1);
+		Arrays.fill(m_Texts, 0, m_iNumEntries, null);
+		m_iNumEntries=0;
+		m_iNewest=m_iOldest=-1;
+	}
+
+	/**
+	 * Finds the size of some text, measuring it on the specified screen if not
+	 * already cached (evicting the least recently used entry if necessary).
+	 * @return handle to pass to {@link #getWidth(int)} and {@link #getHeight(int)};
+	 * valid only until the next call to this method or {@link #clear()}.
+	 */
+	public int lookup(CDasherScreen screen, String text, int iSize) {
+		final int h = hash(text, iSize);
+		for (int i=m_Table[h & m_iMask]; i!=-1; i=m_Chain[i]) {
+			if (m_Hashes[i]==h && m_Sizes[i]==iSize && (m_Texts[i]==text || m_Texts[i].equals(text))) {
+				m_iHits++;
+				touch(i);
+				return i;
+			}
+		}
+		m_iMisses++;
+		final int i;
+		if (m_iNumEntries<m_iCapacity) {
+			i=m_iNumEntries++;
+		} else {
+			i=m_iOldest;
+			unlink(i);
+			unchain(i);
+		}
+		CDasherView.Point p = screen.TextSize(text, iSize);
+		m_Texts[i]=text; m_Sizes[i]=iSize; m_Hashes[i]=h;
+		m_Widths[i]=p.x; m_Heights[i]=p.y;
+		final int b = h & m_iMask;
+		m_Chain[i]=m_Table[b];
+		m_Table[b]=i;
+		linkNewest(i);
+		return i;
+	}
+
+	/** Width of the text whose handle was returned by {@link #lookup} */
+	public int getWidth(int iHandle) {return m_Widths[iHandle];}
+
+	/** Height of the text whose handle was returned by {@link #lookup} */
+	public int getHeight(int iHandle) {return m_Heights[iHandle];}
+
+	/** Number of lookups which found the text already cached */
+	public int getNumHits() {return m_iHits;}
+
+	/** Number of lookups which had to measure the text */
+	public int getNumMisses() {return m_iMisses;}
+
+	private static int hash(String text, int iSize) {
+		int h = text.hashCode()*31 + iSize;
+		return h ^ (h>>>16);
+	}
+
+	private void touch(int i) {
+		if (i==m_iNewest) return;
+		unlink(i);
+		linkNewest(i);
+	}
+
+	private void linkNewest(int i) {
+		m_Older[i]=m_iNewest; m_Newer[i]=-1;
+		if (m_iNewest!=-1) m_Newer[m_iNewest]=i; else m_iOldest=i;
+		m_iNewest=i;
+	}
+
+	private void unlink(int i) {
+		final int o=m_Older[i], n=m_Newer[i];
+		if (o!=-1) m_Newer[o]=n; else m_iOldest=n;
+		if (n!=-1) m_Older[n]=o; else m_iNewest=o;
+	}
+
+	/** Removes an entry from its hash bucket's chain */
+	private void unchain(int i) {
+		final int b = m_Hashes[i] & m_iMask;
+		if (m_Table[b]==i) {m_Table[b]=m_Chain[i]; return;}
+		for (int j=m_Table[b]; j!=-1; j=m_Chain[j])
+			if (m_Chain[j]==i) {m_Chain[j]=m_Chain[i]; return;}
+	}
+}
@@ -0,0 +1,196 @@
+package dasher;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import dasher.CDasherView.MutablePoint;
+
+/**
+ * Feeds a trace recorded by {@link CInputTrace} back through an interface.
+ * Usage: construct (which reads the header, i.e. the parameter values and
+ * document context at the start of the trace); call {@link #applyParameters(CDasherComponent)}
+ * and fill the document with {@link #getInitialContext()} before the interface is set up;
+ * register {@link #getInput()} as a module (it will be selected as input device
+ * by {@link #replay(CDasherInterfaceBase)}); then call {@link #replay(CDasherInterfaceBase)},
+ * which drives the interface using the recorded (virtual) times.
+ * <p>
+ * The same session should then produce the same node tree and output, as long
+ * as the interface is trained from the same files: the edits Dasher made during
+ * recording are replayed into {@link #getExpectedText()}, for comparison.
+ * (Learning done by the language model during the session, before recording
+ * started, is not captured.)
+ */
+public class CTraceReplayer {
+	private final DataInputStream m_In;
+	private final ReplayInput m_Input = new ReplayInput();
+
+	/** Type of the first record after the header (already read by the constructor) */
+	private int m_iNextType;
+
+	private int m_iContextOffset = -1;
+	private String m_strContext = "";
+	private final StringBuilder m_Expected = new StringBuilder();
+	private int m_iNumFrames, m_iNumKeys, m_iNumEdits;
+	/** Times of first and last frames replayed */
+	private long m_lFirstFrame, m_lLastFrame;
+
+	/** Parameter values recorded before the first non-parameter record */
+	private final List<Object[]> m_InitialParams = new ArrayList<Object[]>();
+
+	/** Input device which reports the co-ordinates recorded for the current frame */
+	public static class ReplayInput extends CDasherInput {
+		private boolean m_bValid;
+		private long m_iX, m_iY;
+		public ReplayInput() {super("Trace Replay");}
+		@Override public boolean GetDasherCoords(CDasherView pView, MutablePoint coords) {
+			if (m_bValid) coords.init(m_iX, m_iY);
+			return m_bValid;
+		}
+	}
+
+	/**
+	 * Reads the header of a trace, up to the first frame or key event.
+	 * @throws IOException if the stream could not be read, or is not a trace
+	 */
+	public CTraceReplayer(InputStream in) throws IOException {
+		m_In = new DataInputStream(in);
+		if (m_In.readInt()!=CInputTrace.MAGIC) throw new IOException("Not a Dasher trace");
+		int iVersion = m_In.readInt();
+		if (iVersion!=CInputTrace.VERSION) throw new IOException("Unsupported trace version "+iVersion);
+		while (true) {
+			m_iNextType = m_In.read();
+			if (m_iNextType==CInputTrace.CONTEXT) {
+				m_iContextOffset = m_In.readInt();
+				m_strContext = readString();
+				m_Expected.setLength(0);
+				m_Expected.append(m_strContext);
+			} else if (m_iNextType>=CInputTrace.PARAM_BOOL && m_iNextType<=CInputTrace.PARAM_STRING) {
+				String name = readString();
+				Object val = readParamValue(m_iNextType);
+				m_InitialParams.add(new Object[] {name, val});
+			} else break;
+		}
+	}
+
+	public ReplayInput getInput() {return m_Input;}
+
+	/** Text preceding the cursor when recording started */
+	public String getInitialContext() {return m_strContext;}
+
+	/** Offset of the cursor when recording started, or -1 if not recorded */
+	public int getInitialOffset() {return m_iContextOffset;}
+
+	/** The initial context, after applying all the edits recorded (so far) */
+	public String getExpectedText() {return m_Expected.toString();}
+
+	public int getNumFrames() {return m_iNumFrames;}
+	public int getNumKeys() {return m_iNumKeys;}
+	public int getNumEdits() {return m_iNumEdits;}
+	/** Time (as recorded) between first and last frames replayed, in ms */
+	public long getDuration() {return m_lLastFrame-m_lFirstFrame;}
+
+	/**
+	 * Set all parameters to the values they had when recording started
+	 * (except the input device, which is left to the replayer).
+	 */
+	public void applyParameters(CDasherComponent target) {
+		for (Object[] p : m_InitialParams) setParam(target, (String)p[0], p[1]);
+	}
+
+	private Object readParamValue(int type) throws IOException {
+		switch (type) {
+		case CInputTrace.PARAM_BOOL: return m_In.readByte()!=0;
+		case CInputTrace.PARAM_LONG: return m_In.readLong();
+		default: return readString();
+		}
+	}
+
+	private void setParam(CDasherComponent target, String name, Object val) {
+		EParameters param = EParameters.BY_NAME.get(name);
+		if (param==null || param==Esp_parameters.SP_INPUT_DEVICE) return;
+		if (param instanceof Ebp_parameters) target.SetBoolParameter((Ebp_parameters)param, (Boolean)val);
+		else if (param instanceof Elp_parameters) target.SetLongParameter((Elp_parameters)param, (Long)val);
+		else target.SetStringParameter((Esp_parameters)param, (String)val);
+	}
+
+	private String readString() throws IOException {
+		int len = m_In.readUnsignedShort();
+		char[] cs = new char[len];
+		for (int i=0; i<len; i++) cs[i]=m_In.readChar();
+		return new String(cs);
+	}
+
+	/**
+	 * Replays the rest of the trace through the given interface, which must
+	 * already be set up (and have a screen). Selects {@link #getInput()} as
+	 * input device first.
+	 * @throws IOException if the trace could not be read, or was corrupt
+	 * (a truncated final record, as from a crash, is ignored)
+	 */
+	public void replay(CDasherInterfaceBase intf) throws IOException {
+		intf.SetStringParameter(Esp_parameters.SP_INPUT_DEVICE, m_Input.getName());
+		try {
+			for (int type = m_iNextType; type!=-1; type = m_In.read()) {
+				switch (type) {
+				case CInputTrace.FRAME: {
+					long t = m_In.readLong();
+					m_Input.m_bValid = m_In.readByte()!=0;
+					m_Input.m_iX = m_In.readLong();
+					m_Input.m_iY = m_In.readLong();
+					intf.NewFrame(t);
+					if (m_iNumFrames++==0) m_lFirstFrame=t;
+					m_lLastFrame=t;
+					break;
+				}
+				case CInputTrace.KEY_DOWN:
+				case CInputTrace.KEY_UP: {
+					long t = m_In.readLong();
+					int id = m_In.readInt();
+					if (type==CInputTrace.KEY_DOWN) intf.KeyDown(t, id); else intf.KeyUp(t,id);
+					m_iNumKeys++;
+					break;
+				}
+				case CInputTrace.PARAM_BOOL:
+				case CInputTrace.PARAM_LONG:
+				case CInputTrace.PARAM_STRING: {
+					String name = readString();
+					setParam(intf, name, readParamValue(type));
+					break;
+				}
+				case CInputTrace.OUTPUT:
+				case CInputTrace.DELETE: {
+					int offset = m_In.readInt();
+					String text = readString();
+					int pos = offset+1-text.length();
+					if (pos>=0 && pos<=m_Expected.length()) {
+						if (type==CInputTrace.OUTPUT) m_Expected.insert(pos, text);
+						else if (offset<m_Expected.length()) m_Expected.delete(pos, offset+1);
+					}
+					m_iNumEdits++;
+					break;
+				}
+				case CInputTrace.SET_OFFSET: {
+					int offset = m_In.readInt();
+					intf.setOffset(offset, m_In.readByte()!=0);
+					break;
+				}
+				case CInputTrace.SCREEN:
+					//screen size doesn't affect the model (input is in Dasher co-ordinates)
+					m_In.readInt(); m_In.readInt();
+					break;
+				case CInputTrace.CONTEXT:
+					m_In.readInt(); readString();
+					break;
+				default:
+					throw new IOException("Unknown record type "+type);
+				}
+			}
+		} catch (EOFException e) {
+			//trace truncated mid-record. Use what we have.
+		}
+	}
+}
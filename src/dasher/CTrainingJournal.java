@@ -0,0 +1,462 @@
+package dasher;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of user-written text for a single training file, which
+ * keeps the file open and writes entries out in batches on a background thread,
+ * so that the thread adding them (i.e. the Dasher thread, on every change of
+ * context) never waits for storage.
+ * <p>
+ * Entries are accumulated in a direct buffer and written out together once
+ * {@link #FLUSH_SIZE} bytes are pending, or {@link #FLUSH_DELAY} ms after the
+ * first of them was added, or on {@link #flush()} (e.g. at shutdown). Each is
+ * stored as a record: its length (as a 4-byte int), its text in UTF-8, and a
+ * CRC32 of that text. A record only partly written (e.g. if the process is
+ * killed mid-write) is thus detected, and both {@link #openText(File, long)} and
+ * the journal itself (on opening the file for further appends) discard it and
+ * anything after, keeping all complete records before.
+ * <p>
+ * Records which have been read, and are no longer needed (e.g. their text has
+ * been learnt into a {@link CLanguageModel#EndDelta(java.io.OutputStream) delta}),
+ * may be removed from the start of the file by {@link #discard(long)}. Positions
+ * in the text are counted from the start of all the text ever added, so are not
+ * changed by this: the file begins with a header recording the position of the
+ * first text it holds (see {@link #getBase()}).
+ */
+public class CTrainingJournal {
+	/** Bytes of pending records at which the background thread writes them out immediately */
+	public static final int FLUSH_SIZE = 4096;
+	/** Longest time (ms) for which a record may be held in memory before being written out */
+	public static final long FLUSH_DELAY = 5000;
+	/** Records claiming to be longer than this are assumed to be corrupt */
+	private static final int MAX_RECORD = 1<<24;
+	/** Bytes of each record besides the text: length before, CRC after */
+	private static final int OVERHEAD = 8;
+	/** Starts the header (where a record would have its length); then come the base position, and its CRC */
+	private static final int HEADER_MAGIC = 0x8A5E7E87;
+	private static final int HEADER_SIZE = 16;
+
+	private final CDasherInterfaceBase m_Intf;
+	private final File m_File;
+	/** Records added but not yet handed to the writer; guarded by this */
+	private ByteBuffer m_Pending = ByteBuffer.allocateDirect(2*FLUSH_SIZE);
+	/** Buffer the writer is (or was last) writing out; swapped with m_Pending. Guarded by m_WriteLock */
+	private ByteBuffer m_Writing = ByteBuffer.allocateDirect(2*FLUSH_SIZE);
+	/** Time (ms) at which the first record in m_Pending was added; guarded by this */
+	private long m_iFirstPending;
+	/** Channel appending to the file, opened on first write; guarded by m_WriteLock */
+	private FileChannel m_Channel;
+	/** Serializes writes to the file, by the background thread and {@link #flush()} */
+	private final Object m_WriteLock = new Object();
+	private Thread m_Writer;
+	private boolean m_bClosed;
+	/** Position of the start of the text in the file, if it has no header */
+	private final long m_iDefaultBase;
+	/** Cache of {@link #getBase()}, or -1 if not yet read; guarded by m_WriteLock */
+	private long m_iBase=-1;
+	/** Whether the background thread has reported an error, since it last wrote successfully */
+	private boolean m_bReportedError;
+
+	/**
+	 * Creates a journal appending to the specified file (created if it does not
+	 * exist). Does no I/O until records are written out.
+	 * @param intf interface to which to report errors writing in the background
+	 * @param iDefaultBase position of the start of the text in the file, if
+	 * it does not exist yet (or was written without a header)
+	 */
+	public CTrainingJournal(CDasherInterfaceBase intf, File f, long iDefaultBase) {
+		this.m_Intf = intf;
+		this.m_File = f;
+		this.m_iDefaultBase = iDefaultBase;
+	}
+
+	public File getFile() {return m_File;}
+
+	/**
+	 * Adds a record containing the specified text, to be written out later.
+	 * Does not block on I/O: call on any thread.
+	 * @param s text to append; nothing is recorded if empty
+	 */
+	public void append(String s) {
+		if (s.length()==0) return;
+		final byte[] bytes;
+		try {
+			bytes = s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e); //every JVM supports UTF-8
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		synchronized(this) {
+			if (m_bClosed) throw new IllegalStateException("Journal "+m_File+" closed");
+			if (m_Pending.remaining() < bytes.length+OVERHEAD) {
+				//grow rather than wait for the writer
+				ByteBuffer b = ByteBuffer.allocateDirect(Math.max(2*m_Pending.capacity(), m_Pending.position()+bytes.length+OVERHEAD));
+				m_Pending.flip();
+				b.put(m_Pending);
+				m_Pending = b;
+			}
+			if (m_Pending.position()==0) m_iFirstPending = System.currentTimeMillis();
+			m_Pending.putInt(bytes.length).put(bytes).putInt((int)crc.getValue());
+			if (m_Writer==null) {
+				m_Writer = new Thread(new Runnable() {
+					public void run() {writeLoop();}
+				}, "Journal "+m_File.getName());
+				m_Writer.setPriority(Thread.MIN_PRIORITY);
+				m_Writer.setDaemon(true);
+				m_Writer.start();
+			}
+			notifyAll();
+		}
+	}
+
+	/** Body of the background thread: waits for records, then for size or time threshold, then writes */
+	private void writeLoop() {
+		for (;;) {
+			synchronized(this) {
+				for (;;) {
+					if (m_bClosed) return;
+					if (m_Pending.position()>=FLUSH_SIZE) break;
+					long iWait;
+					if (m_Pending.position()==0) iWait=0; //forever
+					else if ((iWait = m_iFirstPending+FLUSH_DELAY-System.currentTimeMillis())<=0) break;
+					try {wait(iWait);}
+					catch (InterruptedException e) {}
+				}
+			}
+			try {
+				write(false);
+				m_bReportedError=false;
+			} catch (IOException e) {
+				//records remain pending, so retry after the delay (reporting only the first failure)
+				if (!m_bReportedError) m_Intf.Message("Error writing training file "+m_File+": "+e, 1);
+				m_bReportedError=true;
+				try {Thread.sleep(FLUSH_DELAY);}
+				catch (InterruptedException ie) {}
+			}
+		}
+	}
+
+	/**
+	 * Writes out all pending records, and waits until they (and all those written
+	 * before) are on storage; call e.g. at shutdown, or before reading the file.
+	 * @return length of the file, i.e. of all records added before the call
+	 * @throws IOException if the file could not be written (records are kept, to retry later)
+	 */
+	public long flush() throws IOException {
+		synchronized(m_WriteLock) {
+			write(true);
+			return (m_Channel==null) ? m_File.length() : m_Channel.size();
+		}
+	}
+
+	/**
+	 * Position, among all the text ever added to the journal, of the start of
+	 * the text in the file, i.e. of the first byte read from {@link #openText(File, long)}.
+	 */
+	public long getBase() throws IOException {
+		synchronized(m_WriteLock) {
+			if (m_iBase<0) {
+				if (!m_File.exists()) m_iBase = m_iDefaultBase;
+				else {
+					JournalInputStream in = new JournalInputStream(new FileInputStream(m_File), 0, m_iDefaultBase);
+					m_iBase = in.m_iBase;
+					in.close();
+				}
+			}
+			return m_iBase;
+		}
+	}
+
+	/**
+	 * Removes records from the start of the file, as far as a position in the
+	 * text, keeping any after (including those still pending, and any record
+	 * only partly before the position). The header and records kept are copied
+	 * to a new file, which then replaces the old, so that a crash part-way loses
+	 * none of them. (If the file does not exist, it is created with just a
+	 * header, recording {@link #getBase()}.)
+	 * @param iTextPos position in the text (as per {@link #getBase()}) before
+	 * which it is no longer needed
+	 */
+	public void discard(long iTextPos) throws IOException {
+		synchronized(m_WriteLock) {
+			write(false);
+			if (m_Channel!=null) {
+				m_Channel.close();
+				m_Channel=null;
+			}
+			long iBase = getBase(), iCut=0, iEnd=0;
+			if (m_File.exists()) {
+				JournalInputStream in = new JournalInputStream(new FileInputStream(m_File), Long.MAX_VALUE, m_iDefaultBase);
+				try {
+					iCut = in.m_iValid;
+					for (boolean bCut=true; in.nextRecord(); ) {
+						if (bCut && iBase+in.m_iRecLen<=iTextPos) {
+							iBase += in.m_iRecLen;
+							iCut = in.m_iValid;
+						} else bCut=false;
+					}
+					iEnd = in.m_iValid;
+				} finally {
+					in.close();
+				}
+			}
+			File tmp = new File(m_File.getPath()+".tmp");
+			FileChannel out = new FileOutputStream(tmp).getChannel();
+			try {
+				writeFully(out, header(iBase));
+				if (iCut<iEnd) {
+					FileChannel in = new FileInputStream(m_File).getChannel();
+					try {
+						for (long iPos=iCut; iPos<iEnd; )
+							iPos += in.transferTo(iPos, iEnd-iPos, out);
+					} finally {
+						in.close();
+					}
+				}
+				out.force(false);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(m_File)) {
+				tmp.delete();
+				throw new IOException("Could not replace "+m_File);
+			}
+			m_iBase = iBase;
+		}
+	}
+
+	/** Makes the header for a journal file, recording the position of the start of its text */
+	private static ByteBuffer header(long iBase) {
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+		b.putInt(HEADER_MAGIC).putLong(iBase).putInt(crc(b.array(), 4, 8));
+		b.flip();
+		return b;
+	}
+
+	private static int crc(byte[] b, int off, int len) {
+		final CRC32 crc = new CRC32();
+		crc.update(b, off, len);
+		return (int)crc.getValue();
+	}
+
+	private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) ch.write(b);
+	}
+
+	/**
+	 * Flushes, then closes the file and stops the background thread; no further
+	 * records may be added. Call when finished with the journal (e.g. at shutdown),
+	 * as otherwise the thread waits for more records indefinitely.
+	 */
+	public void close() throws IOException {
+		synchronized(m_WriteLock) {
+			try {
+				write(true);
+			} finally {
+				synchronized(this) {
+					m_bClosed=true;
+					notifyAll();
+				}
+				if (m_Channel!=null) {
+					m_Channel.close();
+					m_Channel=null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes out all pending records (including any left by a previous failure).
+	 * @param bForce true to wait until they (and all previous) are on storage
+	 */
+	private void write(boolean bForce) throws IOException {
+		synchronized(m_WriteLock) {
+			for (;;) {
+				synchronized(this) {
+					if (m_Writing.position()==0) {
+						if (m_Pending.position()==0) break;
+						//hand the pending records to the writer, and start
+						// accumulating afresh in the buffer it last wrote from
+						ByteBuffer b = m_Writing;
+						m_Writing = m_Pending;
+						m_Pending = b;
+					}
+				}
+				if (m_Channel==null) {
+					final long iBase = getBase();
+					m_Channel = openForAppend(m_File);
+					if (m_Channel.size()==0) writeFully(m_Channel, header(iBase));
+				}
+				final long iStart = m_Channel.size();
+				m_Writing.flip();
+				try {
+					writeFully(m_Channel, m_Writing);
+				} catch (IOException e) {
+					//keep the whole batch to retry, removing whatever part got written
+					m_Writing.position(m_Writing.limit()).limit(m_Writing.capacity());
+					try {m_Channel.truncate(iStart);} catch (IOException e2) {}
+					try {m_Channel.close();} catch (IOException e2) {}
+					m_Channel = null;
+					throw e;
+				}
+				m_Writing.clear();
+			}
+			if (bForce && m_Channel!=null) m_Channel.force(false);
+		}
+	}
+
+	/**
+	 * Opens a journal file for appending, first truncating any incomplete or corrupt
+	 * record (and everything after it; or everything, if the header is incomplete),
+	 * so that new records follow the last good one.
+	 */
+	private static FileChannel openForAppend(File f) throws IOException {
+		File dir = f.getParentFile();
+		if (dir!=null && !dir.exists() && !dir.mkdirs())
+			throw new IOException(dir+" does not exist and could not create.");
+		if (f.exists()) {
+			long iGood = validLength(f);
+			if (iGood < f.length()) {
+				RandomAccessFile raf = new RandomAccessFile(f, "rw");
+				try {
+					raf.setLength(iGood);
+				} finally {
+					raf.close();
+				}
+			}
+		}
+		return new FileOutputStream(f, true).getChannel();
+	}
+
+	/** Number of bytes at the start of a journal file occupied by complete, intact records */
+	private static long validLength(File f) throws IOException {
+		JournalInputStream in = new JournalInputStream(new FileInputStream(f), Long.MAX_VALUE, 0);
+		try {
+			while (in.nextRecord());
+			return in.m_iValid;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens a journal file for reading as text, e.g. to train from.
+	 * @param iLength number of bytes of the file to read, e.g. as returned by
+	 * {@link #flush()}: records appended after this are ignored
+	 * @return stream of the UTF-8 text of all intact records in order, stopping at
+	 * the first incomplete or corrupt record (if any).
+	 */
+	public static InputStream openText(File f, long iLength) throws IOException {
+		return new JournalInputStream(new FileInputStream(f), iLength, 0);
+	}
+
+	/** Reads the header, then the text from each record in turn, checking its length and CRC first */
+	private static class JournalInputStream extends InputStream {
+		private final DataInputStream m_In;
+		private final CRC32 m_Crc = new CRC32();
+		private byte[] m_Rec = new byte[256];
+		private int m_iRecLen, m_iRecPos;
+		/** Bytes of the file occupied by the header and records so far read and found intact */
+		long m_iValid;
+		/** Position of the start of the text, from the header */
+		long m_iBase;
+		/** Bytes of the file to read; no record starting at or after this is read */
+		private final long m_iLimit;
+		private boolean m_bEnd;
+
+		/**
+		 * Opens a journal file, and reads its header.
+		 * @param iDefaultBase position of the start of the text if the file has no
+		 * header (i.e. was written by an earlier version)
+		 */
+		JournalInputStream(InputStream in, long iLimit, long iDefaultBase) throws IOException {
+			this.m_In = new DataInputStream(new java.io.BufferedInputStream(in));
+			this.m_iLimit = iLimit;
+			this.m_iBase = iDefaultBase;
+			m_In.mark(HEADER_SIZE);
+			try {
+				if (m_In.readInt()!=HEADER_MAGIC) {
+					m_In.reset(); //no header
+					return;
+				}
+				byte[] b = new byte[8];
+				m_In.readFully(b);
+				if (m_In.readInt()!=crc(b, 0, 8)) {
+					end(); //torn header: nothing valid
+					return;
+				}
+				m_iBase = new DataInputStream(new java.io.ByteArrayInputStream(b)).readLong();
+				m_iValid = HEADER_SIZE;
+			} catch (EOFException e) {
+				end();
+			}
+		}
+
+		/**
+		 * Reads the next record, if intact, into m_Rec.
+		 * @return false if there are no more intact records
+		 */
+		boolean nextRecord() throws IOException {
+			if (m_bEnd || m_iValid>=m_iLimit) return end();
+			try {
+				final int len = m_In.readInt();
+				if (len<0 || len>MAX_RECORD) return end();
+				if (len>m_Rec.length) m_Rec = new byte[Math.max(len, 2*m_Rec.length)];
+				m_In.readFully(m_Rec, 0, len);
+				final int crc = m_In.readInt();
+				m_Crc.reset();
+				m_Crc.update(m_Rec, 0, len);
+				if (crc != (int)m_Crc.getValue()) return end();
+				m_iRecLen = len; m_iRecPos = 0;
+				m_iValid += len+OVERHEAD;
+				return true;
+			} catch (EOFException e) {
+				return end();
+			}
+		}
+
+		private boolean end() {
+			m_bEnd = true;
+			m_iRecLen = m_iRecPos = 0;
+			return false;
+		}
+
+		@Override public int read() throws IOException {
+			while (m_iRecPos==m_iRecLen)
+				if (!nextRecord()) return -1;
+			return m_Rec[m_iRecPos++] & 0xFF;
+		}
+
+		@Override public int read(byte[] b, int off, int len) throws IOException {
+			if (len==0) return 0;
+			while (m_iRecPos==m_iRecLen)
+				if (!nextRecord()) return -1;
+			final int n = Math.min(len, m_iRecLen-m_iRecPos);
+			System.arraycopy(m_Rec, m_iRecPos, b, off, n);
+			m_iRecPos += n;
+			return n;
+		}
+
+		/** Estimate, including the framing of records not yet read */
+		@Override public int available() throws IOException {
+			return m_bEnd ? 0 : (m_iRecLen-m_iRecPos) + (int)Math.min(m_In.available(), m_iLimit-m_iValid);
+		}
+
+		@Override public void close() throws IOException {
+			m_In.close();
+		}
+	}
+}
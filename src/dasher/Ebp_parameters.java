@@ -29,7 +29,7 @@ package dasher;
  * Enumeration of possible boolean parameter references. See
  * CParamTables for a list and definitions.
  */
-public enum Ebp_parameters implements EParameters {
+public enum Ebp_parameters implements EParameters {
 			  BP_REMAP_XTREME("RemapXtreme", false, "Remap y & limit x at top/bottom extremes"),
 			  BP_DRAW_MOUSE_LINE("DrawMouseLine", true, "Draw Mouse Line"),
 			  BP_DRAW_MOUSE("DrawMouse", true, "Draw Mouse Position"),
@@ -54,9 +54,12 @@ public enum Ebp_parameters implements EParameters {
 			  BP_CONTROL_MODE_HAS_MOVE("ControlModeHasMove",true,"Include nodes to move cursor"),
 			  BP_MOVE_REBUILD_IMMED("ControlMoveRebuildImmed",false,"Rebuild move nodes immediately rather than on commit"),
 			  BP_CONTROL_MODE_ALPH_SWITCH("ControlModeHasAlphSwitch",true,"Include nodes to switch to previous four alphabets"),
-			  BP_CONTROL_MODE_HAS_SPEED("ControlModeHasSpeed",true,"Include nodes to change speed up/down")
-			  ;
-
+			  BP_CONTROL_MODE_HAS_SPEED("ControlModeHasSpeed",true,"Include nodes to change speed up/down"),
+			  BP_PROFILE_FRAMES("ProfileFrames",false,"Record timings of each stage of every frame, and log them periodically"),
+			  BP_TRACE_SPANS("TraceSpans",false,"Record a timeline of frames, training, etc. on all threads, for export as a Chrome trace"),
+			  BP_PIPELINE_RENDER("PipelineRender",false,"Draw each frame to the screen on a separate thread, while computing the next")
+			  ;
+
 
 			  private Ebp_parameters(String rName, boolean def, String hr) {
 				humanReadable = hr;
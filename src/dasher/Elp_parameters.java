@@ -77,7 +77,9 @@ public enum Elp_parameters implements EParameters {
 	  LP_DOUBLE_CLICK_TIME("DoublePressTime", 150,"Time/ms for double click (=reverse) in 2B-dynamic mode"),
 	  LP_ONE_BUTTON_SHORT_GAP("OneButtonShortGap", 40, "Distance between up markers as % of long gap in 1B-dynamic mode"),
 	  LP_ONE_BUTTON_LONG_GAP("OneButtonLongGap", 512, "Distance between down markers (long gap) in 1B-dynamic mode"),
-	  LP_ONE_BUTTON_OUTER("OneButtonOuter", 1920, "Distance to up&down outer markers in 1B-dynamic mode");
+	  LP_ONE_BUTTON_OUTER("OneButtonOuter", 1920, "Distance to up&down outer markers in 1B-dynamic mode"),
+	  LP_LOD_PIXELS("LODPixels", 2, "Nodes less than this many pixels high are drawn merged with adjacent siblings, and without outline if less than twice this (0=off)"),
+	  LP_INPUT_PREDICTION("InputPrediction", 0, "Time/ms after each frame for which to predict input position from timestamped samples (-1=use latest sample as is)");
 		  
 		  private Elp_parameters(String rName, long def, String hr) {
 				humanReadable = hr;
@@ -13,8 +13,10 @@ public abstract class ExpansionPolicy {
 }
 
 /*package?*/ class BudgettingPolicy extends ExpansionPolicy implements Comparator<CDasherNode> {
+	private final CNodeArena m_Arena;
 	private final int m_iNodeBudget;
-	BudgettingPolicy(int iNodeBudget) {
+	BudgettingPolicy(CNodeArena arena, int iNodeBudget) {
+		this.m_Arena=arena;
 		this.m_iNodeBudget=iNodeBudget;
 	}
 	protected CDasherNode[] expandable = new CDasherNode[8];
@@ -98,12 +100,13 @@ public abstract class ExpansionPolicy {
 		
 		//first, make sure we are within our budget (probably only in case the budget's changed)
 		while (collapseIdx<nextCol
-		       && CDasherNode.currentNumNodeObjects() > m_iNodeBudget)
+		       && m_Arena.numLiveNodes() > m_iNodeBudget)
 		{
 			CDasherNode n = collapsible[collapseIdx++];
 		    assert n.m_dCost >= collapseCost;
 		    collapseCost = n.m_dCost;
 		    n.Delete_children();
+		    model.countCollapse();
 		    bReturnValue = true;
 		}
 
@@ -114,7 +117,7 @@ public abstract class ExpansionPolicy {
 		{
 			CDasherNode nExp = expandable[nextExp-1];
 			if (nExp.m_dCost <= collapseCost) break; 
-			if (CDasherNode.currentNumNodeObjects()+nExp.ExpectedNumChildren() < m_iNodeBudget)
+			if (m_Arena.numLiveNodes()+nExp.ExpectedNumChildren() < m_iNodeBudget)
 			{
 				model.Expand(nExp);
 		    	nextExp--;
@@ -128,6 +131,7 @@ public abstract class ExpansionPolicy {
 		    	assert c.m_dCost >= collapseCost;
 		    	collapseCost = c.m_dCost;
 		    	c.Delete_children();
+		    	model.countCollapse();
 		    	//...and see how much room that makes
 		    }
 		    else break; //not enough room, nothing to collapse.
@@ -142,11 +146,11 @@ public abstract class ExpansionPolicy {
 
 /*package*/ class AmortizedPolicy extends BudgettingPolicy {
 	private final int m_maxActs;
-	AmortizedPolicy(int nodeBudget) {
-		this(nodeBudget,Math.max(1,(500+nodeBudget)/1000));
+	AmortizedPolicy(CNodeArena arena, int nodeBudget) {
+		this(arena, nodeBudget,Math.max(1,(500+nodeBudget)/1000));
 	}
-	AmortizedPolicy(int nodeBudget, int maxCols) {
-		super(nodeBudget);
+	AmortizedPolicy(CNodeArena arena, int nodeBudget, int maxCols) {
+		super(arena, nodeBudget);
 		this.m_maxActs=maxCols;
 	}
 	
@@ -26,29 +26,36 @@
 package dasher;
 
 import java.lang.ref.WeakReference;
-import java.util.Set;
-import java.util.HashSet;
-import java.util.WeakHashMap;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * <p>The Observable class provides a publish/subscribe API for some particular type of event.
  * The class manages a list of Observer<T>s, and allows subclasses (only) to broadcast T's
  * to all registered Observers. (Note, no guarantees are provided on the order of delivery
- * to different Observers.)</p>  
+ * to different Observers.) An Observer may register either for all events, or for only
+ * particular events (e.g. changes to the parameters it uses): the latter are not woken
+ * at all by other events, so frequent events (e.g. LP_FRAMERATE changing several times a
+ * second) cost only as much as the listeners which are actually interested.</p>  
  * 
  * <p>However, note (in contrast to C++ Dasher): we keep only WeakReferences to the Observers,
  * such that registration does not prevent an observer subsequently being GC'd if it is not
- * otherwise reachable. Moreover, we have no deregistration method: Observers are "removed"
- * _only_ by becoming unreachable and being garbage collected. <strong>This means observers
- * should make only changes local to themselves in response to an event.</strong></p>
+ * otherwise reachable. Moreover, Observers are "removed" (from the specific events for which
+ * they registered) _only_ by becoming unreachable and being garbage collected; references
+ * thus cleared are skipped, and dropped the next time the listeners for that event change.
+ * <strong>This means observers should make only changes local to themselves in response to
+ * an event.</strong></p>
  * 
  * <p>However, there are a couple of dasher-specific features:</p>
  * <ul>
- * <li>The special case of a listener tries to register itself whilst an event is being
- * handled (for example, a parameter change caused a new observer to be created and
- * registered): here the addition will be delayed until _all_ current broadcasts have completed.
- * (That is, observers added during an event broadcast, will not see any events until
- * <em>all</em> those which were in progress when it registered have finished.)
+ * <li>Each event is delivered to a snapshot of the listeners registered when it is
+ * inserted: the arrays of listeners (and the map of them by event) are copied on write,
+ * never modified in place, and published through volatile fields; so events may be
+ * inserted on any thread without locking, concurrently with listeners being
+ * (un)registered on another. (Registrations themselves are serialised.)
+ * So a listener which registers itself whilst an event is being handled (for example,
+ * a parameter change caused a new observer to be created and registered) will not see
+ * that event, but will see any raised subsequently (even during the same broadcast).
  * <li>We also allow each Observable to have exactly one, distinguished, listener which
  * receives all events <em>after</em> all other listeners - set by {@link #setPostListener}.
  * Note we keep a strong reference to this, which can be changed by calling the setter at any time,
@@ -64,22 +71,17 @@ import java.util.WeakHashMap;
  * can be certain of stopping the loop at some future point.</p>
  */
 public class Observable<T> {
-	private static final Object PRESENT = new Object();
+	private final WeakReference<Observer<T>>[] NONE = newArray(0);
+	
 	/** The listener to call after all others */
-	private Observer<T> last;
+	private volatile Observer<T> last;
 	
-	/** Maps every currently-active listener to {@link #PRESENT} */
-	protected final WeakHashMap<Observer<T>,Object> m_vListeners = new WeakHashMap<Observer<T>, Object>();
+	/** Listeners to every event; replaced (never modified) when one is added or removed */
+	private volatile WeakReference<Observer<T>>[] m_vListeners = NONE;
 	
-	/** Listeners waiting to be added after all in-progress events are finished */
-	protected final Set<Observer<T>> m_vListenerQueue = new HashSet<Observer<T>>();
-
-	/**
-	 * Integer indicating how many times we are 'in' the event
-	 * handler (for example, we might be in twice if a component
-	 * responded to an event by issuing an event of its own). 
-	 */
-	private int m_iInHandler;
+	/** Listeners to each particular event; the map and each array are replaced (never
+	 * modified) when one is added */
+	private volatile Map<T,WeakReference<Observer<T>>[]> m_vEventListeners = new HashMap<T,WeakReference<Observer<T>>[]>();
 	
 	/** Sets the observer which will be called last with each event,
 	 * replacing any previous.
@@ -90,59 +92,111 @@ public class Observable<T> {
 	}
 	
 	/**
-	 * Informs all registered listeners of a specified Event.
-	 * <p>
-	 * Before beginning, m_iInHandler is incremented to indicate
-	 * that one event is currently in progress; when finished,
-	 * it is decremented and, if zero, listeners which are queued
-	 * up for (de/)registration will be added/removed to/from the
-	 * list of active listeners.
+	 * Informs all listeners registered for every event, then those registered
+	 * for this particular event, then the last listener, of a specified Event.
+	 * Listeners registered (or removed) during the broadcast do not affect it.
 	 * 
 	 * @param evt Event to dispatch to all registered listeners.
 	 */
 	protected void InsertEvent(T evt) {
-
-		// We may end up here recursively, so keep track of how far down we
-		// are, and only permit new handlers to be registered after all
-		// messages are processed.
-
-		// An alternative approach would be a message queue - this might actually be a bit more sensible
-		++m_iInHandler;
-		  
 		// Loop through components and notify them of the event
-		  		  
-		for(Observer<T> o : m_vListeners.keySet()) {
-		    o.HandleEvent(evt);
-		}
+		dispatch(m_vListeners, evt);
+		WeakReference<Observer<T>>[] specific = m_vEventListeners.get(evt);
+		if (specific!=null) dispatch(specific, evt);
 
+		final Observer<T> last = this.last;
 		if (last!=null) last.HandleEvent(evt);
-		
-		--m_iInHandler;
-		  
-		if(m_iInHandler == 0) {			  
-			for(Observer<T> o : m_vListenerQueue)
-				if (m_vListeners.containsKey(o)) m_vListeners.remove(o); else m_vListeners.put(o,PRESENT);
-			m_vListenerQueue.clear();
+	}
+	
+	private static <T> void dispatch(WeakReference<Observer<T>>[] snapshot, T evt) {
+		for (int i=0; i<snapshot.length; i++) {
+			Observer<T> o = snapshot[i].get();
+			if (o!=null) o.HandleEvent(evt);
 		}
 	}
 
 	/**
-	 * Registers a given component as an event listener.
-	 * <p>
-	 * In the event that one or more events are currently in progress,
-	 * it will be added to a queue of pending listeners and will
-	 * be added when InsertEvent finishes for the last time.
+	 * Registers a given component as a listener to all events.
+	 * Has no effect if it is already registered as such.
+	 * 
+	 * @param obsvr Component to add as a listener
+	 */
+	public synchronized void RegisterListener(Observer<T> obsvr) {
+		m_vListeners = add(m_vListeners, obsvr);
+	}
+
+	/**
+	 * Registers a given component as a listener to a particular event (only),
+	 * in addition to any others for which it is registered. Has no effect if
+	 * it is already registered for that event.
 	 * 
-	 * @param pListener Component to add as a listener
+	 * @param obsvr Component to add as a listener
+	 * @param evt Event for which to call it
 	 */
-	public void RegisterListener(Observer<T> obsvr) {
+	public synchronized void RegisterListener(Observer<T> obsvr, T evt) {
+		WeakReference<Observer<T>>[] old = m_vEventListeners.get(evt);
+		WeakReference<Observer<T>>[] nu = add(old==null ? NONE : old, obsvr);
+		if (nu==old) return;
+		Map<T,WeakReference<Observer<T>>[]> map = new HashMap<T,WeakReference<Observer<T>>[]>(m_vEventListeners);
+		map.put(evt, nu);
+		m_vEventListeners = map;
+	}
 
-		if(m_vListeners.containsKey(obsvr) || m_vListenerQueue.contains(obsvr)) //already there, or pending addition
-			return;
-		if (m_iInHandler>0)
-			m_vListenerQueue.add(obsvr);
-		else
-			m_vListeners.put(obsvr, PRESENT);
+	/**
+	 * Removes a given component from the listeners to all events (only; it
+	 * remains registered for any particular events), e.g. because it is going
+	 * to register for just the events it needs instead.
+	 * 
+	 * @param obsvr Component to remove
+	 */
+	public synchronized void UnregisterListener(Observer<T> obsvr) {
+		m_vListeners = remove(m_vListeners, obsvr);
+	}
+	
+	/**
+	 * Copies an array of listeners, adding a new one if not already present
+	 * and leaving out any that have been GC'd.
+	 * @return The copy, or the same array if the listener was already there
+	 */
+	private WeakReference<Observer<T>>[] add(WeakReference<Observer<T>>[] from, Observer<T> obsvr) {
+		int live=0;
+		for (int i=0; i<from.length; i++) {
+			Observer<T> o = from[i].get();
+			if (o==obsvr) return from;
+			if (o!=null) live++;
+		}
+		WeakReference<Observer<T>>[] to = newArray(live+1);
+		int j=0;
+		for (int i=0; i<from.length; i++)
+			if (from[i].get()!=null) to[j++]=from[i];
+		to[j] = new WeakReference<Observer<T>>(obsvr);
+		return to;
+	}
+	
+	/**
+	 * Copies an array of listeners, leaving out a specified one and any that have been GC'd.
+	 * @return The copy, or the same array if the listener was not there
+	 */
+	private WeakReference<Observer<T>>[] remove(WeakReference<Observer<T>>[] from, Observer<T> obsvr) {
+		int keep=0; boolean found=false;
+		for (int i=0; i<from.length; i++) {
+			Observer<T> o = from[i].get();
+			if (o==obsvr) found=true; else if (o!=null) keep++;
+		}
+		if (!found) return from;
+		WeakReference<Observer<T>>[] to = newArray(keep);
+		int j=0;
+		for (int i=0; i<from.length; i++) {
+			Observer<T> o = from[i].get();
+			if (o!=null && o!=obsvr) to[j++]=from[i];
+		}
+		return to;
+	}
+	
+	/** Makes an array of (null) references to listeners - which Java cannot do without casting */
+	@SuppressWarnings({"unchecked","rawtypes"})
+	private static <T> WeakReference<Observer<T>>[] newArray(int n) {
+		return new WeakReference[n];
 	}
 
 }
@@ -22,6 +22,7 @@ public class OneButtonDynamicFilter extends CDynamicButtons {
 	
 	public OneButtonDynamicFilter(CDasherComponent creator, CDasherInterfaceBase iface) {
 		super(creator, iface, "One-button Dynamic Mode");
+		ListenFor(Elp_parameters.LP_ONE_BUTTON_OUTER, Elp_parameters.LP_ONE_BUTTON_LONG_GAP, Elp_parameters.LP_ONE_BUTTON_SHORT_GAP);
 		createMarkers();
 	}
 	
@@ -11,6 +11,7 @@ public class TwoButtonDynamicFilter extends CDynamicPresses {
 	
 	public TwoButtonDynamicFilter(CDasherComponent creator, CDasherInterfaceBase iface) {
 		super(creator, iface, "Two-button Dynamic Mode");
+		ListenFor(Elp_parameters.LP_TWO_BUTTON_OFFSET);
 		createMarkers();
 	}
 
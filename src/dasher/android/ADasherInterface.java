@@ -1,18 +1,26 @@
 package dasher.android;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -84,13 +92,17 @@ public class ADasherInterface extends CDasherInterfaceBase {
 						((DasherCanvas)m_DasherScreen).renderFrame();
 						//that'll call round to Redraw(boolean) to schedule another frame
 						// if anything happened in this one.
-						while (!frameTasks.isEmpty())
+						FlushEdits();
+						while (!frameTasks.isEmpty()) {
 							frameTasks.remove().run();
+							FlushEdits();
+						}
 					} else if (m_bShutdownLock && tasks.isEmpty())
 						break;
 					else {
 						try {
 							tasks.take().run();
+							FlushEdits();
 						} catch (InterruptedException e) {
 							//we are interrupted if ever BP_DASHER_PAUSED is cleared
 							// (to tell us to start rendering!)
@@ -137,6 +149,10 @@ public class ADasherInterface extends CDasherInterfaceBase {
 		}
 	}
 	
+	@Override public void DebugLog(String msg) {
+		Log.d("DasherIME",msg);
+	}
+	
 	private class Progress implements Runnable, ProgressNotifier {
 		private final String desc;
 		private int percent;
@@ -222,12 +238,37 @@ public class ADasherInterface extends CDasherInterfaceBase {
 		}
 		if (p!=null) p.abort();
 		super.StartShutdown();
+		CloseTrainFiles();
+		if (CSpanTracer.isEnabled()) WriteSpanTrace();
+	}
+	
+	/** Name of file, in {@link #GetPackageDir()}, to which spans are exported if BP_TRACE_SPANS is set */
+	private static final String SPAN_TRACE_FILE = "dasher_trace.json";
+	
+	/** Exports all spans recorded by {@link CSpanTracer}, as a Chrome trace, to {@link #SPAN_TRACE_FILE} */
+	private void WriteSpanTrace() {
+		File pkgDir = GetPackageDir();
+		if (!pkgDir.exists() && !pkgDir.mkdirs()) return;
+		try {
+			Writer w = new BufferedWriter(new FileWriter(new File(pkgDir, SPAN_TRACE_FILE)));
+			try {
+				CSpanTracer.writeChromeTrace(w);
+			} finally {
+				w.close();
+			}
+		} catch (IOException e) {
+			Log.e("DasherIME", "Error writing span trace", e);
+		}
 	}
 	
 	@Override
 	public void CreateModules() {
 		final SharedPreferences prefs=PreferenceManager.getDefaultSharedPreferences(androidCtx);
 		final CDasherInput touch =new CDasherInput("Touch Input") {
+			@Override
+			public void NewFrame(long iTime) {
+				((DasherCanvas)m_DasherScreen).setPredictTime(iTime);
+			}
 			@Override
 			public boolean GetScreenCoords(CDasherView pView, MutablePoint Coordinates) {
 				DasherCanvas surf = (DasherCanvas)m_DasherScreen;
@@ -272,6 +313,10 @@ public class ADasherInterface extends CDasherInterfaceBase {
 					if (horiz) coords.x=tiltC; else coords.y=tiltC;
 					return true;
 				}
+				@Override public void NewFrame(long iTime) {
+					tilt.NewFrame(iTime);
+					touch.NewFrame(iTime);
+				}
 				@Override public void Activate() {tilt.Activate();}
 				@Override public void Deactivate() {tilt.Deactivate();}
 			});
@@ -400,9 +445,14 @@ public class ADasherInterface extends CDasherInterfaceBase {
 
 	@Override
 	public void GetStreams(String fname, Collection<InputStream> into) {
-		//1. system file...
+		//1. system file (which may be gzipped, as TrainStream can decompress it)...
 		try {
-			InputStream in = androidCtx.getAssets().open(fname);
+			InputStream in;
+			try {
+				in = androidCtx.getAssets().open(fname);
+			} catch (FileNotFoundException e) {
+				in = androidCtx.getAssets().open(fname+GZIP_SUFFIX);
+			}
 			if (android.os.Debug.isDebuggerConnected()) {
 				//truncate file to 3k to speed up debugging...
 				byte[] b = new byte[3000]; int p=0;
@@ -415,40 +465,143 @@ public class ADasherInterface extends CDasherInterfaceBase {
 		} catch (IOException e) {
 			//no system training file present. Which is fine; silently skip.
 		}
-		//2. user file(s)
+		//2. user file, anything explicitly/manually provided
+		// (what the user has written with dasher is in GetUserStreams)
 		try {
-			File f = new File(GetPackageDir(),fname); //user-specific file written by dasher
-			if (f.exists()) into.add(new FileInputStream(f));
-			f = new File(USER_DIR, fname); //anything explicitly/manually provided by user
-			if (f.exists()) into.add(new FileInputStream(f));
+			File f = new File(USER_DIR, fname);
+			if (f.exists() || (f = new File(USER_DIR, fname+GZIP_SUFFIX)).exists()) into.add(new FileInputStream(f));
 		} catch (FileNotFoundException fnf) {
 			//we checked f.exists()...
 			throw new AssertionError();
 		}
 	}
 	
+	/** Suffix added to the name of a training file, to get that of a gzipped version of it */
+	private static final String GZIP_SUFFIX = ".gz";
+	/** Suffix added to the name of a training file, to get that of the journal of user-written text for it */
+	private static final String JOURNAL_SUFFIX = ".journal";
+	/** Suffix added to the name of a training file, to get that of the delta learnt from user-written text */
+	private static final String DELTA_SUFFIX = ".delta";
+	
+	/** Journal for each training file used this session, by filename; synchronized on itself */
+	private final Map<String,CTrainingJournal> journals = new HashMap<String,CTrainingJournal>();
+	
+	/**
+	 * Gets the journal for a training file, creating it if necessary. Call on any thread.
+	 * The plain-text training file written by earlier versions (if it exists) comes
+	 * before the text in the journal, so the journal's text starts after it.
+	 */
+	private CTrainingJournal GetJournal(String filename) {
+		synchronized(journals) {
+			CTrainingJournal j = journals.get(filename);
+			if (j==null) {
+				File old = new File(GetPackageDir(), filename);
+				j = new CTrainingJournal(this, new File(GetPackageDir(), filename+JOURNAL_SUFFIX), old.exists() ? old.length() : 0);
+				journals.put(filename, j);
+			}
+			return j;
+		}
+	}
+	
+	/**
+	 * Appends to the {@link CTrainingJournal} for the training file in {@link #GetPackageDir()};
+	 * the text is written out in the background, so this does not wait for storage.
+	 */
 	@Override public void WriteTrainFile(String filename, String s) {
-		String msg;
-		File pkgDir = GetPackageDir();
-		if (pkgDir.exists() || pkgDir.mkdirs()) {
+		GetJournal(filename).append(s);
+	}
+	
+	/**
+	 * Writes out all text sent to {@link #WriteTrainFile(String, String)}, synchronously,
+	 * and closes the journals (stopping their threads); any written after this go to new journals.
+	 */
+	private void CloseTrainFiles() {
+		List<CTrainingJournal> js;
+		synchronized(journals) {
+			js = new ArrayList<CTrainingJournal>(journals.values());
+			journals.clear();
+		}
+		for (CTrainingJournal j : js) {
 			try {
-				//second parameter is whether to append to any existing file - yes, do!
-				PrintWriter pw = new PrintWriter(new FileWriter(new File(pkgDir,filename), true));
-				pw.print(s);
-				pw.flush();
-				pw.close();
-				return; //ok
+				j.close();
 			} catch (IOException e) {
-				msg = e.toString();
+				Message("Error writing training file "+j.getFile()+": "+e, 2);
+			}
+		}
+	}
+	
+	/**
+	 * Opens the plain-text training file written by earlier versions (unless all
+	 * of it has been discarded), and the journal, as far as it has been written
+	 * (flushing it first).
+	 */
+	@Override protected long GetUserStreams(String fname, Collection<InputStream> into) {
+		try {
+			CTrainingJournal j = GetJournal(fname);
+			final long iLength = j.flush(), iBase = j.getBase();
+			long iStart = iBase;
+			File f = new File(GetPackageDir(),fname);
+			if (f.exists()) {
+				if (f.length()==iBase) {
+					into.add(new FileInputStream(f));
+					iStart = 0;
+				} else if (f.length()<iBase) f.delete(); //all learnt, but not deleted before
 			}
-		} else msg = pkgDir+" does not exist and could not create.";
-		android.util.Log.e("DasherIME", "Error writing training file: "+msg);
+			if (iLength>0) into.add(CTrainingJournal.openText(j.getFile(), iLength));
+			return iStart;
+		} catch (IOException e) {
+			android.util.Log.e("DasherIME", "Could not read training file "+fname,e);
+			for (InputStream in : into) try {in.close();} catch (IOException e2) {}
+			into.clear();
+			return 0;
+		}
+	}
+	
+	/**
+	 * Removes the text from the start of the journal; and the plain-text training
+	 * file, once all of it is to be discarded (and the journal records that it was).
+	 */
+	@Override protected void DiscardUserText(String fname, long iPos) throws IOException {
+		GetJournal(fname).discard(iPos);
+		File f = new File(GetPackageDir(), fname);
+		if (f.exists() && f.length()<=iPos) f.delete();
+	}
+	
+	/** Gets the file storing the delta for a training file and alphabet */
+	private File GetDeltaFile(String fname, String alph) {
+		return new File(GetPackageDir(), fname+"."+alph+DELTA_SUFFIX);
+	}
+	
+	@Override protected InputStream OpenUserDelta(String fname, String alph) throws IOException {
+		File f = GetDeltaFile(fname, alph);
+		return f.exists() ? new BufferedInputStream(new FileInputStream(f)) : null;
+	}
+	
+	@Override protected OutputStream CreateUserDelta(String fname, String alph) throws IOException {
+		File pkgDir = GetPackageDir();
+		if (!pkgDir.exists() && !pkgDir.mkdirs()) throw new IOException(pkgDir+" does not exist and could not create.");
+		return new BufferedOutputStream(new FileOutputStream(GetDeltaFile(fname, alph).getPath()+".tmp"));
+	}
+	
+	/** Replaces the delta with the new one (which records how much of the text it includes) */
+	@Override protected void CommitUserDelta(String fname, String alph) throws IOException {
+		File f = GetDeltaFile(fname, alph);
+		if (!new File(f.getPath()+".tmp").renameTo(f))
+			throw new IOException("Could not replace "+f);
 	}
 	
 	/*package*/ int convertAndroidKeycode(int keyCode) {
 		return (m_InputFilter instanceof AndroidKeyMap) ? ((AndroidKeyMap)m_InputFilter).ConvertAndroidKeycode(keyCode) : -1;
 	}
 	
+	/**
+	 * Sends edits the document has accumulated (e.g. over a frame) to the editor,
+	 * all together; call on the Dasher thread after each frame or task.
+	 */
+	private void FlushEdits() {
+		if (doc instanceof InputConnectionDocument) ((InputConnectionDocument)doc).flushEdits();
+	}
+	
 	/** Cache of {@link #GetPackageDir()} */
 	private File PACKAGE_DIR;
 	private EditableDocument doc;
@@ -500,19 +653,25 @@ public class ADasherInterface extends CDasherInterfaceBase {
 		enqueue(new Runnable() {
 			public void run() {
 				Log.d("DasherIME","SetDocument Runnable "+doc);
-				if (ADasherInterface.this.doc!=null) {
-					//get rid of any existing nodes belonging to the old document
-					// (this is in case either old or new documents overrides BP_LM_ADAPTIVE)
-					setOffset(-1,true);
+				final long tSpan = CSpanTracer.begin();
+				try {
+					if (ADasherInterface.this.doc!=null) {
+						//get rid of any existing nodes belonging to the old document
+						// (this is in case either old or new documents overrides BP_LM_ADAPTIVE)
+						setOffset(-1,true);
+					}
+					FlushEdits(); //to the old document
+					ADasherInterface.this.doc = doc;
+					sets.setOverride(doc instanceof SettingsOverride ? (SettingsOverride)doc : null);
+					if (doc==null) return; //finishInput - don't recheck/compute action, wait until next StartInput()
+					boolean hadAction = !icActions.isEmpty();
+					ADasherInterface.this.icActions=actions;
+					if (hadAction || !icActions.isEmpty())
+					    UpdateControlManager();
+					setOffset(cursorPos,true);
+				} finally {
+					CSpanTracer.end("SetDocument", tSpan);
 				}
-				ADasherInterface.this.doc = doc;
-				sets.setOverride(doc instanceof SettingsOverride ? (SettingsOverride)doc : null);
-				if (doc==null) return; //finishInput - don't recheck/compute action, wait until next StartInput()
-				boolean hadAction = !icActions.isEmpty();
-				ADasherInterface.this.icActions=actions;
-				if (hadAction || !icActions.isEmpty())
-				    UpdateControlManager();
-				setOffset(cursorPos,true);
 			}
 		});
 	}
@@ -26,10 +26,15 @@
 package dasher.android;
 
 import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
 
 import android.content.SharedPreferences;
 
 import dasher.CParameterNotFoundException;
+import dasher.CSpanTracer;
 import dasher.CSettingsStore;
 import dasher.EParameters;
 import dasher.Ebp_parameters;
@@ -39,8 +44,29 @@ import dasher.Esp_parameters;
 public class AndroidSettings extends CSettingsStore implements SharedPreferences.OnSharedPreferenceChangeListener {
 
 	private final SharedPreferences pref;
-	private final SharedPreferences.Editor edit;
-	//private boolean modified; //whether anything's been written to the Editor
+	/**
+	 * Settings saved but not yet written to the SharedPreferences, by key
+	 * (so repeated saves of a key are coalesced); values are Boolean, Long or String.
+	 * Non-empty exactly while the save thread is waiting to write it out.
+	 */
+	private final Map<String,Object> dirty = new HashMap<String,Object>();
+	/** Held while flushing, so that two flushes write out their changes in order */
+	private final Object flushLock = new Object();
+	/** Time (ms) to wait after a setting is first saved, for more to save with it */
+	private static final long SAVE_DELAY = 2000;
+	/** Time (ms) for which the save thread sleeps, when idle, before checking whether the settings have been GC'd */
+	private static final long IDLE_CHECK = 60000;
+	/** SharedPreferences.Editor.apply(), which writes asynchronously; null if not available (before API 9) */
+	private static final Method APPLY;
+	static {
+		Method m;
+		try {
+			m = SharedPreferences.Editor.class.getMethod("apply");
+		} catch (NoSuchMethodException e) {
+			m = null;
+		}
+		APPLY = m;
+	}
 	/** We allow the stored settings to be temporarily overriden
 	 * by providing (at most one at a time) instance of this class
 	 * - this allows e.g. properties specific to the document /
@@ -75,59 +101,115 @@ public class AndroidSettings extends CSettingsStore implements SharedPreferences
 	
 	public AndroidSettings(SharedPreferences pref) {
 		this.pref=pref;
-		this.edit=pref.edit();
 		Thread t = new Thread(new SaveTask(this));
 		t.setPriority(Thread.MIN_PRIORITY);
+		t.setDaemon(true);
 		t.start();
 		pref.registerOnSharedPreferenceChangeListener(this);
 		LoadPersistent();
 	}
 	
+	/**
+	 * Sleeps until a setting is saved, then waits {@link #SAVE_DELAY} for any
+	 * others, and writes them all out together. Holds only the preferences and the
+	 * unsaved settings, plus a weak reference to the settings object, so as not to keep
+	 * it alive; while idle, wakes every {@link #IDLE_CHECK} to see if it has been GC'd,
+	 * and if so, exits - having first written out anything it saved.
+	 */
 	private static class SaveTask implements Runnable {
 		private final WeakReference<AndroidSettings> sets;
-		private final SharedPreferences.Editor edit;
+		private final SharedPreferences pref;
+		private final Map<String,Object> dirty;
+		private final Object flushLock;
 		SaveTask(AndroidSettings sets) {
 			this.sets = new WeakReference<AndroidSettings>(sets);
-			this.edit = sets.edit;
+			this.pref = sets.pref;
+			this.dirty = sets.dirty;
+			this.flushLock = sets.flushLock;
 		}
 		public void run() {
 			for (;;) {
-				try {Thread.sleep(1000);}
+				synchronized(dirty) {
+					while (dirty.isEmpty()) {
+						if (sets.get()==null) return; //GC'd, won't be making any more changes!
+						try {dirty.wait(IDLE_CHECK);}
+						catch (InterruptedException e) {}
+					}
+				}
+				try {Thread.sleep(SAVE_DELAY);}
 				catch (InterruptedException e) {}
-				AndroidSettings s = this.sets.get();
-				synchronized(edit) {
-				//	if (sets!=null && !sets.modified)
-				//		continue;
+				write(pref, dirty, flushLock, false);
+			}
+		}
+	}
+	
+	/** Writes out all unsaved settings, synchronously (i.e. before returning). */
+	@Override public void Flush() {
+		write(pref, dirty, flushLock, true);
+	}
+	
+	/**
+	 * Writes out all settings saved since the last write, if any, in a single edit.
+	 * Static, so the save thread can finish writing them after the settings object is GC'd.
+	 * @param pref preferences to write to
+	 * @param dirty unsaved settings (see {@link #dirty}), which are removed
+	 * @param flushLock held while writing (see {@link #flushLock})
+	 * @param bSync true to wait until they have been written to disk; false to do so
+	 * asynchronously, if the platform supports that (otherwise, synchronously anyway)
+	 */
+	private static void write(SharedPreferences pref, Map<String,Object> dirty, Object flushLock, boolean bSync) {
+		synchronized(flushLock) {
+			SharedPreferences.Editor edit;
+			synchronized(dirty) {
+				if (dirty.isEmpty()) return;
+				edit = pref.edit();
+				for (Map.Entry<String,Object> e : dirty.entrySet()) {
+					Object v = e.getValue();
+					if (v instanceof Boolean) edit.putBoolean(e.getKey(), ((Boolean)v).booleanValue());
+					else if (v instanceof Long) edit.putLong(e.getKey(), ((Long)v).longValue());
+					else edit.putString(e.getKey(), (String)v);
+				}
+				dirty.clear();
+			}
+			final long tSpan = CSpanTracer.begin();
+			if (bSync || APPLY==null) {
+				edit.commit();
+			} else {
+				try {
+					APPLY.invoke(edit);
+				} catch (IllegalAccessException e) {
+					edit.commit();
+				} catch (InvocationTargetException e) {
 					edit.commit();
 				}
-				if (s==null) break;//if GC'd, won't be making any more changes!
 			}
+			CSpanTracer.end(bSync ? "Settings commit" : "Settings apply", tSpan);
+		}
+	}
+	
+	/** Records a setting to be written out by the save thread, and wakes it if it's not already waiting to. */
+	private void save(String key, Object value) {
+		synchronized(dirty) {
+			final boolean bWake = dirty.isEmpty();
+			dirty.put(key, value);
+			if (bWake) dirty.notify();
 		}
 	}
 	
 	/** Override stored settings with e.g. document-specific ones.
-	 * Broadcasts an event to all registered listeners, for any parameter
-	 * changing as a result (e.g. overridden when was not before, no
-	 * longer overridden when it was before, overridden to a different value). 
+	 * Broadcasts an event to all registered listeners, once, for each parameter
+	 * whose effective value changes as a result (e.g. overridden to a different
+	 * value than the user's preference, or no longer so) - but not for those
+	 * whose overriding changes without changing their value.
 	 * @param over SettingsOverride to query for overridden settings,
 	 * or null to just use stored settings; replaces any previous such in use.
 	 */
 	public void setOverride(SettingsOverride over) {
-		SettingsOverride oldOver = this.over;
-		this.over=over;
-		for (Ebp_parameters bp : Ebp_parameters.values())
-			if ((oldOver==null ? null : oldOver.overrideBoolParam(bp))
-					!= (over==null ? null : over.overrideBoolParam(bp)))
-				InsertEvent(bp);
-		for (Elp_parameters lp : Elp_parameters.values())
-			if ((oldOver==null ? null : oldOver.overrideLongParam(lp))
-					!= (over==null ? null : over.overrideLongParam(lp)))
-				InsertEvent(lp);
-		for (Esp_parameters sp : Esp_parameters.values()) {
-			final String old = oldOver==null ? null : oldOver.overrideStringParam(sp),
-					n = over==null ? null : over.overrideStringParam(sp);
-			if (old==null ? n!=null : (n==null || !old.equals(n)))
-				InsertEvent(sp);
+		BeginChanges();
+		try {
+			this.over=over;
+		} finally {
+			EndChanges();
 		}
 	}
 	
@@ -207,18 +289,17 @@ public class AndroidSettings extends CSettingsStore implements SharedPreferences
 	}
 
 	protected void SaveSetting(String key, boolean value) {
-		synchronized (edit) {edit.putBoolean(key, value);}
-		
+		save(key, Boolean.valueOf(value));
 	}
 
 
 	protected void SaveSetting(String key, long value) {
-		synchronized (edit) {edit.putLong(key, value);}
+		save(key, Long.valueOf(value));
 	}
 
 
 	protected void SaveSetting(String key, String value) {
-		synchronized (edit) {edit.putString(key, value);}
+		save(key, value);
 	}
 	
 }
\ No newline at end of file
@@ -3,14 +3,27 @@ package dasher.android;
 import dasher.CCustomColours;
 import dasher.CDasherInput;
 import dasher.CDasherScreen;
+import dasher.CDisplayList;
+import dasher.CFramePipeline;
+import dasher.CInputPredictor;
+import dasher.CInputSamples;
+import dasher.CLabelAtlas;
+import dasher.CLabelScreen;
+import dasher.CLayeredScreen;
+import dasher.CMarkerScreen;
+import dasher.CRectBatcher;
+import dasher.Ebp_parameters;
 import dasher.CDasherView.MutablePoint;
 import dasher.CInputFilter;
 import dasher.CDasherView.Point;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.Paint.Style;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -20,13 +33,25 @@ import android.view.SurfaceView;
 import android.view.WindowManager;
 import android.view.SurfaceHolder.Callback;
 
-public class DasherCanvas extends SurfaceView implements Callback, CDasherScreen {
+public class DasherCanvas extends SurfaceView implements Callback, CLabelScreen, CMarkerScreen {
 	private final ADasherInterface intf;
 	private final SurfaceHolder holder;
     private boolean bReady;
 
-	/** coordinates of last touch */
-	private int x,y;
+	/** Touch positions, published by the UI thread as events arrive, for the Dasher thread to read */
+	private final CInputSamples touches = new CInputSamples(64);
+	/**
+	 * Number of the last touch sample at which the finger was lifted, once the
+	 * corresponding KeyUp has been processed (on the Dasher thread, which alone
+	 * accesses this): until then, that sample's position still counts as touched.
+	 */
+	private long releasedSeq;
+	/** Latest sample, as read by {@link #GetCoordinates(MutablePoint)} (Dasher thread only) */
+	private final CInputSamples.Sample touch = new CInputSamples.Sample();
+	/** Predicts the finger position from the samples in {@link #touches} (Dasher thread only) */
+	private final CInputPredictor predictor = new CInputPredictor();
+	/** Time for which {@link #GetCoordinates(MutablePoint)} predicts, or -1 for the latest sample */
+	private long predictTime = -1;
     
 	public DasherCanvas(Context context, ADasherInterface intf) {
 		super(context);
@@ -114,120 +139,414 @@ public class DasherCanvas extends SurfaceView implements Callback, CDasherScreen
 			if (!bReady) return;
 			bReady=false;
 		}
+		//and wait for any frame being drawn (on render thread) to finish
+		synchronized (surfaceLock) {}
 		//then we employ a slower-acting switch to prevent any more
 		//attempts to render frames (i.e. allowing any concurrent rendering
 		// on the Dasher thread to finish) until we have another surfaceChanged:
 		intf.enqueue(new Runnable() {
 			public void run() {
 				intf.ChangeScreen(null);
+				if (pipeline!=null) {
+					pipeline.close();
+					pipeline=null;
+				}
+				nodeBitmap=null; nodeCanvas=null; nodeBitmapValid=false;
 			}
 		});
 	}
 	
+	/**
+	 * Publishes the position(s) of the touch to {@link #touches}, and passes
+	 * presses and releases to the interface as KeyDown/KeyUp (executed on the
+	 * Dasher thread). Never blocks: the Dasher thread reads the latest position
+	 * when it next renders a frame.
+	 */
 	@Override
 	public boolean onTouchEvent(MotionEvent e) {
-		x=(int)e.getX(); y=(int)e.getY();
+		//convert event times (uptime) to the clock used for frames
+		final long offset = System.currentTimeMillis() - SystemClock.uptimeMillis();
+		final long time = e.getEventTime()+offset;
 		switch (e.getAction()) {
 		case MotionEvent.ACTION_DOWN:
-			intf.KeyDown(System.currentTimeMillis(), 100);
+			touches.add(time, (int)e.getX(), (int)e.getY(), CInputSamples.DOWN);
+			intf.KeyDown(time, 100);
+			break;
 		case MotionEvent.ACTION_MOVE:
+			//positions batched into this event since the last
+			for (int i=0; i<e.getHistorySize(); i++)
+				touches.add(e.getHistoricalEventTime(i)+offset, (int)e.getHistoricalX(i), (int)e.getHistoricalY(i), CInputSamples.DOWN);
+			touches.add(time, (int)e.getX(), (int)e.getY(), CInputSamples.DOWN);
 			break;
 		case MotionEvent.ACTION_UP:
 		case MotionEvent.ACTION_OUTSIDE:
-		case MotionEvent.ACTION_CANCEL:
-			intf.KeyUp(System.currentTimeMillis(), 100);
-			x=y=-1;
+		case MotionEvent.ACTION_CANCEL: {
+			final long seq = touches.add(time, (int)e.getX(), (int)e.getY(), 0);
+			//position of release remains available until the KeyUp (e.g. for a click there)
+			intf.enqueue(new Runnable() {
+				public void run() {
+					intf.KeyUp(time, 100);
+					releasedSeq = seq;
+				}
+			});
 			break;
 		}
-		synchronized(this) {
-			try {this.wait(1000);}
-			catch (InterruptedException ex) {}
 		}
 		return true;
 	}
 	
-	/* Gets (screen/pixel) x,y coordinates of last touch event*/
+	/**
+	 * Sets the time for which {@link #GetCoordinates(MutablePoint)} predicts the
+	 * finger position; call on the Dasher thread, from the input's NewFrame.
+	 * @param iTime time in ms, or -1 to use the latest touch event as is
+	 */
+	public void setPredictTime(long iTime) {
+		predictTime = iTime;
+	}
+	
+	/**
+	 * Gets (screen/pixel) x,y coordinates of the finger, as predicted from the
+	 * touch events so far (see {@link #setPredictTime(long)}), if the finger is
+	 * down; or of where it was lifted, if the KeyUp has not yet been processed.
+	 * Call on the Dasher thread.
+	 */
 	public boolean GetCoordinates(MutablePoint coordinates) {
-		if (x==-1) return false;
-		coordinates.init(x,y);
+		if (!predictor.predict(touches, predictTime, coordinates, touch)) return false;
+		if ((touch.flags & CInputSamples.DOWN)==0) {
+			if (touch.seq<=releasedSeq) return false;
+			coordinates.init(touch.x,touch.y);
+		}
 		return true;
 	}
 	
 	private Canvas canvas;
-	private CCustomColours colours;
 	
-	/** Single Paint we'll use for everything - i.e. by changing
-	 * all its parameters for each primitive.
-	 * TODO: think about having multiple Paint objects caching different
-	 * sets of parameters... 
+	/**
+	 * Paints for every colour of a scheme, built when the scheme is set, so
+	 * drawing a primitive need not look up (and unbox) its colour components,
+	 * nor set them (and the style) on a Paint: each is a call into native code.
 	 */
+	private static class Palette {
+		final Paint[] fills, strokes;
+		/** Width to which each of {@link #strokes} is currently set */
+		private final int[] strokeWidths;
+		Palette(CCustomColours colours) {
+			final int n = colours.GetNumColours();
+			fills = new Paint[n]; strokes = new Paint[n];
+			strokeWidths = new int[n];
+			for (int i=0; i<n; i++) {
+				fills[i] = new Paint();
+				fills[i].setColor(colours.GetARGB(i));
+				fills[i].setStyle(Style.FILL);
+				strokes[i] = new Paint();
+				strokes[i].setColor(colours.GetARGB(i));
+				strokes[i].setStyle(Style.STROKE);
+			}
+		}
+		/** Paint for lines and outlines in the specified colour and width */
+		Paint stroke(int iColour, int iWidth) {
+			if (strokeWidths[iColour]!=iWidth) {
+				strokes[iColour].setStrokeWidth(iWidth);
+				strokeWidths[iColour]=iWidth;
+			}
+			return strokes[iColour];
+		}
+	}
+	/** Paints for the current colour scheme. Read by whichever thread replays frames, so volatile */
+	private volatile Palette palette;
+	
+	/** Paint for text and labels, which are always black */
 	private final Paint p = new Paint();
 	/** Use a single Rect object for every rectangle too, avoiding allocation...*/
 	private final Rect r = new Rect();
+	/** Rectangles of a batch with more than one, drawn as a single path */
+	private final Path rectPath = new Path();
+	
+	/** Paint and Rect for measuring text, on the Dasher thread, so they
+	 * can be used concurrently with drawing (by the render thread) */
+	private final Paint measurePaint = new Paint();
+	private final Rect measureRect = new Rect();
+	
+	/** Held while drawing onto the locked surface */
+	private final Object surfaceLock = new Object();
+	
+	/** Max dimensions of {@link LabelBitmap}s, in pixels */
+	private static final int MAX_ATLAS_SIZE = 1024;
 	
+	/** Labels of the current alphabet, rasterised into an 8-bit alpha bitmap */
+	private static class LabelBitmap extends CLabelAtlas {
+		final Bitmap bitmap;
+		LabelBitmap(CDasherScreen measurer, String[] texts, int[] sizes) {
+			super(measurer, texts, sizes, MAX_ATLAS_SIZE, MAX_ATLAS_SIZE);
+			bitmap = Bitmap.createBitmap(Math.max(getWidth(),1), Math.max(getHeight(),1), Bitmap.Config.ALPHA_8);
+			Canvas c = new Canvas(bitmap);
+			Paint p = new Paint();
+			Rect r = new Rect();
+			//same as painter.DrawString
+			p.setARGB(255, 0, 0, 0);
+			p.setStyle(Style.FILL_AND_STROKE);
+			p.setStrokeWidth(1);
+			for (int i=0; i<getNumLabels(); i++) {
+				String text = getText(i);
+				p.setTextSize(getSize(i));
+				p.getTextBounds(text, 0, text.length(), r);
+				c.drawText(text, getX(i)-r.left, getY(i)-r.top, p);
+			}
+		}
+	}
+	
+	/** Labels to blit, rather than draw as text, on the render thread; or null */
+	private volatile LabelBitmap labels;
+	/** Source and destination rectangles for blitting labels (render thread only) */
+	private final Rect labelSrc = new Rect(), labelDst = new Rect();
+	
+	/** Draws primitives onto {@link #canvas}, which must be locked */
+	private final CDasherScreen painter = new CDasherScreen() {
+		public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {
+			final Palette pal = palette;
+			if (iFillColour!=-1) canvas.drawCircle(iCX, iCY, iR, pal.fills[iFillColour]);
+			//and outline
+			if (iLineWidth>0) {
+				if (iLineColour==-1) iLineColour = CRectBatcher.DEFAULT_OUTLINE_COLOUR;
+				canvas.drawCircle(iCX, iCY, iR, pal.stroke(iLineColour, iLineWidth));
+			}
+		}
+		public void DrawRectangle(int x1, int y1, int x2, int y2,
+				int iFillColour, int iOutlineColour,
+				int iThickness) {
+			final Palette pal = palette;
+			r.left = x1; r.right = x2;
+			r.top = y1; r.bottom = y2;
+			if (iFillColour != -1) canvas.drawRect(r, pal.fills[iFillColour]);
+			if (iThickness>0) {
+				if (iOutlineColour==-1) iOutlineColour = CRectBatcher.DEFAULT_OUTLINE_COLOUR;
+				canvas.drawRect(r, pal.stroke(iOutlineColour, iThickness));
+			}
+		}
+		public void DrawString(String string, int x1, int y1, int Size) {
+			final LabelBitmap l = labels;
+			final int i = (l==null) ? -1 : l.find(string, Size);
+			if (i!=-1) {
+				final int pad = CLabelAtlas.PAD, w = l.getLabelWidth(i), h = l.getLabelHeight(i);
+				labelSrc.left = l.getX(i)-pad; labelSrc.top = l.getY(i)-pad;
+				labelSrc.right = labelSrc.left+w+2*pad; labelSrc.bottom = labelSrc.top+h+2*pad;
+				labelDst.left = x1-pad; labelDst.top = y1-pad;
+				labelDst.right = labelDst.left+w+2*pad; labelDst.bottom = labelDst.top+h+2*pad;
+				p.setARGB(255, 0, 0, 0); //alpha bitmap is drawn in paint's colour
+				canvas.drawBitmap(l.bitmap, labelSrc, labelDst, p);
+				return;
+			}
+			//not in atlas (e.g. control node, or font size changed): draw directly
+			p.setTextSize(Size);
+			p.setARGB(255, 0, 0, 0);
+			p.setStyle(Style.FILL_AND_STROKE);
+			p.setStrokeWidth(1);
+			p.getTextBounds(string, 0, string.length(), r);
+			y1-=r.top;
+			x1-=r.left;
+			canvas.drawText(string, x1, y1, p);
+		}
+		public void Polygon(Point[] Points, int fillColour, int iOutlineColour,
+				int iWidth) {
+			// TODO Auto-generated method stub
+			
+		}
+		public void drawLine(int x0, int y0, int x1, int y1, int iWidth, int iColour) {
+			canvas.drawLine(x0, y0, x1, y1, palette.stroke(iColour, iWidth));
+		}
+		public int GetHeight() { 
+			return DasherCanvas.this.getHeight();
+		}
+		public int GetWidth() {
+			return DasherCanvas.this.getWidth();
+		}
+		public void SetColourScheme(CCustomColours colours) {
+			palette = new Palette(colours);
+		}
+		public Point TextSize(String string, int iSize) {
+			measurePaint.setTextSize(iSize);
+			measurePaint.getTextBounds(string, 0, string.length(), measureRect);
+			return new Point(measureRect.right-measureRect.left, measureRect.bottom-measureRect.top);
+		}
+	};
 	
+	/**
+	 * Display lists are replayed through this, so that rectangles which can be
+	 * drawn together (with the same paint, and not separated by anything
+	 * overlapping them) are drawn onto {@link #canvas} with a single call.
+	 */
+	private final CRectBatcher batcher = new CRectBatcher(painter, new CRectBatcher.Sink() {
+		public void drawRects(int iColour, int iThickness, int[] rects, int iCount) {
+			final Palette pal = palette;
+			final Paint paint = (iThickness==0) ? pal.fills[iColour] : pal.stroke(iColour, iThickness);
+			if (iCount==1) {
+				r.set(rects[0], rects[1], rects[2], rects[3]);
+				canvas.drawRect(r, paint);
+				return;
+			}
+			rectPath.rewind();
+			for (int i=0; i<4*iCount; i+=4)
+				rectPath.addRect(rects[i], rects[i+1], rects[i+2], rects[i+3], Path.Direction.CW);
+			canvas.drawPath(rectPath, paint);
+		}
+	});
+	
+	/** Draws a display list onto {@link #canvas}, which must be locked, batching rectangles */
+	private void replay(CDisplayList list) {
+		list.replay(batcher);
+		batcher.flush();
+	}
+	
+	/** Primitives drawn by Dasher, recorded into separate layers for nodes and
+	 * decorations; as we are a CMarkerScreen, nodes are only redrawn when they move */
+	private final CLayeredScreen layers = new CLayeredScreen(painter);
+	
+	/** If BP_PIPELINE_RENDER is set, hands frames over to a separate render thread; else null */
+	private CFramePipeline pipeline;
+	
+	/** When not using {@link #pipeline}, raster of the node layer, onto which decorations
+	 * are composited while the model is still; null if none, e.g. could not be allocated */
+	private Bitmap nodeBitmap;
+	private Canvas nodeCanvas;
+	/** Whether {@link #nodeBitmap} holds the node layer as last drawn; false after any
+	 * frame which redrew the nodes, until the next frame which didn't */
+	private boolean nodeBitmapValid;
+	/** Area of the surface to redraw when only decorations have changed */
+	private final Rect damage = new Rect();
+	
+	/**
+	 * Renders a frame: Dasher draws (walking the node tree etc.) into
+	 * display lists, which are then replayed onto the canvas; so the
+	 * surface need be locked only for the replay. If BP_PIPELINE_RENDER
+	 * is set, the replay is done on a separate thread, in parallel with
+	 * computing the next frame; otherwise, once the model stops, the nodes are
+	 * rasterised into {@link #nodeBitmap}, so that while it is still, only the area
+	 * of the decorations need be redrawn (and nothing, if they are unchanged).
+	 */
 	public void renderFrame() {
 		synchronized(this) {
 			if (!bReady) {
 				return;
 			}
 		}
-		canvas = holder.lockCanvas();
-		//after a surfaceDestroyed(), renderFrame() can be called once more before we setCanvas(null) to stop it...
-		// in which case, canvas==null and we won't be able to draw anything. But let's at least not NullPtrEx!
-		if (canvas==null) return;
-		try { 
-			intf.NewFrame(System.currentTimeMillis());
+		layers.beginFrame();
+		intf.NewFrame(System.currentTimeMillis());
+		final CLayeredScreen.Change change = layers.endFrame();
+		if (intf.GetBoolParameter(Ebp_parameters.BP_PIPELINE_RENDER)) {
+			if (pipeline==null) {
+				pipeline = new CFramePipeline(painter, new CFramePipeline.Presenter() {
+					public void present(CDisplayList frame) {
+						DasherCanvas.this.present(frame);
+					}
+				}, true);
+				nodeBitmap=null; nodeCanvas=null; nodeBitmapValid=false; //we won't keep it up-to-date
+			}
+			if (change!=CLayeredScreen.Change.NONE) {
+				CDisplayList frame = pipeline.beginFrame();
+				layers.getNodes().replay(frame);
+				layers.getDecorations().replay(frame);
+				pipeline.endFrame();
+			}
+		} else {
+			if (pipeline!=null) {
+				pipeline.close();
+				pipeline=null;
+				layers.invalidate(); //nothing rasterised while pipelining
+			}
+			if (change!=CLayeredScreen.Change.NONE) presentLayers(change);
+		}
+	}
+	
+	/**
+	 * Lock the canvas and draw the layers onto it. If the nodes have changed
+	 * (as every frame while Dasher is moving), both layers are replayed straight
+	 * onto the canvas. If only the decorations have, the nodes are rasterised into
+	 * {@link #nodeBitmap} (unless already there from an earlier such frame), and
+	 * only the area the decorations cover (now, or in the last frame) is locked,
+	 * and restored from the bitmap before drawing them.
+	 */
+	private void presentLayers(CLayeredScreen.Change change) {
+		synchronized(surfaceLock) {
+			synchronized(this) {
+				if (!bReady) return;
+			}
+			if (change==CLayeredScreen.Change.ALL) nodeBitmapValid=false;
+			else if (!nodeBitmapValid) rasteriseNodes();
+			if (change==CLayeredScreen.Change.DECORATIONS && nodeBitmapValid) {
+				final int[] d = layers.getDamage();
+				damage.set(d[0], d[1], d[2]+1, d[3]+1);
+				//may enlarge damage, in which case we must redraw all of it
+				canvas = holder.lockCanvas(damage);
+			} else
+				canvas = holder.lockCanvas();
+			if (canvas==null) return;
+			try {
+				if (nodeBitmapValid) canvas.drawBitmap(nodeBitmap, 0, 0, null);
+				else replay(layers.getNodes());
+				replay(layers.getDecorations());
+			} finally {
+				holder.unlockCanvasAndPost(canvas);
+				canvas=null;
+			}
+		}
+	}
+	
+	/**
+	 * Draw the node layer (from its display list) into {@link #nodeBitmap},
+	 * (re)allocating it if necessary, and set {@link #nodeBitmapValid} if we could.
+	 */
+	private void rasteriseNodes() {
+		final int w = getWidth(), h = getHeight();
+		if (nodeBitmap==null || nodeBitmap.getWidth()!=w || nodeBitmap.getHeight()!=h) {
+			nodeBitmap=null; nodeCanvas=null; //allow GC of old before allocating new
+			if (w<=0 || h<=0) return;
+			try {
+				nodeBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+				nodeCanvas = new Canvas(nodeBitmap);
+			} catch (OutOfMemoryError e) {
+				//do without: redraw the nodes from their display list every frame
+				nodeBitmap=null; nodeCanvas=null;
+				return;
+			}
+		}
+		canvas = nodeCanvas;
+		try {
+			replay(layers.getNodes());
+			nodeBitmapValid=true;
 		} finally {
-			holder.unlockCanvasAndPost(canvas);
 			canvas=null;
 		}
-		//tell the UI thread we're now ready for another touch event....
-		synchronized(this) {this.notify();}
 	}
 	
-	public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {
-		if (iFillColour!=-1) {
-			p.setARGB(255, colours.GetRed(iFillColour), colours.GetGreen(iFillColour), colours.GetBlue(iFillColour));
-			p.setStyle(Style.FILL);
-			canvas.drawCircle(iCX, iCY, iR, p);
-		}
-		//and outline
-		if (iLineWidth>0) {
-			if (iLineColour==-1) iLineColour=3; //TODO hardcoded default
-			p.setARGB(255, colours.GetRed(iLineColour), colours.GetGreen(iLineColour), colours.GetBlue(iLineColour));
-			p.setStyle(Style.STROKE);
-			p.setStrokeWidth(iLineWidth);
-			canvas.drawCircle(iCX, iCY, iR, p);
+	/** Lock the canvas, replay a frame onto it, and post it */
+	private void present(CDisplayList frame) {
+		synchronized(surfaceLock) {
+			synchronized(this) {
+				if (!bReady) return;
+			}
+			canvas = holder.lockCanvas();
+			//after a surfaceDestroyed(), we can be called once more before we setCanvas(null) to stop it...
+			// in which case, canvas==null and we won't be able to draw anything. But let's at least not NullPtrEx!
+			if (canvas==null) return;
+			try {
+				replay(frame);
+			} finally {
+				holder.unlockCanvasAndPost(canvas);
+				canvas=null;
+			}
 		}
 	}
+	
+	public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {
+		layers.DrawCircle(iCX, iCY, iR, iFillColour, iLineColour, iLineWidth);
+	}
 	public void DrawRectangle(int x1, int y1, int x2, int y2,
 			int iFillColour, int iOutlineColour,
 			int iThickness) {
-		r.left = x1; r.right = x2;
-		r.top = y1; r.bottom = y2;
-		if (iFillColour != -1) {
-			p.setARGB(255, colours.GetRed(iFillColour), colours.GetGreen(iFillColour), colours.GetBlue(iFillColour));
-			p.setStyle(Style.FILL);
-			canvas.drawRect(r, p);
-		}
-		if (iThickness>0) {
-			if (iOutlineColour==-1) iOutlineColour = 3; //TODO hardcoded default
-			p.setARGB(255, colours.GetRed(iOutlineColour), colours.GetGreen(iOutlineColour), colours.GetBlue(iOutlineColour));
-			p.setStyle(Style.STROKE);
-			p.setStrokeWidth(iThickness); 
-			canvas.drawRect(r,p);
-		}
+		layers.DrawRectangle(x1, y1, x2, y2, iFillColour, iOutlineColour, iThickness);
 	}
 	public void DrawString(String string, int x1, int y1, int Size) {
-		p.setTextSize(Size);
-		p.setARGB(255, 0, 0, 0);
-		p.setStyle(Style.FILL_AND_STROKE);
-		p.setStrokeWidth(1);
-		p.getTextBounds(string, 0, string.length(), r);
-		y1-=r.top;
-		x1-=r.left;
-		canvas.drawText(string, x1, y1, p);
+		layers.DrawString(string, x1, y1, Size);
 	}
 	
 	public int GetHeight() { 
@@ -238,21 +557,28 @@ public class DasherCanvas extends SurfaceView implements Callback, CDasherScreen
 	}
 	public void Polygon(Point[] Points, int fillColour, int iOutlineColour,
 			int iWidth) {
-		// TODO Auto-generated method stub
-		
+		layers.Polygon(Points, fillColour, iOutlineColour, iWidth);
 	}
 	public void drawLine(int x0, int y0, int x1, int y1, int iWidth, int iColour) {
-		p.setStrokeWidth(iWidth);
-		p.setARGB(255, colours.GetRed(iColour), colours.GetGreen(iColour), colours.GetBlue(iColour));
-		canvas.drawLine(x0, y0, x1, y1, p);
+		layers.drawLine(x0, y0, x1, y1, iWidth, iColour);
 	}
 	public void SetColourScheme(CCustomColours colours) {
-		this.colours = colours;
+		palette = new Palette(colours);
+		layers.invalidate(); //nodes must be rasterised in the new colours
+	}
+	public void SendMarker(int iMarker) {
+		layers.SendMarker(iMarker);
+	}
+	public void Display() {
+		//nothing: renderFrame presents whatever changed
 	}
 	public Point TextSize(String string, int iSize) {
-		p.setTextSize(iSize);
-		p.getTextBounds(string, 0, string.length(), r);
-		return new Point(r.right-r.left, r.bottom-r.top);// - r.left, r.bottom - r.top);
+		return painter.TextSize(string, iSize);
+	}
+	/** Rasterises the labels into a new {@link LabelBitmap}, which the render thread then uses */
+	public void setLabels(String[] texts, int[] sizes) {
+		LabelBitmap l = new LabelBitmap(painter, texts, sizes);
+		labels = (l.getNumLabels()==0) ? null : l;
 	}
 	
 }
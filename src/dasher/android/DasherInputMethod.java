@@ -88,14 +88,14 @@ public class DasherInputMethod extends InputMethodService {
 		if (PreferenceManager.getDefaultSharedPreferences(this).getBoolean("AndroidSettingsNode", false)) {
 			acts.add(SETTINGS);
 		}
-		ControlAction icAction=makeICAction(ic, attribute);
-		if (icAction!=null) acts.add(icAction);
 		doc=InputTypes.isPassword(attribute) ? new InputConnectionDocument(intf, ic, initCursorPos, initNumSel) {
 			public Boolean overrideBoolParam(Ebp_parameters bp) {
 				return (bp==Ebp_parameters.BP_LM_ADAPTIVE) ? Boolean.FALSE : null;
 			}
 			public String toString() {return "ICDoc-no-learn";}
 		} : new InputConnectionDocument(intf, ic, initCursorPos, initNumSel);
+		ControlAction icAction=makeICAction(doc, attribute);
+		if (icAction!=null) acts.add(icAction);
 		intf.SetDocument(doc, acts, initCursorPos-1);
 
 		//that'll ensure a setOffset() task is enqueued first...
@@ -197,7 +197,7 @@ public class DasherInputMethod extends InputMethodService {
 		Log.d("DasherIME","Completions: "+Arrays.toString(ci));
 	}*/
 	
-	private static ControlAction makeICAction(final InputConnection ic,
+	private static ControlAction makeICAction(final InputConnectionDocument doc,
 			final EditorInfo attribute) {
 		if ((attribute.imeOptions & EditorInfo.IME_FLAG_NO_ACCESSORY_ACTION)!=0
 				|| (attribute.imeOptions & EditorInfo.IME_MASK_ACTION) == EditorInfo.IME_ACTION_NONE)
@@ -208,7 +208,10 @@ public class DasherInputMethod extends InputMethodService {
 			? attribute.actionId : (attribute.imeOptions & EditorInfo.IME_MASK_ACTION);
 		final String actionLabel = getActionLabel(attribute, actionId);
 		final ControlAction act = new CControlManager.FixedSuccessorsAction(actionLabel, (ControlAction)null) {
-			public void happen(CControlManager mgr, dasher.CDasherNode node) {ic.performEditorAction(actionId);}
+			public void happen(CControlManager mgr, dasher.CDasherNode node) {
+				doc.flushEdits(); //editor should act on all text written first
+				doc.getInputConnection().performEditorAction(actionId);
+			}
 		};
 		if ((attribute.imeOptions & EditorInfo.IME_FLAG_NO_ENTER_ACTION)==0) return act;
 		return new CControlManager.FixedSuccessorsAction(actionLabel+"?", null, act, null);
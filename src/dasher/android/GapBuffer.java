@@ -0,0 +1,73 @@
+package dasher.android;
+
+/**
+ * Growable sequence of chars, cheap to edit repeatedly at or near one place
+ * (e.g. a cursor): the unused capacity is kept as a gap at the point of the
+ * last edit, so inserting or deleting there moves no other chars. Inserting at
+ * either end is also cheap, apart from (amortized) growth.
+ */
+public class GapBuffer {
+	private char[] data=new char[64];
+	/** Chars [0,gapStart) and [gapEnd,data.length) are the contents; in between is free */
+	private int gapStart, gapEnd=data.length;
+
+	public int length() {
+		return data.length-(gapEnd-gapStart);
+	}
+
+	public char charAt(int i) {
+		if (i<0 || i>=length()) throw new IndexOutOfBoundsException(i+" of "+length());
+		return data[(i<gapStart) ? i : i+gapEnd-gapStart];
+	}
+
+	public void clear() {
+		gapStart=0; gapEnd=data.length;
+	}
+
+	/** Inserts chars so that the first is at index pos (and the char previously there follows the last) */
+	public void insert(int pos, CharSequence s) {
+		insert(pos, s, 0, s.length());
+	}
+
+	/** Inserts chars [start,end) of s, so that the first is at index pos */
+	public void insert(int pos, CharSequence s, int start, int end) {
+		final int n=end-start;
+		if (gapEnd-gapStart < n) grow(n);
+		moveGap(pos);
+		for (int i=start; i<end; i++) data[gapStart++]=s.charAt(i);
+	}
+
+	/** Removes n chars starting at index pos */
+	public void delete(int pos, int n) {
+		if (pos<0 || n<0 || pos+n>length()) throw new IndexOutOfBoundsException(pos+"+"+n+" of "+length());
+		moveGap(pos);
+		gapEnd+=n;
+	}
+
+	private void moveGap(int pos) {
+		if (pos<0 || pos>length()) throw new IndexOutOfBoundsException(pos+" of "+length());
+		if (pos<gapStart) {
+			final int n=gapStart-pos;
+			System.arraycopy(data, pos, data, gapEnd-n, n);
+			gapStart-=n; gapEnd-=n;
+		} else if (pos>gapStart) {
+			final int n=pos-gapStart;
+			System.arraycopy(data, gapEnd, data, gapStart, n);
+			gapStart+=n; gapEnd+=n;
+		}
+	}
+
+	/** Enlarges the gap to at least n chars */
+	private void grow(int n) {
+		final int len=length();
+		char[] ndata = new char[Math.max(2*data.length, len+n)];
+		final int nGapEnd = ndata.length-(data.length-gapEnd);
+		System.arraycopy(data, 0, ndata, 0, gapStart);
+		System.arraycopy(data, gapEnd, ndata, nGapEnd, data.length-gapEnd);
+		data=ndata; gapEnd=nGapEnd;
+	}
+
+	public String toString() {
+		return new StringBuilder(length()).append(data, 0, gapStart).append(data, gapEnd, data.length-gapEnd).toString();
+	}
+}
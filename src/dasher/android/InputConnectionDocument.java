@@ -1,6 +1,7 @@
 package dasher.android;
 
 import android.view.inputmethod.InputConnection;
+import dasher.CSpanTracer;
 import dasher.Ebp_parameters;
 import dasher.EditableDocument;
 import dasher.Elp_parameters;
@@ -82,8 +83,9 @@ public class InputConnectionDocument implements EditableDocument, AndroidSetting
 				}
 			}
 			//ok - not expecting this position/selection - i.e. it is not a result of a Dasher output/delete.
+			// So the text may have been edited by someone else, too.
 			synchronized(this) {
-				cacheContent=null; cacheStart=-1;
+				bMirrorValid=false;
 				if (new_lastCursorPos==Integer.MIN_VALUE) iface.enqueue(this);
 				new_lastCursorPos = nPos;
 				new_numSelectedChars = nSel;
@@ -94,51 +96,100 @@ public class InputConnectionDocument implements EditableDocument, AndroidSetting
 	}
 	
 	/** On Dasher Thread, when we've enqueued ourselves */
-	public synchronized void run() {
-		//android.util.Log.d("DasherIME","DasherThread update lastCursorPos to"+new_lastCursorPos);
-		iface.setOffset(lastCursorPos = new_lastCursorPos, false);
-		numSelectedChars = new_numSelectedChars;
-		iface.Redraw(true);
-		new_lastCursorPos=Integer.MIN_VALUE;
+	public void run() {
+		flushEdits(); //made before the cursor moved, so send them before we move too
+		synchronized(this) {
+			//android.util.Log.d("DasherIME","DasherThread update lastCursorPos to"+new_lastCursorPos);
+			bMirrorValid=false; //anchored at the old cursor (if a new one was made since setSelection)
+			iface.setOffset(lastCursorPos = new_lastCursorPos, false);
+			numSelectedChars = new_numSelectedChars;
+			iface.Redraw(true);
+			new_lastCursorPos=Integer.MIN_VALUE;
+		}
 	}
 
-	/** On Dasher Thread, rendering a frame, when some node has been exitted */
+	/** On Dasher Thread, rendering a frame, when some node has been exitted.
+	 * Not sent to the InputConnection until {@link #flushEdits()}. */
 	public void deleteText(String ch, int offset) {
-		synchronized (expectedOffsets) {
-			synchronized(this) {
-				//android.util.Log.d("DasherIME","Deleting "+ch+" with cursorPos "+lastCursorPos+" (will be "+(lastCursorPos-ch.length())+")");
-				ic.deleteSurroundingText(ch.length(), 0);
-				if (lastCursorPos!=offset) throw new IllegalStateException();
-				lastCursorPos-=ch.length();
-				expectedOffsets.push(lastCursorPos);
-				cacheContent=null; cacheStart=-1;
+		synchronized(this) {
+			//android.util.Log.d("DasherIME","Deleting "+ch+" with cursorPos "+lastCursorPos+" (will be "+(lastCursorPos-ch.length())+")");
+			if (lastCursorPos!=offset) throw new IllegalStateException();
+			if (pendingText.length()>=ch.length())
+				pendingText.setLength(pendingText.length()-ch.length()); //never sent
+			else {
+				pendingDelBefore += ch.length()-pendingText.length();
+				pendingText.setLength(0);
+			}
+			if (bMirrorValid) {
+				//delete from mirror too, as much of the text as it holds
+				final int iCursor = lastCursorPos+1-mirrorStart, k = Math.min(ch.length(), iCursor);
+				mirror.delete(iCursor-k, k);
+				mirrorStart -= ch.length()-k;
 			}
+			lastCursorPos-=ch.length();
 		}
 	}
 
-	/** On Dasher Thread, rendering a frame, when some node has been entered */
+	/** On Dasher Thread, rendering a frame, when some node has been entered.
+	 * Not sent to the InputConnection until {@link #flushEdits()}. */
 	public void outputText(String ch, int offset) {
+		synchronized(this) {
+			final int iCursor = lastCursorPos+1-mirrorStart;
+			if (numSelectedChars>0) {
+				//android.util.Log.d("DasherIME","Deleting "+numSelectedChars+" selected chars with cursorPos "+lastCursorPos);
+				pendingDelAfter += numSelectedChars;
+				if (bMirrorValid) mirror.delete(iCursor, Math.min(numSelectedChars, mirror.length()-iCursor));
+				numSelectedChars=0;
+			}
+			//android.util.Log.d("DasherIME","Outputting "+ch+" with cursorPos "+lastCursorPos+" (will be "+(lastCursorPos+ch.length())+")");
+			if (lastCursorPos != offset-ch.length()) throw new IllegalStateException();
+			pendingText.append(ch);
+			if (bMirrorValid) mirror.insert(iCursor, ch);
+			lastCursorPos+=ch.length();
+		}
+	}
+	
+	/** Net effect of the edits made since the last {@link #flushEdits()}: delete
+	 * pendingDelBefore chars before the cursor and pendingDelAfter after it, then
+	 * insert pendingText. (Dasher only edits at the cursor, so any sequence of
+	 * edits reduces to this.) Guarded by this. */
+	private int pendingDelBefore, pendingDelAfter;
+	private final StringBuilder pendingText = new StringBuilder();
+	
+	/**
+	 * Sends the edits made since the last call to the InputConnection, as one
+	 * net edit in a single batch; and records the one cursor position to which
+	 * Android will then report the cursor to have moved. Call on the Dasher thread
+	 * at the end of each frame (or other task), and before any other use of the
+	 * InputConnection.
+	 */
+	public void flushEdits() {
 		synchronized(expectedOffsets) {
 			synchronized(this) {
-				if (numSelectedChars>0) {
-					//android.util.Log.d("DasherIME","Deleting "+numSelectedChars+" selected chars with cursorPos "+lastCursorPos);
-					ic.deleteSurroundingText(0, numSelectedChars);
-					numSelectedChars=0;
-				}
-				//android.util.Log.d("DasherIME","Outputting "+ch+" with cursorPos "+lastCursorPos+" (will be "+(lastCursorPos+ch.length())+")");
-				if (lastCursorPos != offset-ch.length()) throw new IllegalStateException();
-				ic.commitText(ch, 1); //position cursor just after
-				lastCursorPos+=ch.length();
-				expectedOffsets.push(lastCursorPos);
-				cacheContent=null; cacheStart=-1;
+				if (pendingDelBefore==0 && pendingDelAfter==0 && pendingText.length()==0) return;
+				final long tSpan = CSpanTracer.begin();
+				ic.beginBatchEdit();
+				//(the editor notifies the cursor position only at the end of the batch; an
+				// offset expected after the deletion, but never notified, would linger
+				// in expectedOffsets, and could make a later foreign edit look like ours)
+				if (pendingDelBefore>0 || pendingDelAfter>0)
+					ic.deleteSurroundingText(pendingDelBefore, pendingDelAfter);
+				if (pendingText.length()>0) ic.commitText(pendingText.toString(), 1); //position cursor just after
+				ic.endBatchEdit();
+				//(unless someone else has moved the cursor, and we've not caught up: then the edit
+				// went in at their cursor, not lastCursorPos; so let the notification rebase us)
+				if (new_lastCursorPos==Integer.MIN_VALUE) expectedOffsets.push(lastCursorPos);
+				pendingDelBefore=pendingDelAfter=0;
+				pendingText.setLength(0);
+				CSpanTracer.end("flushEdits", tSpan);
 			}
 		}
 	}
 
 	/** Get char at position <code>idx</code>, or null if no such;
 	 * should be called only on Dasher thread.
-	 * Attempts to update cacheContent/cacheStart to include the specified character,
-	 * if necessary; then returns contents of cache.
+	 * Attempts to extend the mirror to include the specified character,
+	 * if necessary; then returns it from the mirror.
 	 * @param num Index of desired <em>character</em> (not cursor position - so 0 = first char)
 	 * @return null, if we couldn't get that character from the InputConnection; else, a single
 	 * char, wrapped in a Character
@@ -151,58 +202,103 @@ public class InputConnectionDocument implements EditableDocument, AndroidSetting
 				return null;
 			}
 		}
-		/*synchronized(expectedOffsets) {
-		while (expectedOffsets.size()>0)
-			//we've sent text to the IC, but it hasn't called us back yet.
-			//So we don't know where the IC thinks the cursor is atm.
-			try {
-				android.util.Log.d("DasherIME","Waiting for IC callback...");
-				expectedOffsets.wait();
-			} catch (InterruptedException e) {}*/
+		//before asking the InputConnection for any text, make sure it has all our edits
+		if (!inMirror(num)) flushEdits();
 		synchronized(this) {
-			if (cacheContent==null || cacheStart>num || cacheContent.length()+cacheStart<=num) {
-				int cursorPos = (new_lastCursorPos==Integer.MIN_VALUE) ? lastCursorPos : new_lastCursorPos;
-				//in latter case, IC has told us cursor has moved, but we've not rebuilt yet(?!)
-				if (num>cursorPos) {
-					//desired character is after cursor
-					CharSequence s = ic.getTextAfterCursor(num-cursorPos, 0);
-					if (s==null || s.length() < num-cursorPos) {
-						//android.util.Log.d("DasherIME","Requested "+(num-cursorPos)+" chars after cursor, got \""+s+"\"");
-						return null;
-					}
-					// ok, must have received some data we didn't have before
-					if (cacheContent!=null && cacheStart<=cursorPos && cacheStart+cacheContent.length()>cursorPos)
-						//keep what we already had _before_ the cursor, if contiguous up to the cursor
-						cacheContent = cacheContent.substring(0,cursorPos+1-cacheStart)+s;
-					else {
-						cacheStart = cursorPos+1;//first char in cache, is _after_ cursor
-						cacheContent=s.toString();
-					}
-				} else {
-					CharSequence s = ic.getTextBeforeCursor(cursorPos+1-num, 0);
-					if (s==null || s.length() < cursorPos+1-num) {
-						//android.util.Log.d("DasherIME","Requested "+(cursorPos+1-num)+" chars before cursor, got \""+s+"\"");
-						return null;
-					}
-					if (cacheContent!=null && cacheStart<=cursorPos && cacheStart+cacheContent.length()>cursorPos+1) {
-						//keep anything strictly after cursor, if contiguous with what's before
-						cacheContent = s + cacheContent.substring(cursorPos+1-cacheStart);
-					} else cacheContent = s.toString();
-					cacheStart = cursorPos+1-s.length();
-				}
+			//IC has told us cursor has moved, but we've not rebuilt yet: so Dasher's edits (and the
+			// mirror) are still relative to lastCursorPos, but the IC's text relative to the new position
+			if (new_lastCursorPos!=Integer.MIN_VALUE) return readDirect(num, new_lastCursorPos);
+			if (!inMirror(num)) {
+				final long tSpan = CSpanTracer.begin();
+				final boolean bOk = fetch(num);
+				CSpanTracer.end("getCharAt miss", tSpan);
+				if (!bOk) return null;
 			}
-			return cacheContent.charAt(num-cacheStart);
+			return mirror.charAt(num-mirrorStart);
+		}
+	}
+
+	private synchronized boolean inMirror(int num) {
+		return bMirrorValid && num>=mirrorStart && num<mirrorStart+mirror.length();
+	}
+
+	/** Number of characters beyond those wanted, to request from the InputConnection,
+	 * so that subsequent requests (e.g. for the preceding characters) can be answered
+	 * from the mirror */
+	private static final int FETCH_AHEAD = 512;
+	
+	/** Gets a character from the InputConnection, without using or updating the mirror;
+	 * caller must hold lock.
+	 * @param cursorPos position of the InputConnection's cursor, Dasher-style
+	 * @return the character, or null if the InputConnection didn't return enough text
+	 */
+	private Character readDirect(int num, int cursorPos) {
+		if (num>cursorPos) {
+			CharSequence s = ic.getTextAfterCursor(num-cursorPos, 0);
+			return (s==null || s.length() < num-cursorPos) ? null : s.charAt(num-cursorPos-1);
+		}
+		if (num<0) return null;
+		CharSequence s = ic.getTextBeforeCursor(cursorPos+1-num, 0);
+		return (s==null || s.length() < cursorPos+1-num) ? null : s.charAt(0);
+	}
+	
+	/** Attempts to extend the mirror to include the specified character,
+	 * by requesting text from the InputConnection; caller must hold lock,
+	 * and the InputConnection's cursor must be at lastCursorPos (i.e. no
+	 * move by someone else pending).
+	 * (If the mirror is not valid, starts a new one, empty, at the cursor.)
+	 * @return false if the InputConnection didn't return enough text
+	 */
+	private boolean fetch(int num) {
+		final int cursorPos = lastCursorPos;
+		if (!bMirrorValid) {
+			mirror.clear();
+			mirrorStart = cursorPos+1;
+			bMirrorAtStart = bMirrorAtEnd = false;
+			bMirrorValid = true;
+		}
+		if (num>cursorPos) {
+			//desired character is after cursor
+			if (bMirrorAtEnd) return false;
+			final int have = mirrorStart+mirror.length()-(cursorPos+1); //chars after cursor in mirror
+			final int n = Math.max(num-cursorPos, have+FETCH_AHEAD);
+			CharSequence s = ic.getTextAfterCursor(n, 0);
+			if (s==null) return false;
+			if (s.length()<n) bMirrorAtEnd=true; //no more text (or no more available)
+			if (s.length()>have) mirror.insert(mirror.length(), s, have, s.length());
+			return num<mirrorStart+mirror.length();
+		}
+		if (num<0 || bMirrorAtStart) return false;
+		final int have = cursorPos+1-mirrorStart; //chars before cursor in mirror
+		final int n = Math.max(cursorPos+1-num, have+FETCH_AHEAD);
+		CharSequence s = ic.getTextBeforeCursor(n, 0);
+		if (s==null) return false;
+		if (s.length()<n) bMirrorAtStart=true;
+		if (s.length()>have) {
+			mirror.insert(0, s, 0, s.length()-have);
+			mirrorStart -= s.length()-have;
 		}
-	//}
+		return num>=mirrorStart;
 	}
 
-	private String cacheContent;
-	private int cacheStart=-1; //cacheContent[x] = edittext[x+cacheStart]
+	/** Local copy of the text around the cursor: mirror[x] = edittext[x+mirrorStart].
+	 * Kept up to date by Dasher's own edits; it is extended (by requesting text from the
+	 * InputConnection) when characters are wanted beyond it, and discarded (i.e.
+	 * bMirrorValid cleared) only when the text may have been edited by someone else.
+	 * If valid, always contains the cursor: mirrorStart <= lastCursorPos+1 <= mirrorStart+mirror.length() */
+	private final GapBuffer mirror = new GapBuffer();
+	private int mirrorStart;
+	private boolean bMirrorValid;
+	/** Whether the mirror is known to reach the start/end of the text (no more can be fetched) */
+	private boolean bMirrorAtStart, bMirrorAtEnd;
 
 	public void moveCursor(int iNewOffset) {
+		flushEdits();
 		synchronized (expectedOffsets) {
 			synchronized(this) {
 				ic.setSelection(iNewOffset+1, iNewOffset+1);
+				//keep the mirror if the new cursor is still in it
+				if (iNewOffset+1<mirrorStart || iNewOffset+1>mirrorStart+mirror.length()) bMirrorValid=false;
 				expectedOffsets.push(lastCursorPos=iNewOffset);
 			}
 		}
@@ -13,13 +13,22 @@ import android.util.Log;
 import android.view.WindowManager;
 import dasher.CDasherInput;
 import dasher.CDasherView;
+import dasher.CInputPredictor;
+import dasher.CInputSamples;
 
 public class TiltInput extends CDasherInput implements SensorEventListener {
 	private final SensorManager sm;
 	private final WindowManager wm;
 	
-	/** Last (/current) values of tilt position, as floats in (0,1) */
-	private float fx,fy;
+	/** Units of the tilt positions stored as samples: from 0 to this, across each axis */
+	private static final int RANGE = 1000;
+	/** Tilt positions, as written by the sensor thread on each event */
+	private final CInputSamples samples = new CInputSamples(32);
+	/** Accelerometer readings are noisier than touch positions (for a similar range of units) */
+	private final CInputPredictor predictor = new CInputPredictor(16.0, 1e-4, 20.0);
+	private final CInputSamples.Sample latest = new CInputSamples.Sample();
+	/** Time for which to predict the position, as passed to NewFrame */
+	private long predictTime = -1;
 	/** X & Y values from h/w tilt sensor are multiplied by these scales, then offsets added */
 	private float y_mul, y_off, x_mul, x_off;
 	
@@ -64,6 +73,7 @@ public class TiltInput extends CDasherInput implements SensorEventListener {
 	private int m_iLastOrient;
 	public void onSensorChanged(SensorEvent event) {
 		float[] vals=event.values;
+		float fx, fy;
 		/*StringBuilder sb=new StringBuilder();
 		for (int i=0; i<vals.length; i++)
 			sb.append(i==0 ? "{" : ",").append(vals[i]);
@@ -81,12 +91,21 @@ public class TiltInput extends CDasherInput implements SensorEventListener {
 		}
 		fx = Math.max(0.0f, Math.min(1.0f, fx));
 		fy = Math.max(0.0f, Math.min(1.0f, fy));
+		//event.timestamp's clock varies between devices, so use that of the frames
+		samples.add(System.currentTimeMillis(), (int)(fx*RANGE), (int)(fy*RANGE), 0);
+	}
+	
+	@Override public void NewFrame(long iTime) {
+		predictTime = iTime;
 	}
 	
 	@Override
 	public boolean GetScreenCoords(CDasherView pView, CDasherView.MutablePoint Coordinates) {
 		if (!bActive) return false;
-		Coordinates.init((int)(fx * pView.Screen().GetWidth()), (int)(fy * pView.Screen().GetHeight()));
+		if (!predictor.predict(samples, predictTime, Coordinates, latest)) return false;
+		//prediction may overshoot the ends of the range
+		final long x = Math.max(0, Math.min(RANGE, Coordinates.x)), y = Math.max(0, Math.min(RANGE, Coordinates.y));
+		Coordinates.init(x * pView.Screen().GetWidth() / RANGE, y * pView.Screen().GetHeight() / RANGE);
 		//android.util.Log.d("DasherIME","Tilt: got "+Coordinates[0]+", "+Coordinates[1]);
 		return true;
 	}
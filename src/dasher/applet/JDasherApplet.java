@@ -281,6 +281,7 @@ public class JDasherApplet extends JApplet implements MouseListener, KeyListener
 			    		System.out.println("Trying to find "+fname+" via URL: "+e);
 			    	}
 		    	InputStream in = getClass().getResourceAsStream(fname);
+		    	if (in==null) in = getClass().getResourceAsStream(fname+".gz"); //TrainStream decompresses
 				if (in!=null) into.add(in);
 			}
 
@@ -117,6 +117,7 @@ public class JDasherMenuBar extends JMenuBar implements ActionListener, ItemList
 		m_Host = host;
 		iface=_iface;
 		lstnr = new dasher.CDasherComponent(iface) {
+			{ListenFor(dasher.Esp_parameters.SP_COLOUR_ID);}
 			@Override public void HandleEvent(EParameters eParam) {
 				if(eParam == dasher.Esp_parameters.SP_COLOUR_ID) {
 					setColour(GetStringParameter(dasher.Esp_parameters.SP_COLOUR_ID));
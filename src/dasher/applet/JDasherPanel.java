@@ -11,6 +11,8 @@ import dasher.CCustomColours;
 import dasher.CDasherInterfaceBase;
 import dasher.CDasherScreen;
 import dasher.CDasherView;
+import dasher.CLabelAtlas;
+import dasher.CLabelScreen;
 
 import java.awt.Image;
 import java.awt.geom.Rectangle2D;
@@ -30,7 +32,7 @@ import java.util.HashMap;
  * @author acl33
  *
  */
-public class JDasherPanel extends JPanel implements CDasherScreen {
+public class JDasherPanel extends JPanel implements CLabelScreen {
 	/**Image to which we are currently rendering a new frame; or if we are not
 	 * in the middle of rendering, contains the <em>previous</em> frame to that
 	 * currently displayed 
@@ -108,6 +110,36 @@ public class JDasherPanel extends JPanel implements CDasherScreen {
 	 */
 	private final HashMap<Integer, DasherFont> DrawFonts = new HashMap<Integer, DasherFont>();;
 	
+	/**
+	 * Graphics context used only for measuring text, so that labels can be
+	 * measured (e.g. by the view, when the alphabet or screen changes) before
+	 * any frame is rendered, and without disturbing {@link #paint}'s font.
+	 */
+	private final Graphics measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).getGraphics();
+	
+	/** Max dimensions of {@link LabelImage}s, in pixels */
+	private static final int MAX_ATLAS_SIZE = 1024;
+	
+	/** Labels of the current alphabet, rasterised (black on transparent) into a single image */
+	private static class LabelImage extends CLabelAtlas {
+		final BufferedImage image;
+		LabelImage(CDasherScreen measurer, String[] texts, int[] sizes) {
+			super(measurer, texts, sizes, MAX_ATLAS_SIZE, MAX_ATLAS_SIZE);
+			image = new BufferedImage(Math.max(getWidth(),1), Math.max(getHeight(),1), BufferedImage.TYPE_INT_ARGB);
+			Graphics g = image.getGraphics();
+			g.setColor(Color.BLACK);
+			for (int i=0; i<getNumLabels(); i++) {
+				//as DrawString
+				g.setFont(new Font("sans", 0, getSize(i)));
+				g.drawString(getText(i), getX(i), getY(i) + g.getFontMetrics().getAscent());
+			}
+			g.dispose();
+		}
+	}
+	
+	/** Labels to blit rather than draw as text; or null */
+	private volatile LabelImage labels;
+	
 	/** Width of CDasherScreen - so that of the offscreen image,
 	 * not the component itself! */
 	public int GetWidth() {return scrWidth;}
@@ -205,6 +237,15 @@ public class JDasherPanel extends JPanel implements CDasherScreen {
 	
 	public void DrawString(String string, int x1, int y1, int Size) {
 				
+		final LabelImage l = labels;
+		final int i = (l==null) ? -1 : l.find(string, Size);
+		if (i!=-1) {
+			final int pad = CLabelAtlas.PAD, sx = l.getX(i)-pad, sy = l.getY(i)-pad;
+			final int w = l.getLabelWidth(i)+2*pad, h = l.getLabelHeight(i)+2*pad;
+			paint.drawImage(l.image, x1-pad, y1-pad, x1-pad+w, y1-pad+h, sx, sy, sx+w, sy+h, null);
+			return;
+		}
+		//not in atlas (e.g. control node, or font size changed): draw directly
 		
 		int thisOffset;
 		
@@ -282,7 +323,8 @@ public class JDasherPanel extends JPanel implements CDasherScreen {
 	 * 
 	 * @return Point defining its size.
 	 */
-	public CDasherView.Point TextSize(String string, int Size) {
+	//synchronized as may be called by the view on any thread changing the alphabet
+	public synchronized CDasherView.Point TextSize(String string, int Size) {
 		
 		TextSize testValue = new TextSize();
 		testValue.glyph = string;
@@ -292,8 +334,8 @@ public class JDasherPanel extends JPanel implements CDasherScreen {
 			return TextSizes.get(testValue);
 		}
 		else {
-			paint.setFont(paint.getFont().deriveFont((float)Size));
-			Rectangle2D newsize = paint.getFontMetrics().getStringBounds(string ,paint);
+			measure.setFont(measure.getFont().deriveFont((float)Size));
+			Rectangle2D newsize = measure.getFontMetrics().getStringBounds(string ,measure);
 			CDasherView.Point newpoint = new CDasherView.Point(
 					(int)newsize.getWidth() + 1,
 					(int)newsize.getHeight());
@@ -309,6 +351,12 @@ public class JDasherPanel extends JPanel implements CDasherScreen {
 		
 	}
 
+	/** Rasterises the labels into a new {@link LabelImage}, used for subsequent frames */
+	public void setLabels(String[] texts, int[] sizes) {
+		LabelImage l = new LabelImage(this, texts, sizes);
+		labels = (l.getNumLabels()==0) ? null : l;
+	}
+
 	/**
 	 * Sets the current Graphics context's colour, interpreting
 	 * a colour of -1 as the "default" colour 3.
@@ -28,12 +28,15 @@ package dasher.applet;
 import java.awt.event.*;
 
 import dasher.CDasherView;
+import dasher.CInputPredictor;
+import dasher.CInputSamples;
 import dasher.CDasherView.MutablePoint;
 
 /**
  * Simple mouse input device which uses a mouse motion listener to
- * track the mouse position and reports the latest reading when
- * GetCoordinates is called.
+ * track the mouse position. Every position seen is buffered with its
+ * time, and GetCoordinates reports the position predicted from those
+ * for the time of the frame (see {@link CInputPredictor}).
  * <p>
  * Only methods which differ significantly from their abstract meanings
  * documented in CDasherInput are documented here; for further details
@@ -42,37 +45,46 @@ import dasher.CDasherView.MutablePoint;
 public class JMouseInput extends dasher.CDasherInput implements MouseMotionListener {
 
 	/**
-	 * Last seen mouse X co-ordinate
+	 * Mouse positions seen, written by the event dispatch thread
 	 */
-	private int mouseX;
+	private final CInputSamples samples = new CInputSamples(64);
+	
+	private final CInputPredictor predictor = new CInputPredictor();
+	
+	private final CInputSamples.Sample latest = new CInputSamples.Sample();
 	
 	/**
-	 * Last seen mouse Y co-ordinate
+	 * Time for which to predict the position, as passed to NewFrame
 	 */
-	private int mouseY;
+	private long predictTime = -1;
 	
 	public JMouseInput() {
 		super("Mouse Input"); 
 	}
 
 	/**
-	 * Calls through to mouseMoved - as this gets called in place of the former, if a button is being held down...
+	 * Records the position, flagged as with a button down; if the
+	 * button has just been pressed, this restarts the prediction.
 	 */
 	public void mouseDragged(MouseEvent e) {
-		mouseMoved(e);
+		samples.add(e.getWhen(), e.getX(), e.getY(), CInputSamples.DOWN);
 	}
 
 	/**
-	 * Stores the last seen mouse coordinates.
+	 * Records the position and time of the event.
 	 */
 	public void mouseMoved(MouseEvent e) {
-		mouseX = e.getX();
-		mouseY = e.getY();
+		samples.add(e.getWhen(), e.getX(), e.getY(), 0);
+	}
+
+	@Override
+	public void NewFrame(long iTime) {
+		predictTime = iTime;
 	}
 
 	@Override
 	public boolean GetScreenCoords(CDasherView pView, MutablePoint into) {
-		into.init(mouseX, mouseY);
+		if (!predictor.predict(samples, predictTime, into, latest)) into.init(0, 0);
 		return true;
 	}
 	
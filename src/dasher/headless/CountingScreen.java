@@ -0,0 +1,53 @@
+package dasher.headless;
+
+import dasher.CCustomColours;
+import dasher.CDasherScreen;
+import dasher.CDasherView;
+
+/**
+ * A {@link CDasherScreen} which draws nothing, but counts the primitives
+ * it is asked to draw. Text sizes are approximated from the string length
+ * and font size, as with a fixed-width font: good enough for the View to
+ * lay out labels, without needing any graphics library.
+ */
+public class CountingScreen implements CDasherScreen {
+	private final int m_iWidth, m_iHeight;
+
+	/** Number of calls to each drawing primitive since the last {@link #reset()} */
+	public int numRects, numStrings, numLines, numCircles, numPolygons, numTextSizes;
+
+	public CountingScreen(int iWidth, int iHeight) {
+		this.m_iWidth = iWidth;
+		this.m_iHeight = iHeight;
+	}
+
+	public int GetWidth() {return m_iWidth;}
+
+	public int GetHeight() {return m_iHeight;}
+
+	public CDasherView.Point TextSize(String string, int iSize) {
+		numTextSizes++;
+		return new CDasherView.Point((string.length()*iSize*3)/5, iSize);
+	}
+
+	public void DrawString(String string, int x1, int y1, int iSize) {numStrings++;}
+
+	public void DrawRectangle(int x1, int y1, int x2, int y2, int iFillColour, int iOutlineColour, int iThickness) {numRects++;}
+
+	public void DrawCircle(int iCX, int iCY, int iR, int iFillColour, int iLineColour, int iLineWidth) {numCircles++;}
+
+	public void drawLine(int x0, int y0, int x1, int y1, int iWidth, int iColour) {numLines++;}
+
+	public void Polygon(CDasherView.Point[] Points, int iFillColour, int iOutlineColour, int iWidth) {numPolygons++;}
+
+	public void SetColourScheme(CCustomColours ColourScheme) {}
+
+	/** Total number of primitives drawn (excluding text measurement) */
+	public int numPrimitives() {
+		return numRects+numStrings+numLines+numCircles+numPolygons;
+	}
+
+	public void reset() {
+		numRects=numStrings=numLines=numCircles=numPolygons=numTextSizes=0;
+	}
+}
@@ -0,0 +1,473 @@
+package dasher.headless;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import dasher.CDasherInterfaceBase;
+import dasher.CDisplayList;
+import dasher.CFramePipeline;
+import dasher.CLayeredScreen;
+import dasher.CNodeArena;
+import dasher.CRectBatcher;
+import dasher.CSettingsStore;
+import dasher.CSpanTracer;
+import dasher.CTraceReplayer;
+import dasher.EditableDocument;
+import dasher.EParameters;
+import dasher.Ebp_parameters;
+import dasher.Elp_parameters;
+import dasher.Esp_parameters;
+import dasher.XMLFileParser;
+
+/**
+ * Dasher without any GUI: draws to a {@link CountingScreen}, writes into a
+ * {@link MemoryDocument}, and is steered by a {@link ScriptedInput}. Frames are
+ * driven by {@link #run(long, long)} against a virtual clock, as fast as the
+ * engine can render them, so the throughput of the model/view/LM can be
+ * measured on machines without a display (e.g. CI boxes).
+ * <p>
+ * Alphabet, colour and training files are read from a directory if one is
+ * given, else from the resources packaged alongside the applet (as listed in
+ * its files.txt).
+ */
+public class HeadlessDasher extends CDasherInterfaceBase {
+	/** Package of resources to use if no data directory was specified */
+	private static final String RESOURCE_DIR = "/dasher/applet/";
+
+	/** Key ID sent to start (and restart) the input filter, i.e. mouse click */
+	private static final int START_KEY = 100;
+
+	/** If the model has been stationary for this many frames, we try to restart it */
+	private static final int RESTART_FRAMES = 10;
+
+	private final File m_DataDir;
+	private final ScriptedInput m_ScriptedInput;
+	private final MemoryDocument m_Document = new MemoryDocument();
+	private final CountingScreen m_Screen;
+	/** If non-null, frames are recorded here, then replayed onto m_Screen */
+	private CDisplayList m_DisplayList;
+	/** If non-null, m_DisplayList is replayed through this, to count the batches of rectangles (as on Android) */
+	private CRectBatcher m_Batcher;
+	/** If non-null, frames are recorded, then replayed onto m_Screen by another thread */
+	private CFramePipeline m_Pipeline;
+	/** If non-null, frames are recorded in layers, and only changes replayed onto m_Screen */
+	private CLayeredScreen m_Layers;
+	/** With m_Layers, number of frames presented in full, presenting only decorations, and presenting nothing */
+	private int m_iFullFrames, m_iDecorationFrames, m_iUnchangedFrames;
+
+	/** Tracked via onPause/onUnpause - whether the model moved in the last frame */
+	private boolean m_bMoving;
+
+	/**
+	 * @param dataDir directory in which to look for alphabet/colour/training files;
+	 * null to use packaged resources
+	 * @param input scripted input to steer by
+	 * @param iWidth width of (virtual) screen
+	 * @param iHeight height of (virtual) screen
+	 */
+	public HeadlessDasher(File dataDir, ScriptedInput input, int iWidth, int iHeight) {
+		super(createSettingsStore());
+		this.m_DataDir = dataDir;
+		this.m_ScriptedInput = input;
+		this.m_Screen = new CountingScreen(iWidth, iHeight);
+		//use continuous steering, which a click (KeyDown 100) starts, and nothing else does
+		SetStringParameter(Esp_parameters.SP_INPUT_FILTER, "Normal Control");
+		SetStringParameter(Esp_parameters.SP_INPUT_DEVICE, input.getName());
+		SetBoolParameter(Ebp_parameters.BP_START_MOUSE, true);
+		SetBoolParameter(Ebp_parameters.BP_CIRCLE_START, false);
+	}
+
+	/** Default settings, i.e. none are persisted between runs */
+	private static CSettingsStore createSettingsStore() {
+		CSettingsStore sets = new CSettingsStore();
+		sets.LoadPersistent();
+		return sets;
+	}
+
+	/**
+	 * Makes each frame be recorded into a {@link CDisplayList} and then
+	 * replayed onto the screen, as on Android. Call before {@link #Realize()}.
+	 */
+	public void UseDisplayList() {
+		m_DisplayList = new CDisplayList(m_Screen);
+	}
+
+	/**
+	 * As {@link #UseDisplayList()}, but replaying each frame through a
+	 * {@link CRectBatcher}, as on Android, so the number of batches (i.e.
+	 * draw calls a real screen would make) can be reported. Each rectangle
+	 * is still drawn individually onto the screen, with fills and outlines
+	 * counted separately. Call before {@link #Realize()}.
+	 */
+	public void UseBatching() {
+		UseDisplayList();
+		m_Batcher = new CRectBatcher(m_Screen, new CRectBatcher.Sink() {
+			public void drawRects(int iColour, int iThickness, int[] rects, int iCount) {
+				for (int i=0; i<iCount; i++)
+					m_Screen.DrawRectangle(rects[4*i], rects[4*i+1], rects[4*i+2], rects[4*i+3],
+							iThickness==0 ? iColour : -1, iColour, iThickness);
+			}
+		});
+	}
+
+	/**
+	 * Makes each frame be recorded into a {@link CFramePipeline}, and replayed
+	 * onto the screen by a separate thread. Every frame is replayed (i.e. double
+	 * buffering, not triple), so counts of primitives are as without. Call before {@link #Realize()}.
+	 */
+	public void UsePipeline() {
+		m_Pipeline = new CFramePipeline(m_Screen, new CFramePipeline.Presenter() {
+			public void present(CDisplayList frame) {
+				frame.replay(m_Screen);
+			}
+		}, false);
+	}
+
+	/**
+	 * Makes the screen a {@link CLayeredScreen}, so nodes are rendered only when
+	 * the model moves, and only what changed in each frame is replayed onto the
+	 * screen (as on Android). Call before {@link #Realize()}.
+	 */
+	public void UseLayers() {
+		m_Layers = new CLayeredScreen(m_Screen);
+	}
+
+	/** Loads data, trains the LM and connects the screen. Call once before {@link #run(long, long)}. */
+	public void Realize() {
+		LoadData();
+		DoSetup();
+		ChangeScreen(m_Pipeline!=null ? m_Pipeline : m_DisplayList!=null ? m_DisplayList : m_Layers!=null ? m_Layers : m_Screen);
+	}
+
+	@Override public void NewFrame(long iTime) {
+		if (m_Pipeline!=null) {
+			m_Pipeline.beginFrame();
+			super.NewFrame(iTime);
+			m_Pipeline.endFrame();
+		} else if (m_DisplayList!=null) {
+			m_DisplayList.clear();
+			super.NewFrame(iTime);
+			if (m_Batcher!=null) {
+				m_DisplayList.replay(m_Batcher);
+				m_Batcher.flush();
+			} else m_DisplayList.replay();
+		} else if (m_Layers!=null) {
+			m_Layers.beginFrame();
+			super.NewFrame(iTime);
+			switch (m_Layers.endFrame()) {
+			case ALL:
+				m_Layers.getNodes().replay(m_Screen);
+				m_Layers.getDecorations().replay(m_Screen);
+				m_iFullFrames++;
+				break;
+			case DECORATIONS:
+				//a real screen would first restore the damaged area from its raster of the nodes
+				m_Layers.getDecorations().replay(m_Screen);
+				m_iDecorationFrames++;
+				break;
+			case NONE:
+				m_iUnchangedFrames++;
+			}
+		} else super.NewFrame(iTime);
+	}
+
+	@Override
+	protected void CreateModules() {
+		super.CreateModules();
+		RegisterModule(setDefaultInput(m_ScriptedInput));
+	}
+
+	@Override
+	protected void ScanXMLFiles(XMLFileParser parser, String prefix) {
+		List<String> names = new ArrayList<String>();
+		listFiles(names);
+		for (String name : names) {
+			if (!name.startsWith(prefix) || !name.endsWith(".xml")) continue;
+			InputStream in = open(name);
+			if (in==null) continue;
+			try {
+				parser.ParseFile(in, false);
+			} catch (Exception e) {
+				System.err.println("Error parsing "+name+": "+e);
+			} finally {
+				try {in.close();} catch (IOException e) {/*ignore*/}
+			}
+		}
+	}
+
+	@Override
+	protected void GetStreams(String fname, Collection<InputStream> into) {
+		InputStream in = open(fname);
+		if (in==null) in = open(fname+".gz"); //TrainStream decompresses
+		if (in!=null) into.add(in);
+	}
+
+	private void listFiles(List<String> into) {
+		if (m_DataDir!=null) {
+			String[] files = m_DataDir.list();
+			if (files!=null) for (String s : files) into.add(s);
+			return;
+		}
+		InputStream in = getClass().getResourceAsStream(RESOURCE_DIR+"files.txt");
+		if (in==null) return;
+		try {
+			java.io.BufferedReader rdr = new java.io.BufferedReader(new java.io.InputStreamReader(in));
+			for (String line; (line=rdr.readLine())!=null;)
+				into.add(line.trim());
+			rdr.close();
+		} catch (IOException e) {
+			System.err.println("Reading resource files.txt: "+e);
+		}
+	}
+
+	private InputStream open(String fname) {
+		if (m_DataDir!=null) {
+			try {
+				return new FileInputStream(new File(m_DataDir, fname));
+			} catch (FileNotFoundException e) {
+				return null;
+			}
+		}
+		return getClass().getResourceAsStream(RESOURCE_DIR+fname);
+	}
+
+	@Override
+	public EditableDocument getDocument() {return m_Document;}
+
+	public MemoryDocument getMemoryDocument() {return m_Document;}
+
+	@Override
+	public void Message(String msg, int severity) {
+		System.err.println((severity==0 ? "Info: " : severity==1 ? "Warning: " : "Error: ")+msg);
+	}
+
+	@Override public void StartShutdown() {
+		super.StartShutdown();
+		if (m_Pipeline!=null) m_Pipeline.close();
+	}
+
+	@Override protected void onUnpause() {
+		super.onUnpause();
+		m_bMoving=true;
+	}
+
+	@Override protected void onPause() {
+		super.onPause();
+		m_bMoving=false;
+	}
+
+	/** Measurements from a single call to {@link HeadlessDasher#run(long, long)} */
+	public static class Result {
+		public int frames;
+		public long wallNanos, simulatedMillis;
+		public long nodesCreated, nodesDeleted, lmCalls, primitivesDrawn;
+		public long charsOutput, charsDeleted;
+		public int restarts;
+
+		public double framesPerSecond() {return frames * 1e9 / wallNanos;}
+
+		/** Net characters entered, per simulated minute */
+		public double charsPerMinute() {return (charsOutput-charsDeleted) * 60000.0 / simulatedMillis;}
+
+		@Override public String toString() {
+			return String.format("%d frames (%.1f simulated s) in %.3f s wall: %.1f frames/s%n"
+					+ "nodes created %d, deleted %d; LM calls %d; primitives drawn %d%n"
+					+ "chars output %d, deleted %d: %.1f chars/simulated minute; %d restarts",
+					frames, simulatedMillis/1000.0, wallNanos/1e9, framesPerSecond(),
+					nodesCreated, nodesDeleted, lmCalls, primitivesDrawn,
+					charsOutput, charsDeleted, charsPerMinute(), restarts);
+		}
+	}
+
+	/**
+	 * Renders frames as fast as possible, advancing a virtual clock by a fixed
+	 * step each frame.
+	 * @param iDuration simulated time to run for, in ms
+	 * @param iFrameTime simulated time between frames, in ms
+	 * @return counts of work done during the run
+	 */
+	public Result run(long iDuration, long iFrameTime) {
+		Result res = startMeasuring();
+		long t = 1000; //some code treats time 0 as "never"
+		int iStill = RESTART_FRAMES-1; //so we start immediately
+		final long start = System.nanoTime();
+		for (final long end = t+iDuration; t<end; t+=iFrameTime) {
+			m_ScriptedInput.setTime(t);
+			if (m_bMoving) iStill=0;
+			else if (++iStill>=RESTART_FRAMES) {
+				KeyDown(t, START_KEY); KeyUp(t, START_KEY);
+				iStill=0; res.restarts++;
+			}
+			NewFrame(t);
+			res.frames++;
+		}
+		res.wallNanos = System.nanoTime()-start;
+		res.simulatedMillis = iDuration;
+		return finishMeasuring(res);
+	}
+
+	/**
+	 * Replays a recorded trace, as fast as possible.
+	 * @param replayer replayer which has already been used to set up this
+	 * interface (parameters, initial context, and input device registered)
+	 * @return counts of work done during the replay
+	 */
+	public Result replay(CTraceReplayer replayer) throws IOException {
+		Result res = startMeasuring();
+		final long start = System.nanoTime();
+		replayer.replay(this);
+		res.wallNanos = System.nanoTime()-start;
+		res.frames = replayer.getNumFrames();
+		res.simulatedMillis = replayer.getDuration();
+		return finishMeasuring(res);
+	}
+
+	/** Counter values at the start of the current measurement, so we can report differences */
+	private int m_iInitAllocs, m_iInitRecycles, m_iInitLMCalls;
+	private long m_iInitOutput, m_iInitDeleted;
+
+	private Result startMeasuring() {
+		final CNodeArena arena = getNodeArena();
+		m_iInitAllocs = arena.numAllocs(); m_iInitRecycles = arena.numRecycles();
+		m_iInitLMCalls = m_pNCManager.getNumProbCalls();
+		m_iInitOutput = m_Document.numOutput(); m_iInitDeleted = m_Document.numDeleted();
+		m_Screen.reset();
+		m_iFullFrames=m_iDecorationFrames=m_iUnchangedFrames=0;
+		ResetFrameProfile();
+		return new Result();
+	}
+
+	private Result finishMeasuring(Result res) {
+		final CNodeArena arena = getNodeArena();
+		res.nodesCreated = arena.numAllocs()-m_iInitAllocs;
+		res.nodesDeleted = arena.numRecycles()-m_iInitRecycles;
+		res.lmCalls = m_pNCManager.getNumProbCalls()-m_iInitLMCalls;
+		if (m_Pipeline!=null) {
+			try {
+				m_Pipeline.waitUntilPresented();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		res.primitivesDrawn = m_Screen.numPrimitives();
+		res.charsOutput = m_Document.numOutput()-m_iInitOutput;
+		res.charsDeleted = m_Document.numDeleted()-m_iInitDeleted;
+		return res;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: HeadlessDasher [-data dir] [-script file] [-alphabet id]\n"
+				+ "       [-duration seconds] [-frame ms] [-size width height]\n"
+				+ "       [-record tracefile | -replay tracefile] [-profile] [-spans jsonfile] [-displaylist | -batch | -pipeline | -layers]\n"
+				+ "       [-set parameter value]...");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		File dataDir = null; ScriptedInput input = null; String alph = null;
+		String recordFile = null, replayFile = null, spanFile = null;
+		boolean bProfile = false, bDisplayList = false, bBatch = false, bPipeline = false, bLayers = false;
+		List<String[]> settings = new ArrayList<String[]>();
+		long iDuration = 60000, iFrame = 20;
+		int iWidth = 480, iHeight = 320;
+		try {
+			for (int i=0; i<args.length; i++) {
+				if (args[i].equals("-data")) dataDir = new File(args[++i]);
+				else if (args[i].equals("-script")) input = ScriptedInput.read(new FileReader(args[++i]));
+				else if (args[i].equals("-alphabet")) alph = args[++i];
+				else if (args[i].equals("-record")) recordFile = args[++i];
+				else if (args[i].equals("-replay")) replayFile = args[++i];
+				else if (args[i].equals("-duration")) iDuration = (long)(Double.parseDouble(args[++i])*1000);
+				else if (args[i].equals("-profile")) bProfile = true;
+				else if (args[i].equals("-displaylist")) bDisplayList = true;
+				else if (args[i].equals("-batch")) bBatch = true;
+				else if (args[i].equals("-pipeline")) bPipeline = true;
+				else if (args[i].equals("-layers")) bLayers = true;
+				else if (args[i].equals("-spans")) spanFile = args[++i];
+				else if (args[i].equals("-frame")) iFrame = Long.parseLong(args[++i]);
+				else if (args[i].equals("-set")) {
+					settings.add(new String[] {args[i+1], args[i+2]});
+					i+=2;
+				}
+				else if (args[i].equals("-size")) {
+					iWidth = Integer.parseInt(args[++i]); iHeight = Integer.parseInt(args[++i]);
+				} else usage();
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			usage();
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		if (iFrame<=0 || iDuration<=0 || (recordFile!=null && replayFile!=null)) usage();
+		if (input==null) input = ScriptedInput.makeSweep();
+
+		HeadlessDasher dasher = new HeadlessDasher(dataDir, input, iWidth, iHeight);
+		if (alph!=null) dasher.SetStringParameter(Esp_parameters.SP_ALPHABET_ID, alph);
+		CTraceReplayer replayer = null;
+		if (replayFile!=null) {
+			replayer = new CTraceReplayer(new BufferedInputStream(new FileInputStream(replayFile)));
+			replayer.applyParameters(dasher);
+			dasher.m_Document.setText(replayer.getInitialContext());
+			dasher.RegisterModule(replayer.getInput());
+		}
+		for (String[] set : settings) {
+			EParameters param = EParameters.BY_NAME.get(set[0]);
+			if (param instanceof Ebp_parameters) dasher.SetBoolParameter((Ebp_parameters)param, Boolean.parseBoolean(set[1]));
+			else if (param instanceof Elp_parameters) dasher.SetLongParameter((Elp_parameters)param, Long.parseLong(set[1]));
+			else if (param instanceof Esp_parameters) dasher.SetStringParameter((Esp_parameters)param, set[1]);
+			else {
+				System.err.println("Unknown parameter "+set[0]);
+				usage();
+			}
+		}
+		if (bProfile) dasher.SetBoolParameter(Ebp_parameters.BP_PROFILE_FRAMES, true);
+		if (bBatch) dasher.UseBatching();
+		else if (bDisplayList) dasher.UseDisplayList();
+		if (bPipeline) dasher.UsePipeline();
+		else if (bLayers) dasher.UseLayers();
+		if (spanFile!=null) dasher.SetBoolParameter(Ebp_parameters.BP_TRACE_SPANS, true);
+		long start = System.nanoTime();
+		dasher.Realize();
+		System.out.printf("Setup (incl. training) took %.3f s%n", (System.nanoTime()-start)/1e9);
+
+		if (recordFile!=null) dasher.StartTrace(new BufferedOutputStream(new FileOutputStream(recordFile)));
+		Result res = (replayer==null) ? dasher.run(iDuration, iFrame) : dasher.replay(replayer);
+		dasher.StopTrace();
+		System.out.println(res);
+		if (bLayers)
+			System.out.println("layers: "+dasher.m_iFullFrames+" frames in full, "+dasher.m_iDecorationFrames
+					+" decorations only, "+dasher.m_iUnchangedFrames+" unchanged");
+		if (bBatch)
+			System.out.println("batching: "+dasher.m_Batcher.getNumRects()+" rectangles in "+dasher.m_Batcher.getNumBatches()+" batches");
+		if (replayer!=null)
+			System.out.println("Output "+(replayer.getExpectedText().equals(dasher.m_Document.toString()) ? "matches" : "DIFFERS FROM")+" recording");
+		List<CNodeArena.Stats> stats = new ArrayList<CNodeArena.Stats>();
+		dasher.getNodeArena().GetStats(stats);
+		for (CNodeArena.Stats s : stats) System.out.println(s);
+		if (bProfile) System.out.println(dasher.GetFrameProfile());
+		if (spanFile!=null) {
+			Writer w = new BufferedWriter(new FileWriter(spanFile));
+			try {
+				CSpanTracer.writeChromeTrace(w);
+			} finally {
+				w.close();
+			}
+		}
+		String text = dasher.getMemoryDocument().toString();
+		System.out.println("Text: "+(text.length()>200 ? "..."+text.substring(text.length()-200) : text));
+		dasher.StartShutdown();
+	}
+}
@@ -0,0 +1,53 @@
+package dasher.headless;
+
+import dasher.EditableDocument;
+
+/**
+ * In-memory {@link EditableDocument}, backed by a StringBuilder. Counts the
+ * characters written and deleted, so that entry rate can be measured.
+ */
+public class MemoryDocument implements EditableDocument {
+	private final StringBuilder m_Text = new StringBuilder();
+
+	/** Cumulative number of characters output, and deleted, since construction */
+	private long m_iNumOutput, m_iNumDeleted;
+
+	public Character getCharAt(int pos) {
+		return (pos>=0 && pos<m_Text.length()) ? m_Text.charAt(pos) : null;
+	}
+
+	/** Insert the string such that its last character is at the given offset
+	 * (i.e. the offset of the node which output it) */
+	public void outputText(String ch, int offset) {
+		int pos = offset+1-ch.length();
+		if (pos<0 || pos>m_Text.length()) throw new IllegalArgumentException("Output of '"+ch+"' at "+offset+" but text has length "+m_Text.length());
+		m_Text.insert(pos, ch);
+		m_iNumOutput+=ch.length();
+	}
+
+	public void deleteText(String ch, int offset) {
+		int pos = offset+1-ch.length();
+		if (pos<0 || offset>=m_Text.length() || !m_Text.substring(pos, offset+1).equals(ch))
+			throw new IllegalArgumentException("Deletion of '"+ch+"' at "+offset+" doesn't match text");
+		m_Text.delete(pos, offset+1);
+		m_iNumDeleted+=ch.length();
+	}
+
+	public void moveCursor(int iNewOffset) {
+		//no visible cursor; the model tracks the offset itself
+	}
+
+	/** Replace the entire contents (e.g. with some initial context); does not count as output */
+	public void setText(String text) {
+		m_Text.setLength(0);
+		m_Text.append(text);
+	}
+
+	public int length() {return m_Text.length();}
+
+	public long numOutput() {return m_iNumOutput;}
+
+	public long numDeleted() {return m_iNumDeleted;}
+
+	@Override public String toString() {return m_Text.toString();}
+}
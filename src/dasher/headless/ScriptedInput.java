@@ -0,0 +1,107 @@
+package dasher.headless;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import dasher.CDasherInput;
+import dasher.CDasherView;
+import dasher.CDasherView.MutablePoint;
+
+import static dasher.CDasherModel.CROSS_X;
+import static dasher.CDasherModel.CROSS_Y;
+
+/**
+ * Input device which follows a fixed script of positions (in Dasher
+ * co-ordinates, so independent of screen size) against a virtual clock.
+ * The position is linearly interpolated between waypoints, and the script
+ * loops once the last waypoint is passed. The owner must call
+ * {@link #setTime(long)} before each frame.
+ */
+public class ScriptedInput extends CDasherInput {
+	private final long[] m_Times, m_X, m_Y;
+	private long m_iTime;
+
+	/**
+	 * @param times strictly increasing times (ms, from start of script) of each waypoint
+	 * @param xs Dasher x co-ordinate at each waypoint
+	 * @param ys Dasher y co-ordinate at each waypoint
+	 */
+	public ScriptedInput(long[] times, long[] xs, long[] ys) {
+		super("Scripted Input");
+		if (times.length==0 || xs.length!=times.length || ys.length!=times.length)
+			throw new IllegalArgumentException("Need equal, non-zero, numbers of times and co-ordinates");
+		for (int i=1; i<times.length; i++)
+			if (times[i]<=times[i-1]) throw new IllegalArgumentException("Times must be increasing");
+		this.m_Times=times; this.m_X=xs; this.m_Y=ys;
+	}
+
+	/**
+	 * Default script: a steady zoom slightly left of the crosshair, sweeping
+	 * smoothly up and down across about half the screen every 12 seconds,
+	 * so a variety of (mostly probable) symbols get entered.
+	 */
+	public static ScriptedInput makeSweep() {
+		final int n=48; final long period=12000;
+		long[] ts = new long[n+1], xs = new long[n+1], ys = new long[n+1];
+		for (int i=0; i<=n; i++) {
+			ts[i] = (period*i)/n;
+			xs[i] = CROSS_X/2;
+			ys[i] = CROSS_Y + (long)(CROSS_Y/2 * Math.sin(2*Math.PI*i/n));
+		}
+		return new ScriptedInput(ts,xs,ys);
+	}
+
+	/**
+	 * Reads a script, one waypoint per line: "time x y", with time in ms and
+	 * x, y in Dasher co-ordinates. Blank lines and lines beginning # are ignored.
+	 */
+	public static ScriptedInput read(Reader in) throws IOException {
+		List<long[]> pts = new ArrayList<long[]>();
+		BufferedReader rdr = new BufferedReader(in);
+		for (String line; (line=rdr.readLine())!=null;) {
+			line=line.trim();
+			if (line.length()==0 || line.startsWith("#")) continue;
+			String[] parts = line.split("\\s+");
+			if (parts.length!=3) throw new IOException("Expected 'time x y' but found: "+line);
+			try {
+				pts.add(new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])});
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad number in line: "+line);
+			}
+		}
+		long[] ts = new long[pts.size()], xs = new long[pts.size()], ys = new long[pts.size()];
+		for (int i=0; i<ts.length; i++) {
+			ts[i]=pts.get(i)[0]; xs[i]=pts.get(i)[1]; ys[i]=pts.get(i)[2];
+		}
+		return new ScriptedInput(ts,xs,ys);
+	}
+
+	/** Sets the virtual time at which subsequent co-ordinates are computed */
+	public void setTime(long iTime) {
+		this.m_iTime = iTime;
+	}
+
+	@Override
+	public boolean GetDasherCoords(CDasherView pView, MutablePoint coords) {
+		final int last = m_Times.length-1;
+		long t = m_iTime;
+		if (last==0 || t<=m_Times[0]) {
+			coords.init(m_X[0], m_Y[0]);
+			return true;
+		}
+		t = m_Times[0] + (t-m_Times[0]) % (m_Times[last]-m_Times[0]+1);
+		int i=1;
+		while (i<last && m_Times[i]<t) i++;
+		if (t>=m_Times[i]) {
+			coords.init(m_X[i], m_Y[i]);
+		} else {
+			final long dt = m_Times[i]-m_Times[i-1], f = t-m_Times[i-1];
+			coords.init(m_X[i-1] + ((m_X[i]-m_X[i-1])*f)/dt,
+						m_Y[i-1] + ((m_Y[i]-m_Y[i-1])*f)/dt);
+		}
+		return true;
+	}
+}